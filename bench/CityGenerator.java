@@ -0,0 +1,64 @@
+package bench;
+
+import settings.Storage;
+import settings.simulation.CityRandom;
+import types.Buildings.Forest;
+import types.Buildings.Police;
+import types.Buildings.Road;
+import types.Buildings.Stadium;
+import types.Zones.Industrial;
+import types.Zones.Residential;
+import types.Zones.Service;
+
+/**
+ * The CityGenerator class builds reproducible cities for the benchmarks.
+ * Every fourth row is a road; the rows next to the roads hold zones and the row in between holds
+ * service buildings and forests. The density is the share of the free cells that get something.
+ * The last column is never built on, so a benchmark can place and remove things there.
+ */
+public final class CityGenerator {
+
+    private CityGenerator() {
+    }
+
+    /**
+     * Generates a square city without a clock, so it only changes through the benchmark.
+     *
+     * @param size    the side length of the map
+     * @param density the share of the free cells to build on, from 0 to 1
+     * @param seed    the seed of the layout and of the city itself
+     * @return the city
+     */
+    public static Storage generate(int size, double density, long seed) {
+        Storage storage = new Storage("bench", size + "-" + density, size, size, null);
+        storage.getEngine().setSnapshots(false);
+        storage.setSeed(seed);
+        CityRandom random = new CityRandom(seed).split(1);
+        for(int y = 0; y < size; y++){
+            for(int x = 0; x < size; x++){
+                if(y % 4 == 0){
+                    storage.addBuilding(new Road(x, y));
+                    continue;
+                }
+                if(x == size - 1 || random.nextDouble() >= density) continue;
+                int kind = random.nextInt(100);
+                if(y % 4 == 2){
+                    if(kind < 60) storage.addBuilding(new Forest(x, y));
+                    else if(kind < 85) storage.addBuilding(new Police(x, y));
+                    else if(x + 1 < size - 1 && y + 1 < size) storage.addBuilding(new Stadium(x, y));
+                }
+                else if(kind < 60){
+                    storage.addZone(new Residential(x, y));
+                }
+                else if(kind < 85){
+                    storage.addZone(new Industrial(x, y));
+                }
+                else{
+                    storage.addZone(new Service(x, y));
+                }
+            }
+        }
+        storage.getEngine().runTicks(1);
+        return storage;
+    }
+}
@@ -0,0 +1,180 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import settings.General;
+import settings.Storage;
+import settings.persistence.SaveImage;
+import settings.simulation.CityRandom;
+import types.Building;
+import types.Buildings.Police;
+import types.Zone;
+import types.Zones.Residential;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the hot paths of Storage over generated cities of several sizes and densities.
+ * Run with runbench.sh, which also reports the bytes allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StorageBenchmark {
+
+    @Param({"32", "128", "512"})
+    public int size;
+
+    @Param({"0.2", "0.6"})
+    public double density;
+
+    private Storage storage;
+    private Building probe;
+    private int[] cells;
+    private int[] homes;
+    private int cursor = 0;
+    private String saveFile;
+
+    @Setup(Level.Trial)
+    public void setupCity() throws IOException {
+        // The saves of the benchmarks stay out of the work tree
+        General.saveFolder = Files.createTempDirectory("bench-saves").toString();
+        storage = CityGenerator.generate(size, density, 42);
+        // The last column is kept free by the generator
+        probe = new Police(size - 1, 2);
+        CityRandom random = new CityRandom(7);
+        cells = new int[4096];
+        for(int i = 0; i < cells.length; i++){
+            cells[i] = random.nextInt(size * size);
+        }
+        ArrayList<Integer> residential = new ArrayList<Integer>();
+        for(Zone zone: storage.getZones()){
+            if(zone instanceof Residential) residential.add(zone.getY() * size + zone.getX());
+        }
+        homes = new int[Math.max(1, residential.size())];
+        for(int i = 0; i < residential.size(); i++){
+            homes[i] = residential.get(i);
+        }
+        storage.save();
+        saveFile = General.saveFolder + "/" + storage.getPlayerName() + "_" + storage.getCityName() + ".sav";
+    }
+
+    private int nextCell(int[] from) {
+        cursor = (cursor + 1) % from.length;
+        return from[cursor];
+    }
+
+    @Benchmark
+    public boolean placeAndRemoveBuilding() {
+        boolean added = storage.addBuilding(probe);
+        storage.removeBuilding(probe.getX(), probe.getY());
+        return added;
+    }
+
+    @Benchmark
+    public boolean placeAndRemoveZone() {
+        boolean added = storage.addZone(new Residential(size - 1, 2));
+        storage.removeZone(size - 1, 2);
+        return added;
+    }
+
+    @Benchmark
+    public int getBuildingIndex() {
+        int cell = nextCell(cells);
+        return storage.getBuildingIndex(cell % size, cell / size, 1);
+    }
+
+    @Benchmark
+    public Building getBuildingAt() {
+        int cell = nextCell(cells);
+        return storage.getBuildingAt(cell % size, cell / size);
+    }
+
+    @Benchmark
+    public int updateSatisfaction() {
+        storage.updateSatisfaction();
+        return storage.getSatisfaction();
+    }
+
+    @Benchmark
+    public int updateSatisfactionAfterChange() {
+        // A police station coming and going dirties every zone in its radius
+        storage.addBuilding(probe);
+        storage.updateSatisfaction();
+        storage.removeBuilding(probe.getX(), probe.getY());
+        storage.updateSatisfaction();
+        return storage.getSatisfaction();
+    }
+
+    @Benchmark
+    public void updateWorkplaces() {
+        storage.updateWorkplaces();
+    }
+
+    @Benchmark
+    public Zone getWorkplace() {
+        int home = nextCell(homes);
+        return storage.getWorkplace(home % size, home / size);
+    }
+
+    @Benchmark
+    public void tick() {
+        storage.getEngine().tick();
+    }
+
+    @Benchmark
+    public String save() {
+        storage.save();
+        return saveFile;
+    }
+
+    @Benchmark
+    public int load() {
+        storage.load(saveFile);
+        return storage.getZones().size();
+    }
+
+    /**
+     * increasePopulation fills the city within a few calls, so every call starts again from the generated city.
+     * The city is restored from an image taken once, which keeps the reset cheap even on the largest maps.
+     */
+    @State(Scope.Thread)
+    public static class GrowingCity {
+        SaveImage image;
+        Storage storage;
+
+        @Setup(Level.Trial)
+        public void capture(StorageBenchmark benchmark) {
+            image = benchmark.storage.capture();
+            storage = new Storage("", "", benchmark.size, benchmark.size, null);
+            storage.getEngine().setSnapshots(false);
+        }
+
+        @Setup(Level.Invocation)
+        public void reset() throws IOException {
+            storage.restore(image);
+        }
+    }
+
+    @Benchmark
+    public int increasePopulation(GrowingCity city) {
+        city.storage.increasePopulation();
+        return city.storage.getPopulation();
+    }
+}
@@ -8,6 +8,10 @@ It extends the Window class and provides a graphical user interface for the game
 package gui.elements;
 
 import settings.*;
+import settings.persistence.AutosaveService;
+import settings.persistence.Journal;
+import settings.simulation.CitySnapshot;
+import settings.simulation.RealTimeClock;
 import gui.Window;
 import types.Building;
 import types.Buildings.*;
@@ -18,6 +22,8 @@ import types.Zones.*;
 import java.awt.*;
 import javax.swing.*;
 import java.awt.event.*;
+import java.io.File;
+import java.io.IOException;
 
 /**
 
@@ -44,50 +50,117 @@ public class Game extends Window {
 
     private String selected;
     private Storage storage;
+    private AutosaveService autosave;
 
     private Timer timer;
     //boolean isPaused = false;
     int pausedSpeed = 1;
+    private long paintedChanges = -1;
+    private boolean closed = false;
 
     /**
     Constructs a Game object with the specified player name and city name.
     @param playerName the name of the player
     @param cityName the name of the city
+    @param replace true to replace an existing save of the same player and city
+    @throws IOException if the save of the city cannot be written, or exists and may not be replaced
     */
-    public Game(String playerName, String cityName) {
+    public Game(String playerName, String cityName, boolean replace) throws IOException {
         super();
-        this.storage = new Storage(playerName, cityName);
+        this.storage = new Storage(playerName, cityName, General.mapWidth, General.mapHeight, new RealTimeClock());
+        // Every command is journaled next to the save, so a crash only loses the last tick
+        File snapshot = saveFileFor(playerName, cityName);
+        try {
+            Journal.create(storage, snapshot, Journal.fileFor(snapshot), replace);
+        } catch (IOException e) {
+            storage.getEngine().stop();
+            this.dispose();
+            throw e;
+        }
+        this.autosave = new AutosaveService(storage, snapshot);
         this.startGame();
     }
 
+    /**
+    Returns the save file of a city.
+    @param playerName the name of the player
+    @param cityName the name of the city
+    @return the save file
+    */
+    public static File saveFileFor(String playerName, String cityName) {
+        return new File(General.saveFolder, playerName + "_" + cityName + ".sav");
+    }
+
     /**
 
     Constructs a Game object with the specified file name.
     @param filename the name of the file
+    @throws IOException if the save cannot be loaded
     */
-    public Game(String filename) {
+    public Game(String filename) throws IOException {
         super();
-        this.storage = new Storage("","");
-        this.storage.load(filename);
+        this.storage = new Storage("", "", General.mapWidth, General.mapHeight, new RealTimeClock());
+        // Replays the commands journaled since the save was written
+        File snapshot = new File(filename);
+        try {
+            // The chunks around the centre of the map view are read first
+            Journal.open(storage, snapshot, Journal.fileFor(snapshot), General.width / General.cellSize / 2, General.height / General.cellSize / 2);
+        } catch (IOException e) {
+            // Nothing may be saved over a file that was not loaded
+            storage.getEngine().stop();
+            this.dispose();
+            throw e;
+        }
+        this.autosave = new AutosaveService(storage, snapshot);
         this.startGame();
     }
 
     private void startGame() {
+        this.autosave.start(General.autosaveInterval);
+        // Runs before the window exits the program, so the tail of the journal reaches the disk
+        this.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                closeCity();
+            }
+        });
         this.assignMenuBar();
         this.setup();
         this.timer = new Timer(1000, e -> {
+            CitySnapshot snapshot = storage.getEngine().getSnapshot();
             this.updateTopPanel();
-            if(storage.getSatisfaction() <= 10){
+            if(snapshot.getSatisfaction() <= 10){
                 JOptionPane.showMessageDialog(null, "Residents are dissatisfied. You are fired!", "Game End", JOptionPane.INFORMATION_MESSAGE );
-                timer.stop();
+                closeCity();
                 this.dispose();
                 new Menu().setVisible(true);
             }
-            if(storage.isChanged()) canvas.repaint();
+            if(snapshot.getChangeCount() != paintedChanges) canvas.repaint();
         });
         this.timer.start();
     }
 
+    /**
+     * Stops the simulation of the city and closes its autosave and journal.
+     * Does nothing once the city is closed.
+     */
+    private void closeCity() {
+        if(closed) return;
+        closed = true;
+        timer.stop();
+        autosave.close();
+        storage.getEngine().stop();
+        Journal journal = storage.getJournal();
+        if(journal != null){
+            storage.setJournal(null);
+            try {
+                journal.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     /**
      * Assigns the city menu to the game.
      * 
@@ -117,7 +190,8 @@ public class Game extends Window {
         menuItem.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                storage.save();
+                // Written on the autosave thread, the interface goes on meanwhile
+                autosave.saveNow();
             }
         });
         menu.add(menuItem);
@@ -261,9 +335,10 @@ public class Game extends Window {
  * Updates the top panel of the game interface with the latest date, money, and satisfaction values.
  */
     private void updateTopPanel() {
-        date.setText("Date: " + this.storage.getStringDate());
-        money.setText("Money: " + this.storage.getMoney());
-        satisfaction.setText("Satisfaction: " + this.storage.getSatisfaction());
+        CitySnapshot snapshot = storage.getEngine().getSnapshot();
+        date.setText("Date: " + snapshot.getDate());
+        money.setText("Money: " + snapshot.getMoney());
+        satisfaction.setText("Satisfaction: " + snapshot.getSatisfaction());
     }
 /**
  * Adds zone buttons to the left panel of the game interface.
@@ -343,17 +418,14 @@ public class Game extends Window {
     }
 
     public void disasterHelper(int dType) {
-        int x = (int)(Math.random() * General.width) / General.cellSize;
-        int y = (int)(Math.random() * General.height) / General.cellSize;
-        storage.disaster(x,y,dType);
-        drawDisaster(x,y,dType);
+        // The cell is drawn inside the engine, so the journal keeps the generator in step
+        int[] cell = storage.getEngine().execute(() -> storage.randomDisaster(dType));
+        drawDisaster(cell[0],cell[1],dType);
     }
 
     public void randomDisasterHelper() {
-        int x = (int)(Math.random() * General.width) / General.cellSize;
-        int y = (int)(Math.random() * General.height) / General.cellSize;
-        int dType = storage.disaster(x,y);
-        drawDisaster(x,y,dType);
+        int[] disaster = storage.getEngine().execute(() -> storage.randomDisaster());
+        drawDisaster(disaster[0],disaster[1],disaster[2]);
     }
 
     private void addDisasterButton() {
@@ -370,38 +442,42 @@ public class Game extends Window {
     
 
     public void addForest(){
-        int x = (int)(Math.random() * General.width) / General.cellSize;
-        int y = (int)(Math.random() * General.height) / General.cellSize;
-        Forest newForest = new Forest(x, y);
-        boolean status = storage.addBuilding(newForest);
-        if(status) storage.addMoney(newForest.getCost());
+        storage.getEngine().execute(() -> storage.plantRandomForest());
     }
 
     private void drawDisaster(int x, int y, int dType) {
-        Graphics g = canvas.getGraphics();
-
         int width = 0;
         if (dType == 0) width = 1;
 
         final int dim = width;
-        new Thread(() -> {
-            if (dType == 0) {
-                Image img = Toolkit.getDefaultToolkit().getImage("./images/explosion.gif");
-                for (int i = 0; i < 10; i++) {
+        final int explosionFrames = dType == 0 ? 10 : 0;
+        final Image img = Toolkit.getDefaultToolkit().getImage("./images/explosion.gif");
+        // Every frame is drawn by a Swing timer, so the animation stays on the event thread
+        Timer animation = new Timer(150, null);
+        animation.addActionListener(new ActionListener() {
+            private int frame = 0;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                Graphics g = canvas.getGraphics();
+                if (frame < explosionFrames) {
                     g.drawImage(img, (x-dim)*General.cellSize, (y-dim)*General.cellSize, General.cellSize*3, General.cellSize*3, null);
-                    try {
-                        Thread.sleep(150);
-                    } catch (InterruptedException e) {}
                 }
+                else if (frame == explosionFrames) {
+                    g.setColor(Color.BLACK);
+                    g.fillRect((x-dim)*General.cellSize, (y-dim)*General.cellSize, General.cellSize*((dim*2)+1), General.cellSize*((dim*2)+1));
+                    animation.setDelay(1000);
+                }
+                else {
+                    animation.stop();
+                    canvas.repaint();
+                }
+                g.dispose();
+                frame++;
             }
-            g.setColor(Color.BLACK);
-            g.fillRect((x-dim)*General.cellSize, (y-dim)*General.cellSize, General.cellSize*((dim*2)+1), General.cellSize*((dim*2)+1));
-            
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {}
-            canvas.repaint();
-        }).start();
+        });
+        animation.setInitialDelay(0);
+        animation.start();
     }
 /**
  * Sets up the canvas for drawing the game elements.
@@ -413,11 +489,13 @@ public class Game extends Window {
             public void paint(Graphics g) {
                 super.paint(g);
                 drawGrid(g);
-                for (Building building : storage.getBuildings()) {
-                    drawBuilding(building, g);
+                CitySnapshot snapshot = storage.getEngine().getSnapshot();
+                paintedChanges = snapshot.getChangeCount();
+                for (int i = 0; i < snapshot.getBuildingCount(); i++) {
+                    drawBuilding(snapshot.getBuildingX(i), snapshot.getBuildingY(i), snapshot.getBuildingSize(i), snapshot.getBuildingImage(i), g);
                 }
-                for (Zone zone: storage.getZones()){
-                    drawZone(zone, g);
+                for (int i = 0; i < snapshot.getZoneCount(); i++) {
+                    drawZone(snapshot.getZoneX(i), snapshot.getZoneY(i), snapshot.getZoneType(i), snapshot.getZoneImage(i), g);
                 }
             }
             /**
@@ -444,13 +522,12 @@ public class Game extends Window {
                 int y = e.getY()/General.cellSize;
                 System.out.println("Clicked: " + x + ", " + y);
 
-                int b_ind = storage.getZoneIndex(x, y);
-                System.out.println("Checking b_ind" + b_ind);
-                if (b_ind != -1 && selected == null ){
-                    Zone zone = storage.getZones().get(b_ind);
+                CitySnapshot snapshot = storage.getEngine().getSnapshot();
+                int zone = snapshot.findZone(x, y);
+                if (zone != -1 && selected == null ){
                         //System.out.println("Maybe Not working");
-                        int residentCount =  zone.getSaturation();
-                        int residentSatisfaction = zone.getSatisfaction();
+                        int residentCount =  snapshot.getZoneSaturation(zone);
+                        int residentSatisfaction = snapshot.getZoneSatisfaction(zone);
                         String stats = "Number of people : " + residentCount + "\n Satisfaction Level : " + residentSatisfaction ; 
                         JOptionPane.showMessageDialog(null, stats, "Statistics", JOptionPane.INFORMATION_MESSAGE );
                 }
@@ -460,15 +537,15 @@ public class Game extends Window {
                     
                     if (isBuilding(selected)) {
                         Building b = getBuildingClass(selected, x, y);
-                        boolean added = storage.addBuilding(b);
+                        boolean added = storage.getEngine().execute(() -> storage.addBuilding(b));
                         if (added) {
                             drawBuilding(b, g);
                             updateTopPanel();
                         }
                     }
                     else if (isZone(selected)) {
-                        Zone zone = getZoneClass(selected, x, y);
-                        boolean added = storage.addZone(zone);
+                        Zone newZone = getZoneClass(selected, x, y);
+                        boolean added = storage.getEngine().execute(() -> storage.addZone(newZone));
                         if(added){
                             g.setColor(zoneColors[getZoneIndex(selected)]);
                             g.fillRect(x*General.cellSize, y*General.cellSize, General.cellSize, General.cellSize);
@@ -477,13 +554,13 @@ public class Game extends Window {
 
                     }
                     else if (selected == "demolish") {
-                        boolean removed = storage.removeBuilding(x, y);
+                        boolean removed = storage.getEngine().execute(() -> storage.removeBuilding(x, y));
                         if (removed) {
                             canvas.repaint();
                             updateTopPanel();
                         }
                         else{
-                            removed = storage.removeZone(x, y);
+                            removed = storage.getEngine().execute(() -> storage.removeZone(x, y));
                             if (removed) {
                                 canvas.repaint();
                                 updateTopPanel();
@@ -508,32 +585,48 @@ public class Game extends Window {
      * @param g the Graphics object for drawing
      */
     private void drawBuilding(Building b, Graphics g) {
-        int x = b.getX() * General.cellSize;
-        int y = b.getY() * General.cellSize;
-        int side = b.getSize() * General.cellSize;
+        drawBuilding(b.getX(), b.getY(), b.getSize(), b.getImage(), g);
+    }
+
+    /**
+     * Draws a building of a snapshot on the canvas.
+     *
+     * @param cellX the x-coordinate of the building
+     * @param cellY the y-coordinate of the building
+     * @param size  the side length of the building in cells
+     * @param image the sprite of the building
+     * @param g     the Graphics object for drawing
+     */
+    private void drawBuilding(int cellX, int cellY, int size, Image image, Graphics g) {
+        int x = cellX * General.cellSize;
+        int y = cellY * General.cellSize;
+        int side = size * General.cellSize;
         g.setColor(General.backgroundColor);
         g.fillRect(x,y,side,side);
-        g.drawImage(b.getImage(), x, y, side, side, null);
+        g.drawImage(image, x, y, side, side, null);
     }
 
      /**
-     * Draws a zone on the canvas.
+     * Draws a zone of a snapshot on the canvas.
      * 
-     * @param zone the zone to be drawn
-     * @param g    the Graphics object for drawing
+     * @param cellX the x-coordinate of the zone
+     * @param cellY the y-coordinate of the zone
+     * @param type  the type of the zone
+     * @param image the sprite of the zone, or null to draw its colour
+     * @param g     the Graphics object for drawing
      */
-    private void drawZone(Zone zone, Graphics g){
-        int x = zone.getX() * General.cellSize;
-        int y = zone.getY() * General.cellSize;
-        if(zone.getImage() == null){
-            g.setColor(zoneColors[zone.getType()]);
+    private void drawZone(int cellX, int cellY, int type, Image image, Graphics g){
+        int x = cellX * General.cellSize;
+        int y = cellY * General.cellSize;
+        if(image == null){
+            g.setColor(zoneColors[type]);
             g.fillRect(x, y, General.cellSize, General.cellSize);
         }
         else{
             int side = General.cellSize;
             g.setColor(General.backgroundColor);
             g.fillRect(x,y,side,side);
-            g.drawImage(zone.getImage(), x, y, side, side, null);
+            g.drawImage(image, x, y, side, side, null);
         }
     }
     /**
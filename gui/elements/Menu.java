@@ -1,9 +1,12 @@
 package gui.elements;
 
 import gui.Window;
+import settings.General;
 
 import java.awt.*;
 import javax.swing.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
+import java.io.IOException;
 
 /**
  * The Menu class represents a Java Swing application for the game menu.
@@ -69,8 +72,21 @@ public class Menu extends Window {
             String player_name = name.getText();
             String city_name = city.getText();
             if (player_name.length() > 0 && city_name.length() > 0) {
-                this.dispose();
-                new Game(player_name, city_name).setVisible(true);
+                boolean replace = false;
+                if (Game.saveFileFor(player_name, city_name).exists()) {
+                    int answer = JOptionPane.showConfirmDialog(this,
+                            "A saved city named " + city_name + " of " + player_name + " already exists. Replace it with a new city?",
+                            "Replace save", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+                    if (answer != JOptionPane.YES_OPTION) return;
+                    replace = true;
+                }
+                try {
+                    Game game = new Game(player_name, city_name, replace);
+                    this.dispose();
+                    game.setVisible(true);
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(this, "The city cannot be saved: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
             }
         });
 
@@ -78,14 +94,24 @@ public class Menu extends Window {
 
         load.addActionListener(e -> {
             JFileChooser fileChooser = new JFileChooser();
-            fileChooser.setCurrentDirectory(new java.io.File("./saves"));
+            fileChooser.setCurrentDirectory(new java.io.File(General.saveFolder));
             fileChooser.setDialogTitle("Choose the save file");
             fileChooser.setFileSelectionMode(JFileChooser.FILES_ONLY);
             fileChooser.setAcceptAllFileFilterUsed(false);
+            fileChooser.setFileFilter(new FileNameExtensionFilter("City saves", "sav"));
+            // Shows the header of the selected save, read from the index of the folder
+            SavePreview preview = new SavePreview(new java.io.File(General.saveFolder));
+            fileChooser.setAccessory(preview);
+            fileChooser.addPropertyChangeListener(preview);
             if (fileChooser.showOpenDialog(null) == JFileChooser.APPROVE_OPTION) {
                 String filepath = fileChooser.getSelectedFile().getAbsolutePath();
-                new Game(filepath).setVisible(true);
-                this.dispose();
+                try {
+                    Game game = new Game(filepath);
+                    this.dispose();
+                    game.setVisible(true);
+                } catch (IOException ex) {
+                    JOptionPane.showMessageDialog(this, "The save cannot be loaded: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                }
             }
         });
         
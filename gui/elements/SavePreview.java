@@ -0,0 +1,100 @@
+package gui.elements;
+
+import settings.persistence.SaveHeader;
+import settings.persistence.SaveIndex;
+
+import java.awt.*;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.File;
+import java.io.IOException;
+import javax.swing.*;
+
+/**
+ * The SavePreview class shows the header of the save selected in a file chooser.
+ * It is used as the accessory of the load dialog: the player, the city, its date, money, population and
+ * satisfaction come from the index of the saves folder, and the thumbnail is read from the save alone,
+ * so browsing the saves never loads a city.
+ */
+public class SavePreview extends JPanel implements PropertyChangeListener {
+
+    private static final Color[] COLORS = {
+            new Color(34, 139, 34),   // empty
+            Color.DARK_GRAY,          // road
+            Color.LIGHT_GRAY,         // building
+            new Color(80, 160, 230),  // residential
+            new Color(230, 200, 60),  // industrial
+            new Color(220, 90, 90)    // service
+    };
+
+    private final SaveIndex index;
+    private final JLabel details;
+    private SaveHeader header;
+    private byte[] thumbnail;
+
+    /**
+     * Constructs a preview of the saves of the given folder and indexes the folder.
+     *
+     * @param folder the saves folder
+     */
+    public SavePreview(File folder) {
+        this.index = new SaveIndex(folder);
+        index.refresh();
+        setLayout(new BorderLayout());
+        setPreferredSize(new Dimension(2 * SaveHeader.THUMBNAIL_SIZE + 120, 3 * SaveHeader.THUMBNAIL_SIZE));
+        details = new JLabel();
+        details.setVerticalAlignment(SwingConstants.TOP);
+        add(details, BorderLayout.SOUTH);
+    }
+
+    /**
+     * Updates the preview when the selected file of the chooser changes.
+     *
+     * @param event the property change event of the chooser
+     */
+    @Override
+    public void propertyChange(PropertyChangeEvent event) {
+        if(!JFileChooser.SELECTED_FILE_CHANGED_PROPERTY.equals(event.getPropertyName())) return;
+        show((File) event.getNewValue());
+    }
+
+    private void show(File file) {
+        header = null;
+        thumbnail = null;
+        SaveIndex.Entry entry = file == null ? null : index.get(file);
+        if(entry != null){
+            header = entry.getHeader();
+            try {
+                thumbnail = header.thumbnailWidth > 0 ? header.readThumbnail(file) : null;
+            } catch (IOException e) {
+                thumbnail = null;
+            }
+            details.setText("<html>" + header.playerName + " - " + header.cityName
+                    + "<br>Date: " + header.getStringDate()
+                    + "<br>Money: " + header.money
+                    + "<br>Population: " + header.population
+                    + "<br>Satisfaction: " + header.satisfaction
+                    + "<br>Map: " + header.width + " x " + header.height + "</html>");
+        }
+        else{
+            details.setText("");
+        }
+        repaint();
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if(header == null || thumbnail == null) return;
+        int w = header.thumbnailWidth, h = header.thumbnailHeight;
+        int scale = Math.max(1, 2 * SaveHeader.THUMBNAIL_SIZE / Math.max(w, h));
+        int left = (getWidth() - w * scale) / 2;
+        for(int y = 0; y < h; y++){
+            for(int x = 0; x < w; x++){
+                int kind = thumbnail[y * w + x];
+                g.setColor(COLORS[kind >= 0 && kind < COLORS.length ? kind : 0]);
+                g.fillRect(left + x * scale, y * scale, scale, scale);
+            }
+        }
+    }
+}
@@ -0,0 +1,15 @@
+# The JMH jars are not kept in the repository, they are fetched from Maven Central on the first run
+REPO=https://repo1.maven.org/maven2
+fetch() {
+    if [ ! -f "bench/lib/$2" ]; then
+        mkdir -p bench/lib
+        curl -fsSL -o "bench/lib/$2" "$REPO/$1/$2" || { rm -f "bench/lib/$2"; exit 1; }
+    fi
+}
+fetch org/openjdk/jmh/jmh-core/1.37 jmh-core-1.37.jar
+fetch org/openjdk/jmh/jmh-generator-annprocess/1.37 jmh-generator-annprocess-1.37.jar
+fetch net/sf/jopt-simple/jopt-simple/5.0.4 jopt-simple-5.0.4.jar
+fetch org/apache/commons/commons-math3/3.6.1 commons-math3-3.6.1.jar
+mkdir -p bench/classes
+javac -cp ".:./bench/lib/jmh-core-1.37.jar:./bench/lib/jopt-simple-5.0.4.jar:./bench/lib/commons-math3-3.6.1.jar" -processorpath "./bench/lib/jmh-generator-annprocess-1.37.jar:./bench/lib/jmh-core-1.37.jar" -implicit:class -d bench/classes bench/*.java
+java -cp "bench/classes:./bench/lib/jmh-core-1.37.jar:./bench/lib/jopt-simple-5.0.4.jar:./bench/lib/commons-math3-3.6.1.jar" org.openjdk.jmh.Main -prof gc "$@"
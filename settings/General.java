@@ -11,6 +11,14 @@ public class General {
     public static String title = "Window";// The title of the application window
 
     public static int cellSize = 30;// The size of each cell in the grid
+    public static int mapWidth = 26;// The default number of cells along the x-axis of a city map
+    public static int mapHeight = 23;// The default number of cells along the y-axis of a city map
+    public static String saveFolder = "saves";// The folder the saves of the cities are written to
+    public static int autosaveInterval = 60;// The number of seconds between two autosaves, 0 to turn autosave off
+    public static boolean compressSaves = false;// Whether saves are written as compressed chunks, which pays off on large maps
+    public static boolean incrementalSaves = false;// Whether saves only append the chunks changed since the last save
+    public static boolean offHeapTiles = false;// Whether the occupancy, tile layers and coverage counts of a city are kept outside the heap instead of in grids of references
+    public static boolean mappedTiles = false;// Whether the occupancy and tile layers of a city are paged from a temporary file, for maps larger than the heap
     public static Color backgroundColor = new Color(100, 120, 200); // The background color of the application
 }
 
@@ -5,10 +5,34 @@ import types.Buildings.*;
 import types.Zones.Industrial;
 import types.Zones.Residential;
 import types.Zones.Service;
+import settings.world.CellGrid;
+import settings.world.ChunkedGrid;
+import settings.world.CoverageMap;
+import settings.world.DirectChunkStore;
+import settings.world.MappedChunkStore;
+import settings.world.RoadConnectivity;
+import settings.world.RoadGraph;
+import settings.world.TileMap;
+import settings.persistence.ChangeTracker;
+import settings.persistence.CityFormat;
+import settings.persistence.CityLog;
+import settings.persistence.Journal;
+import settings.persistence.SaveImage;
+import settings.simulation.CityRandom;
+import settings.simulation.Clock;
+import settings.simulation.InfluencePropagator;
+import settings.simulation.ParallelTick;
+import settings.simulation.RealTimeClock;
+import settings.simulation.SatisfactionScheduler;
+import settings.simulation.SimulationEngine;
+import settings.simulation.WorkplaceField;
+import settings.simulation.WorkplaceFinder;
 
 import java.io.*;
 import javax.swing.Timer;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * The Storage class represents the storage of game data.
@@ -16,11 +40,26 @@ import java.util.ArrayList;
  * It also provides methods to save and load game data.
  */
 public class Storage implements Serializable {
+    // The number of 64x64 chunks of a tile map paged from a file that stay mapped, 16 MB of tile records
+    private static final int RESIDENT_TILE_CHUNKS = 256;
+
     private ArrayList<Zone> zones;
-    private Zone[][] zoneMatrix = new Zone[26][23];
-    private Building[][] buildingMatrix = new Building[26][23];
+    private int width;
+    private int height;
+    private transient CellGrid<Zone> zoneMatrix;
+    private transient CellGrid<Building> buildingMatrix;
+    private transient CoverageMap policeCoverage;
+    private transient CoverageMap stadiumCoverage;
+    private transient CoverageMap forestCoverage;
+    private transient InfluencePropagator influence;
+    private transient SatisfactionScheduler scheduler;
+    private transient RoadGraph roadGraph;
+    private transient RoadConnectivity roadConnectivity;
+    private transient WorkplaceFinder workplaceFinder;
+    private transient WorkplaceField workplaceField;
+    private transient ParallelTick parallelTick;
     private ArrayList<Building> buildings;
-    private ArrayList<Citizen> citizens;
+    private CitizenStore citizens;
 
     private final int tax = 1;
     private int time = 0;
@@ -31,56 +70,102 @@ public class Storage implements Serializable {
     private int population = 0;
     private boolean paused = false;
     private int countDays = 0;
-    private Timer timer;
+    private transient SimulationEngine engine;
+    private transient Journal journal;
+    private transient ChangeTracker changes;
+    private transient CityLog cityLog;
+    private transient TileMap tileMap;
+    // Whether the tile map was created by the city, which closes it when it is replaced
+    private transient boolean ownsTileMap;
+    private CityRandom random;
 
     private String playerName;
     private String cityName;
 
     private int lastAnnualFee = 0;
 
-    private boolean checked[][] = new boolean[26][23];
-    private boolean recursionFlag = true;
-
     /**
-     * Constructs a Storage object with the given player name and city name.
-     * Initializes the necessary lists and sets up the game timer.
-     * Starts the game timer to update game data periodically.
+     * Constructs a Storage object with the given player name and city name on a map of the default size.
+     * Initializes the necessary lists; no clock is attached, so the game only advances through getEngine().tick().
      *
      * @param playerName the name of the player
      * @param cityName   the name of the city
      */
     public Storage(String playerName, String cityName) {
+        this(playerName, cityName, General.mapWidth, General.mapHeight);
+    }
+
+    /**
+     * Constructs a Storage object with the given player name, city name and map dimensions,
+     * whose simulation is driven by the given clock.
+     * Without a clock nothing happens on its own and the game only advances through getEngine().tick(),
+     * which suits tests, batch runs and servers without a display.
+     *
+     * @param playerName the name of the player
+     * @param cityName   the name of the city
+     * @param width      the number of cells along the x-axis of the map
+     * @param height     the number of cells along the y-axis of the map
+     * @param clock      the clock driving the simulation, or null to run ticks explicitly
+     */
+    public Storage(String playerName, String cityName, int width, int height, Clock clock) {
+        this.width = width;
+        this.height = height;
         this.zones = new ArrayList<Zone>();
         this.buildings = new ArrayList<Building>();
-        this.citizens = new ArrayList<Citizen>();
+        this.citizens = new CitizenStore();
+        this.rebuildIndex();
         this.playerName = playerName;
         this.cityName = cityName;
-        this.timer = new Timer(1000, e -> {
-            time += speed;
-            countDays+=speed;
-            if(money <= 0){
-                loanPeriod++;
-            }
-            else{
-                loanPeriod = 0;
-            }
-            if(countDays >= 30){
-                this.increasePopulation();
-                countDays = 0;
-            }
-            if((time/30) % 12 == 11){
-                int year = 1850 + (time / (12 * 30));
-                if(lastAnnualFee != year){
-                    this.payMaintenanceFee();
-                    this.updateForestsAges();
-                    this.money += this.population * this.tax;
-                    lastAnnualFee = year;
-                }
+        this.random = new CityRandom(System.nanoTime());
+        this.engine = new SimulationEngine(this, clock);
+        this.engine.publish();
+        this.engine.start();
+    }
+
+    /**
+     * Constructs a Storage object with the given player name, city name and map dimensions.
+     * Initializes the necessary lists; no clock is attached, so the game only advances through getEngine().tick().
+     *
+     * @param playerName the name of the player
+     * @param cityName   the name of the city
+     * @param width      the number of cells along the x-axis of the map
+     * @param height     the number of cells along the y-axis of the map
+     */
+    public Storage(String playerName, String cityName, int width, int height) {
+        this(playerName, cityName, width, height, null);
+    }
+
+    /**
+     * Advances the game by one step: the date moves by the game speed, the loan period, the population,
+     * the yearly fees and taxes, the satisfaction and the workplaces are updated.
+     * This is what the game timer runs once per second; it can also be called directly through the engine.
+     */
+    public void tick() {
+        time += speed;
+        countDays+=speed;
+        if(money <= 0){
+            loanPeriod++;
+        }
+        else{
+            loanPeriod = 0;
+        }
+        if(countDays >= 30){
+            this.increasePopulation();
+            countDays = 0;
+        }
+        if((time/30) % 12 == 11){
+            int year = 1850 + (time / (12 * 30));
+            if(lastAnnualFee != year){
+                this.payMaintenanceFee();
+                this.updateForestsAges();
+                this.money += this.population * this.tax;
+                lastAnnualFee = year;
             }
-            this.updateSatisfaction();
-            this.updateWorkplaces();
-        });
-        this.timer.start();
+        }
+        this.updateSatisfaction();
+        this.updateWorkplaces();
+        collectModifiedZones();
+        if(journal != null) journal.tick();
     }
 
     /**
@@ -99,6 +184,22 @@ public class Storage implements Serializable {
     public String getCityName() {
         return cityName;
     }
+    /**
+     * Returns the number of cells along the x-axis of the map.
+     *
+     * @return the map width
+     */
+    public int getWidth() {
+        return width;
+    }
+    /**
+     * Returns the number of cells along the y-axis of the map.
+     *
+     * @return the map height
+     */
+    public int getHeight() {
+        return height;
+    }
     /**
      * Sets the game time to the given value.
      *
@@ -133,6 +234,7 @@ public class Storage implements Serializable {
     public void setPause(boolean b)
     {
         paused = b;
+        if(journal != null) journal.pause(b);
     }
     /**
      * Returns the current game time as a formatted string.
@@ -149,10 +251,166 @@ public class Storage implements Serializable {
     /**
      * Returns the game timer.
      *
-     * @return the game timer
+     * @return the game timer, or null if the simulation is not driven by the real-time clock
      */
     public Timer getTimer() {
-        return timer;
+        Clock clock = engine.getClock();
+        if(clock instanceof RealTimeClock) return ((RealTimeClock) clock).getTimer();
+        return null;
+    }
+    /**
+     * Returns the source of the random decisions of the city.
+     *
+     * @return the random generator of the city
+     */
+    public CityRandom getRandom() {
+        return random;
+    }
+    /**
+     * Restarts the random decisions of the city from the given seed, so that a run can be replayed.
+     *
+     * @param seed the seed
+     */
+    public void setSeed(long seed) {
+        this.random = new CityRandom(seed);
+    }
+    /**
+     * Moves the random generator of the city to the given state, keeping its seed.
+     *
+     * @param state the state, as returned by CityRandom.getState
+     */
+    public void setRandomState(long state) {
+        this.random = new CityRandom(random.getSeed(), state);
+    }
+    /**
+     * Checks if the satisfaction pass of a tick runs in parallel.
+     *
+     * @return true if the zones are processed region by region on a ForkJoinPool, false otherwise
+     */
+    public boolean isParallel() {
+        return parallelTick != null;
+    }
+    /**
+     * Sets whether the satisfaction pass of a tick runs in parallel.
+     * The bonuses and the satisfaction of the residential zones are then evaluated region by region on the
+     * common ForkJoinPool; everything that changes citizens or workplaces still runs in a fixed order,
+     * so a parallel tick gives the same city as a sequential one.
+     *
+     * @param b true to run in parallel, false to run on the ticking thread only
+     */
+    public void setParallel(boolean b) {
+        setParallel(b ? ForkJoinPool.commonPool() : null);
+    }
+    /**
+     * Sets the pool running the satisfaction pass of a tick in parallel.
+     *
+     * @param pool the pool to use, or null to run on the ticking thread only
+     */
+    public void setParallel(ForkJoinPool pool) {
+        parallelTick = pool == null ? null : new ParallelTick(pool, width, height);
+    }
+    /**
+     * Returns the engine advancing the simulation.
+     *
+     * @return the simulation engine
+     */
+    public SimulationEngine getEngine() {
+        return engine;
+    }
+    /**
+     * Returns the journal recording the commands applied to the city.
+     *
+     * @return the journal, or null if the commands are not recorded
+     */
+    public Journal getJournal() {
+        return journal;
+    }
+    /**
+     * Attaches a journal that records every command applied to the city from now on.
+     *
+     * @param journal the journal, or null to stop recording
+     */
+    public void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+    /**
+     * Returns what changed in the city since the last call and starts tracking anew.
+     * Must run between two ticks, together with the capture of the city the changes are saved from.
+     *
+     * @return the changed chunks and entity tables
+     */
+    public ChangeTracker takeChanges() {
+        collectModifiedZones();
+        if(citizens.takeCitizensModified()) changes.markTable(ChangeTracker.CITIZENS);
+        return changes.take();
+    }
+    /**
+     * Returns a number that grows whenever a building or zone is added, removed or changes how it looks.
+     * Unlike isChanged it changes nothing but the bookkeeping of the modified zones, and it costs nothing
+     * when the city did not change. Must run between two ticks.
+     *
+     * @return the change count
+     */
+    public long getChangeCount() {
+        collectModifiedZones();
+        return changes.getVersion();
+    }
+    /**
+     * Marks the chunks of the zones changed since the last call and rewrites their tiles.
+     */
+    private void collectModifiedZones() {
+        if(!citizens.hasModifiedZones()) return;
+        BitSet modified = citizens.takeModifiedZones();
+        for(int id = modified.nextSetBit(0); id >= 0; id = modified.nextSetBit(id + 1)){
+            Zone zone = citizens.getZone(id);
+            if(zone != null){
+                changes.markCell(zone.getX(), zone.getY());
+                tile(zone.getX(), zone.getY());
+            }
+        }
+    }
+    /**
+     * Returns the tile map holding the cells of the city.
+     *
+     * @return the tile map, or null if the cells are kept in grids on the heap
+     */
+    public TileMap getTileMap() {
+        return tileMap;
+    }
+    /**
+     * Gives back the memory of the tile chunks evicted since the last call. Nothing else may read the city
+     * meanwhile; the engine calls it once a tick or a command is published.
+     */
+    public void trimTiles() {
+        if(tileMap != null) tileMap.getStore().trim();
+    }
+    /**
+     * Moves the cells of the city into the given tile map, e.g. one in a MappedChunkStore, so that the occupancy
+     * and the tile layers of a map larger than the heap live in a file. The store of the tile map must be empty;
+     * the caller keeps it and closes it after the city is done with it. Loading another city gives the cells
+     * back to a tile map of its own.
+     *
+     * @param tileMap the tile map, or null to return to the cells chosen by the settings
+     */
+    public void setTileMap(TileMap tileMap) {
+        if(tileMap != null && (tileMap.getStore().getWidth() != width || tileMap.getStore().getHeight() != height)){
+            throw new IllegalArgumentException("The tile map does not match the " + width + "x" + height + " map");
+        }
+        rebuildIndex(tileMap);
+    }
+    /**
+     * Returns the log-structured file the city is saved to incrementally.
+     * Only one such file follows the changes of the city; asking for another file starts a new one, whose
+     * first save writes the whole city.
+     *
+     * @param file the save file
+     * @return the city log writing the file
+     */
+    public synchronized CityLog getCityLog(File file) {
+        if(cityLog == null || !cityLog.getFile().getAbsoluteFile().equals(file.getAbsoluteFile())){
+            cityLog = new CityLog(file);
+        }
+        return cityLog;
     }
     /**
      * Returns the current amount of money.
@@ -161,6 +419,14 @@ public class Storage implements Serializable {
      */
     public int getMoney() {
         return money;
+    }
+     /**
+     * Returns the number of people living in the city.
+     *
+     * @return the population
+     */
+    public int getPopulation() {
+        return population;
     }
      /**
      * Returns the current game speed.
@@ -177,6 +443,7 @@ public class Storage implements Serializable {
      */
     public void setSpeed(int speed) {
         this.speed = speed;
+        if(journal != null) journal.speed(speed);
     }
      /**
      * Returns the current satisfaction level.
@@ -194,6 +461,14 @@ public class Storage implements Serializable {
     public ArrayList<Zone> getZones() {
         return zones;
     }
+    /**
+     * Returns the store holding the citizens of the city.
+     *
+     * @return the citizen store
+     */
+    public CitizenStore getCitizens() {
+        return citizens;
+    }
     /**
      * Returns the list of buildings in the city.
      *
@@ -212,20 +487,22 @@ public class Storage implements Serializable {
     public boolean removeBuilding(int x, int y) {
         if(!paused)
         {
-            int index = getBuildingIndex(x, y, 1);
-            if (index == -1) {
+            Building building = getBuildingAt(x, y);
+            if (building == null) {
                 return false;
             }
 
-            Building building = buildings.get(index);
             if(building instanceof Road){
                 Road road = (Road) building;
                 if(!road.getDestructible()) return false;
             }
 
             money += (int)Math.floor(building.getCost()/2);
-            buildings.remove(index);
-            buildingMatrix[x][y] = null;
+            unlist(building);
+            unindexBuilding(building);
+            scheduler.markWorkplacesDirty();
+            if(building instanceof Road) this.invalidate(x, y);
+            if(journal != null) journal.removeBuilding(x, y);
 
             return true;
         }
@@ -242,13 +519,20 @@ public class Storage implements Serializable {
     public boolean removeZone(int x, int y){
         if(!paused)
         {
-            int index = getZoneIndex(x, y);
-            if(index != -1){
-                Zone zone = zones.get(index);
+            Zone zone = getZoneAt(x, y);
+            if(zone != null){
                 if(zone.getSaturation() != 0) return false;
                 money += (int)Math.floor(zone.getCost()/2);
-                zones.remove(index);
-                zoneMatrix[x][y] = null;
+                unlist(zone);
+                citizens.unregisterZone(zone);
+                zoneMatrix.set(x, y, null);
+                tile(x, y);
+                // Citizens refer to zones by their position in the list
+                changes.markCell(x, y);
+                changes.markTable(ChangeTracker.ZONES | ChangeTracker.CITIZENS);
+                zoneInfluenceChanged(zone);
+                scheduler.markWorkplacesDirty();
+                if(journal != null) journal.removeZone(x, y);
                 return true;
             }
             else{
@@ -277,8 +561,10 @@ public class Storage implements Serializable {
             if (!isGeneralZone(building.getX(), building.getY(), building.getSize())){
                 return false;
             }
+            building.setListIndex(buildings.size());
             buildings.add(building);
-            buildingMatrix[building.getX()][building.getY()] = building;
+            indexBuilding(building);
+            scheduler.markWorkplacesDirty();
             money -= building.getCost();
 
             int x = building.getX();
@@ -288,7 +574,9 @@ public class Storage implements Serializable {
             }
             else if(roadExists(x, y)){
                 building.setAvailable(true);
+                tileBuilding(building);
             }
+            if(journal != null) journal.placeBuilding(building);
             return true;
         }
         return false;
@@ -304,7 +592,7 @@ public class Storage implements Serializable {
      */
     public boolean validCoordinates(int x, int y, int size){
         int increment = size - 1;
-        if(x-increment < 0 || x+increment > 25 || y-increment < 0 || y+increment > 22) return false;
+        if(x-increment < 0 || x+increment >= width || y-increment < 0 || y+increment >= height) return false;
         return true;
     }
     /**
@@ -329,15 +617,16 @@ public class Storage implements Serializable {
      */
     public void validateHelper(int x, int y, int incrementX, int incrementY){
         if(validCoordinates(x+incrementX, y+incrementY, 1)){
-            int ind = getBuildingIndex(x+incrementX, y+incrementY, 1);
-            if(ind != -1){
-                Building building = buildings.get(ind);
+            Building building = getBuildingAt(x+incrementX, y+incrementY);
+            if(building != null){
                 building.setAvailable(true);
+                changes.markCell(building.getX(), building.getY());
+                tileBuilding(building);
             }
-            ind = getZoneIndex(x+incrementX, y+incrementY);
-            if(ind != -1){
-                Zone zone = zones.get(ind);
+            Zone zone = getZoneAt(x+incrementX, y+incrementY);
+            if(zone != null){
                 zone.setAvailable(true);
+                tile(zone.getX(), zone.getY());
             }
         }
     }
@@ -358,14 +647,22 @@ public class Storage implements Serializable {
             }
     
             // check if place has a zone in it
-            if(getZoneIndex(zone.getX(), zone.getY()) != -1) return false;
+            if(getZoneAt(zone.getX(), zone.getY()) != null) return false;
     
             money -= zone.getCost();
+            zone.setListIndex(zones.size());
             zones.add(zone);
-            zoneMatrix[zone.getX()][zone.getY()] = zone;
+            citizens.registerZone(zone);
+            zoneMatrix.set(zone.getX(), zone.getY(), zone);
+            changes.markCell(zone.getX(), zone.getY());
+            changes.markTable(ChangeTracker.ZONES | ChangeTracker.CITIZENS);
+            zoneInfluenceChanged(zone);
+            scheduler.markWorkplacesDirty();
             if(roadExists(zone.getX(), zone.getY())){
                 zone.setAvailable(true);
             }
+            tile(zone.getX(), zone.getY());
+            if(journal != null) journal.placeZone(zone);
             return true;
         }
         return false;
@@ -380,20 +677,70 @@ public class Storage implements Serializable {
      * @return true if a road exists, false otherwise
      */
     public boolean roadExists(int x, int y){
-        if(validCoordinates(x-1, y, 1) && buildingMatrix[x-1][y] instanceof Road){
-            return true;
-        }
-        if(validCoordinates(x, y-1, 1) && buildingMatrix[x][y-1] instanceof Road){
-            return true;
-        }
-        if(validCoordinates(x+1, y, 1) && buildingMatrix[x+1][y] instanceof Road){
-            return true;
+        if(tileMap != null) return tileMap.touchesRoad(x, y);
+        return roadConnectivity.touchesRoad(x, y);
+    }
+    /**
+     * Recomputes the availability of the cells around a removed road.
+     * A zone or building stays available only while a road still touches it.
+     *
+     * @param x the x-coordinate of the removed road
+     * @param y the y-coordinate of the removed road
+     */
+    public void invalidate(int x, int y){
+        for(int d = 0; d < 4; d++){
+            int i = x + RoadGraph.DX[d];
+            int j = y + RoadGraph.DY[d];
+            if(roadExists(i, j)) continue;
+            Zone zone = getZoneAt(i, j);
+            if(zone != null){
+                zone.setAvailable(false);
+                tile(i, j);
+            }
+            Building building = getBuildingAt(i, j);
+            if(building != null){
+                building.setAvailable(touchesRoad(building));
+                changes.markCell(building.getX(), building.getY());
+                tileBuilding(building);
+            }
         }
-        if(validCoordinates(x, y+1, 1) && buildingMatrix[x][y+1] instanceof Road){
-            return true;
+    }
+    /**
+     * Checks if a road touches any cell of the building.
+     *
+     * @param building the building
+     * @return true if a road is next to the building, false otherwise
+     */
+    private boolean touchesRoad(Building building) {
+        for(int i = building.getX(); i < building.getX() + building.getSize(); i++){
+            for(int j = building.getY(); j < building.getY() + building.getSize(); j++){
+                if(roadExists(i, j)) return true;
+            }
         }
         return false;
     }
+    /**
+     * Returns the road component of the road at the specified coordinates.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the component id, or -1 if there is no road at the cell
+     */
+    public int getRoadComponent(int x, int y){
+        return roadConnectivity.getComponent(x, y);
+    }
+    /**
+     * Checks if two cells are linked by roads, each cell being a road or lying next to one.
+     *
+     * @param x1 the x-coordinate of the first cell
+     * @param y1 the y-coordinate of the first cell
+     * @param x2 the x-coordinate of the second cell
+     * @param y2 the y-coordinate of the second cell
+     * @return true if both cells reach the same road network, false otherwise
+     */
+    public boolean isConnected(int x1, int y1, int x2, int y2){
+        return roadConnectivity.connected(x1, y1, x2, y2);
+    }
     /**
      * Checks if there is a building at the specified coordinates with the given size.
      *
@@ -403,10 +750,37 @@ public class Storage implements Serializable {
      * @return true if there is a building, false otherwise
      */
     public boolean collide(int x, int y, int size) {
-        return getBuildingIndex(x, y, size) != -1;
+        for(int i = x; i < x + size; i++){
+            for(int j = y; j < y + size; j++){
+                if(getBuildingAt(i, j) != null) return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Returns the building covering the specified cell.
+     * Every cell of a multi-cell building (e.g. a stadium) points to the same building.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the building covering the cell, or null if the cell is empty or out of the map
+     */
+    public Building getBuildingAt(int x, int y) {
+        return buildingMatrix.get(x, y);
+    }
+    /**
+     * Returns the zone at the specified cell.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the zone at the cell, or null if the cell has no zone or is out of the map
+     */
+    public Zone getZoneAt(int x, int y) {
+        return zoneMatrix.get(x, y);
     }
     /**
      * Returns the index of the building at the specified coordinates with the given size.
+     * Every building keeps its position in the list, so the cost does not grow with the city.
      *
      * @param x    the x-coordinate
      * @param y    the y-coordinate
@@ -414,94 +788,540 @@ public class Storage implements Serializable {
      * @return the index of the building, or -1 if not found
      */
     public int getBuildingIndex(int x, int y, int size) {
-        for (int i = 0; i < buildings.size(); i++) {
-            Building building = buildings.get(i);
-            int buildingX = building.getX();
-            int buildingY = building.getY();
-            int buildingSize = building.getSize();
-            if (buildingX <= x + (size-1) && x <= buildingX + (buildingSize - 1) && buildingY <= y + (size-1) && y <= buildingY + (buildingSize-1)){
-                return i;
+        int result = -1;
+        for(int i = x; i < x + size; i++){
+            for(int j = y; j < y + size; j++){
+                Building building = getBuildingAt(i, j);
+                if(building != null){
+                    int index = listIndexOf(building);
+                    if(result == -1 || index < result) result = index;
+                }
             }
         }
-        return -1;
+        return result;
     }
     /**
      * Returns the index of the zone at the specified coordinates.
+     * Every zone keeps its position in the list, so the cost does not grow with the city.
      *
      * @param x the x-coordinate
      * @param y the y-coordinate
      * @return the index of the zone, or -1 if not found
      */
     public int getZoneIndex(int x, int y) {
-        for (int i = 0; i < zones.size(); i++) {
+        Zone zone = getZoneAt(x, y);
+        if(zone == null) return -1;
+        return listIndexOf(zone);
+    }
+    /**
+     * Returns the position of a building in the building list from the position it keeps.
+     *
+     * @param building the building
+     * @return the position, or -1 if the building is not in the list
+     */
+    private int listIndexOf(Building building) {
+        int index = building.getListIndex();
+        if(index >= 0 && index < buildings.size() && buildings.get(index) == building) return index;
+        // Only a building handed in from another city gets here
+        return buildings.indexOf(building);
+    }
+    /**
+     * Returns the position of a zone in the zone list from the position it keeps.
+     *
+     * @param zone the zone
+     * @return the position, or -1 if the zone is not in the list
+     */
+    private int listIndexOf(Zone zone) {
+        int index = zone.getListIndex();
+        if(index >= 0 && index < zones.size() && zones.get(index) == zone) return index;
+        return zones.indexOf(zone);
+    }
+    /**
+     * Removes a building from the building list and moves up the positions kept by the buildings after it.
+     *
+     * @param building the building to remove
+     */
+    private void unlist(Building building) {
+        int index = listIndexOf(building);
+        if(index == -1) return;
+        buildings.remove(index);
+        for(int i = index; i < buildings.size(); i++){
+            buildings.get(i).setListIndex(i);
+        }
+        building.setListIndex(-1);
+    }
+    /**
+     * Removes a zone from the zone list and moves up the positions kept by the zones after it.
+     *
+     * @param zone the zone to remove
+     */
+    private void unlist(Zone zone) {
+        int index = listIndexOf(zone);
+        if(index == -1) return;
+        zones.remove(index);
+        for(int i = index; i < zones.size(); i++){
+            zones.get(i).setListIndex(i);
+        }
+        zone.setListIndex(-1);
+    }
+    /**
+     * Registers every cell covered by the building in the occupancy index and the coverage maps.
+     *
+     * @param building the building to index
+     */
+    private void indexBuilding(Building building) {
+        setBuildingCells(building, building);
+        changes.markCell(building.getX(), building.getY());
+        changes.markTable(ChangeTracker.BUILDINGS);
+        if(building instanceof Road) roadConnectivity.roadAdded(roadGraph.add((Road) building));
+        CoverageMap coverage = getCoverage(building);
+        if(coverage != null){
+            // A building covers the cells within its radius of its origin, not of its whole footprint
+            coverage.add(building.getX(), building.getY(), 1, building.getRadius(), getCoverageLevel(building));
+        }
+        buildingInfluenceChanged(building);
+    }
+    /**
+     * Clears every cell covered by the building from the occupancy index and the coverage maps.
+     *
+     * @param building the building to remove from the index
+     */
+    private void unindexBuilding(Building building) {
+        setBuildingCells(building, null);
+        changes.markCell(building.getX(), building.getY());
+        changes.markTable(ChangeTracker.BUILDINGS);
+        if(building instanceof Road){
+            roadGraph.remove(building.getX(), building.getY());
+            roadConnectivity.roadRemoved(building.getX(), building.getY());
+        }
+        CoverageMap coverage = getCoverage(building);
+        if(coverage != null){
+            coverage.remove(building.getX(), building.getY(), 1, building.getRadius(), getCoverageLevel(building));
+        }
+        buildingInfluenceChanged(building);
+    }
+    /**
+     * Queues the residential zones within the radius of a building whose influence changed.
+     *
+     * @param building the building that was added, removed or changed
+     */
+    private void buildingInfluenceChanged(Building building) {
+        if(building.getRadius() > 0){
+            influence.sourceChanged(building.getX(), building.getY(), building.getSize(), building.getRadius());
+        }
+    }
+    /**
+     * Queues the residential zones affected by a zone that was added or removed.
+     *
+     * @param zone the zone that was added or removed
+     */
+    private void zoneInfluenceChanged(Zone zone) {
+        if(zone instanceof Industrial){
+            influence.sourceChanged((Industrial) zone);
+        }
+        else if(zone instanceof Residential){
+            influence.zoneChanged((Residential) zone);
+        }
+    }
+    /**
+     * Returns the coverage map tracking buildings of the same type as the given building.
+     *
+     * @param building the building
+     * @return the coverage map, or null if the building type has no coverage
+     */
+    private CoverageMap getCoverage(Building building) {
+        if(building instanceof Police) return policeCoverage;
+        if(building instanceof Stadium) return stadiumCoverage;
+        if(building instanceof Forest) return forestCoverage;
+        return null;
+    }
+    /**
+     * Returns the level the building is recorded with in its coverage map.
+     *
+     * @param building the building
+     * @return the forest bonus for forests, 1 for every other building
+     */
+    private int getCoverageLevel(Building building) {
+        if(building instanceof Forest) return ((Forest) building).getBonus();
+        return 1;
+    }
+    /**
+     * Writes the given value into every cell covered by the building.
+     *
+     * @param building the building whose footprint is written
+     * @param value    the value to store, the building itself or null
+     */
+    private void setBuildingCells(Building building, Building value) {
+        for(int i = building.getX(); i < building.getX() + building.getSize(); i++){
+            for(int j = building.getY(); j < building.getY() + building.getSize(); j++){
+                if(buildingMatrix.inBounds(i, j)){
+                    buildingMatrix.set(i, j, value);
+                    tile(i, j);
+                }
+            }
+        }
+        if(building instanceof Road) tileNeighbours(building.getX(), building.getY());
+    }
+    /**
+     * Rewrites the tiles of every cell covered by the building.
+     *
+     * @param building the building whose tiles are rewritten
+     */
+    private void tileBuilding(Building building) {
+        if(tileMap == null) return;
+        for(int i = building.getX(); i < building.getX() + building.getSize(); i++){
+            for(int j = building.getY(); j < building.getY() + building.getSize(); j++){
+                tile(i, j);
+            }
+        }
+    }
+    /**
+     * Rewrites the tile of a cell from the building and zone on it, if a tile map is attached.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     */
+    private void tile(int x, int y) {
+        if(tileMap != null && buildingMatrix.inBounds(x, y)){
+            int adjacentRoads = 0;
+            for(int d = 0; d < 4; d++){
+                if(buildingMatrix.get(x + RoadGraph.DX[d], y + RoadGraph.DY[d]) instanceof Road) adjacentRoads++;
+            }
+            tileMap.set(x, y, buildingMatrix.get(x, y), zoneMatrix.get(x, y), adjacentRoads);
+        }
+    }
+    /**
+     * Rewrites the tiles of the four cells next to a cell, whose road count changes with a road on it.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     */
+    private void tileNeighbours(int x, int y) {
+        if(tileMap == null) return;
+        for(int d = 0; d < 4; d++){
+            tile(x + RoadGraph.DX[d], y + RoadGraph.DY[d]);
+        }
+    }
+    /**
+     * Rebuilds the occupancy index and the coverage maps from the building and zone lists, in the cells chosen
+     * by the settings.
+     */
+    private void rebuildIndex() {
+        rebuildIndex(null);
+    }
+    /**
+     * Rebuilds the occupancy index and the coverage maps from the building and zone lists.
+     *
+     * @param attached the tile map given by the caller to hold the cells, or null to choose by the settings
+     */
+    private void rebuildIndex(TileMap attached) {
+        if(tileMap != null && ownsTileMap){
+            try {
+                tileMap.getStore().close();
+            } catch (IOException e) {
+                System.err.println("Error while closing the tiles: " + e.getMessage());
+            }
+        }
+        ownsTileMap = attached == null;
+        tileMap = attached != null ? attached : newTileMap();
+        changes = new ChangeTracker(width, height, changes == null ? 0 : changes.getVersion());
+        if(tileMap != null){
+            // The occupancy lives in the tile records, no grid of references is kept on the heap
+            zoneMatrix = tileMap.getZoneGrid();
+            buildingMatrix = tileMap.getBuildingGrid();
+        }
+        else{
+            zoneMatrix = new ChunkedGrid<Zone>(width, height);
+            buildingMatrix = new ChunkedGrid<Building>(width, height);
+        }
+        boolean offHeap = General.offHeapTiles || General.mappedTiles;
+        policeCoverage = new CoverageMap(width, height, 1, offHeap);
+        stadiumCoverage = new CoverageMap(width, height, 1, offHeap);
+        forestCoverage = new CoverageMap(width, height, Forest.MAX_BONUS, offHeap);
+        roadGraph = new RoadGraph(width, height);
+        roadConnectivity = new RoadConnectivity(roadGraph, width, height);
+        workplaceFinder = new WorkplaceFinder(this, roadGraph);
+        workplaceField = new WorkplaceField(this, roadGraph);
+        if(parallelTick != null) parallelTick = new ParallelTick(parallelTick.getPool(), width, height);
+        influence = new InfluencePropagator(this);
+        scheduler = new SatisfactionScheduler();
+        for(int i = 0; i < buildings.size(); i++){
+            buildings.get(i).setListIndex(i);
+            indexBuilding(buildings.get(i));
+        }
+        for(int i = 0; i < zones.size(); i++){
             Zone zone = zones.get(i);
-            if (zone.getX() == x && zone.getY() == y) {
-                return i;
+            zone.setListIndex(i);
+            zoneMatrix.set(zone.getX(), zone.getY(), zone);
+            tile(zone.getX(), zone.getY());
+        }
+        for(Zone zone: zones){
+            zone.setDirty(false);
+            zoneInfluenceChanged(zone);
+            scheduler.markDirty(zone);
+        }
+    }
+    /**
+     * Creates the tile map the settings ask for: one paged from a temporary file, one outside the heap, or none.
+     *
+     * @return the tile map, or null to keep the cells in grids on the heap
+     */
+    private TileMap newTileMap() {
+        if(General.mappedTiles){
+            try {
+                return new TileMap(MappedChunkStore.createTemporary(width, height, TileMap.RECORD_SIZE, RESIDENT_TILE_CHUNKS));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
             }
         }
-        return -1;
+        if(General.offHeapTiles) return new TileMap(new DirectChunkStore(width, height, TileMap.RECORD_SIZE));
+        return null;
     }
     /**
-     * Saves the current game data to a file.
+     * Saves the current game data to a file in the binary city format.
+     * With a journal attached, the journal is compacted into its snapshot instead.
      */
     public void save() {
-        String filename = "saves/" + playerName + "_" + cityName + ".sav";
+        if(journal != null){
+            try {
+                journal.compact(this);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        String filename = General.saveFolder + "/" + playerName + "_" + cityName + ".sav";
         try {
-            // create if not exists
-            File file = new File(filename);
-            file.getParentFile().mkdirs();
-            file.createNewFile();
-
-            // then save
-            FileOutputStream fileOut = new FileOutputStream(filename);
-            ObjectOutputStream out = new ObjectOutputStream(fileOut);
-            out.writeObject(this);
-            out.close();
-            fileOut.close();
+            if(General.incrementalSaves){
+                getCityLog(new File(filename)).save(this);
+                return;
+            }
+            // Copied between two ticks, then written through a temporary file
+            SaveImage image = engine.execute(this::capture);
+            CityFormat.writeFile(CityFormat.toBytes(image), new File(filename));
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+    /**
+     * Copies the state of the city into a save image made of primitive columns.
+     * Must run between two ticks; the image shares nothing with the city afterwards.
+     *
+     * @return the save image
+     */
+    public SaveImage capture() {
+        SaveImage image = new SaveImage();
+        image.playerName = playerName;
+        image.cityName = cityName;
+        image.width = width;
+        image.height = height;
+        image.time = time;
+        image.speed = speed;
+        image.money = money;
+        image.satisfaction = satisfaction;
+        image.loanPeriod = loanPeriod;
+        image.population = population;
+        image.countDays = countDays;
+        image.lastAnnualFee = lastAnnualFee;
+        image.paused = paused;
+        image.seed = random.getSeed();
+        image.randomState = random.getState();
+
+        int n = buildings.size();
+        image.buildingType = new byte[n];
+        image.buildingX = new int[n];
+        image.buildingY = new int[n];
+        image.buildingFee = new int[n];
+        image.buildingAge = new int[n];
+        image.buildingFlags = new byte[n];
+        for(int i = 0; i < n; i++){
+            Building building = buildings.get(i);
+            image.buildingType[i] = CityFormat.tagOf(building);
+            image.buildingX[i] = building.getX();
+            image.buildingY[i] = building.getY();
+            image.buildingFee[i] = building.getFee();
+            if(building instanceof Forest) image.buildingAge[i] = ((Forest) building).getAge();
+            int flags = building.getAvailable() ? CityFormat.AVAILABLE : 0;
+            if(building instanceof Road && !((Road) building).getDestructible()) flags |= CityFormat.INDESTRUCTIBLE;
+            image.buildingFlags[i] = (byte) flags;
+        }
+
+        // Citizens and zones are numbered by their position in the image
+        int[] citizenIndex = new int[citizens.getCapacity()];
+        int citizenCount = 0;
+        for(int id = 0; id < citizenIndex.length; id++){
+            if(citizens.contains(id)) citizenIndex[id] = citizenCount++;
+        }
+        int[] zoneIndex = new int[citizens.getZoneCapacity()];
+        int m = zones.size();
+        int peopleCount = 0;
+        for(int i = 0; i < m; i++){
+            zoneIndex[zones.get(i).getId()] = i;
+            peopleCount += zones.get(i).getPeopleCount();
+        }
+
+        image.zoneType = new byte[m];
+        image.zoneX = new int[m];
+        image.zoneY = new int[m];
+        image.zoneSaturation = new int[m];
+        image.zoneSatisfaction = new int[m];
+        image.zoneFlags = new byte[m];
+        image.zonePeopleCount = new int[m];
+        image.people = new int[peopleCount];
+        int k = 0;
+        for(int i = 0; i < m; i++){
+            Zone zone = zones.get(i);
+            image.zoneType[i] = CityFormat.tagOf(zone);
+            image.zoneX[i] = zone.getX();
+            image.zoneY[i] = zone.getY();
+            image.zoneSaturation[i] = zone.getSaturation();
+            image.zoneSatisfaction[i] = zone.getSatisfaction();
+            int flags = zone.getAvailable() ? CityFormat.AVAILABLE : 0;
+            if(zone.hasImage()) flags |= CityFormat.HAS_IMAGE;
+            image.zoneFlags[i] = (byte) flags;
+            image.zonePeopleCount[i] = zone.getPeopleCount();
+            for(int j = 0; j < zone.getPeopleCount(); j++){
+                image.people[k++] = citizenIndex[zone.getPerson(j)];
+            }
+        }
+
+        image.citizenResidence = new int[citizenCount];
+        image.citizenWorkplace = new int[citizenCount];
+        image.citizenSatisfaction = new byte[citizenCount];
+        for(int id = 0; id < citizenIndex.length; id++){
+            if(!citizens.contains(id)) continue;
+            int c = citizenIndex[id];
+            Zone workplace = citizens.getWorkplace(id);
+            image.citizenResidence[c] = zoneIndex[citizens.getResidence(id).getId()];
+            image.citizenWorkplace[c] = workplace == null ? -1 : zoneIndex[workplace.getId()];
+            image.citizenSatisfaction[c] = (byte) citizens.getSatisfaction(id);
+        }
+        return image;
+    }
+    /**
+     * Replaces the state of the city with the one of a save image.
+     * Sprites are reattached from the type of every building and the saturation of every zone.
+     * Nothing changes if the image is inconsistent.
+     *
+     * @param image the save image
+     * @throws IOException if the image refers to unknown types, to entities it does not contain, or to cells
+     *                     outside its map
+     */
+    public void restore(SaveImage image) throws IOException {
+        if(image.width <= 0 || image.height <= 0){
+            throw new IOException("Invalid map size: " + image.width + "x" + image.height);
+        }
+        try {
+            ArrayList<Building> newBuildings = new ArrayList<Building>(image.buildingType.length);
+            for(int i = 0; i < image.buildingType.length; i++){
+                Building building = CityFormat.newBuilding(image.buildingType[i], image.buildingX[i], image.buildingY[i]);
+                if(building instanceof Forest){
+                    for(int age = 0; age < image.buildingAge[i]; age++){
+                        ((Forest) building).incrementAge();
+                    }
+                }
+                if(building instanceof Road){
+                    ((Road) building).setDestructible((image.buildingFlags[i] & CityFormat.INDESTRUCTIBLE) == 0);
+                }
+                building.setFee(image.buildingFee[i]);
+                building.setAvailable((image.buildingFlags[i] & CityFormat.AVAILABLE) != 0);
+                if(building.getX() < 0 || building.getY() < 0 || building.getX() + building.getSize() > image.width
+                        || building.getY() + building.getSize() > image.height){
+                    throw new IOException("Building outside the map at (" + building.getX() + ", " + building.getY() + ")");
+                }
+                newBuildings.add(building);
+            }
+
+            CitizenStore newCitizens = new CitizenStore();
+            ArrayList<Zone> newZones = new ArrayList<Zone>(image.zoneType.length);
+            for(int i = 0; i < image.zoneType.length; i++){
+                Zone zone = CityFormat.newZone(image.zoneType[i], image.zoneX[i], image.zoneY[i]);
+                if(zone.getX() < 0 || zone.getY() < 0 || zone.getX() >= image.width || zone.getY() >= image.height){
+                    throw new IOException("Zone outside the map at (" + zone.getX() + ", " + zone.getY() + ")");
+                }
+                zone.restore(image.zoneSaturation[i], image.zoneSatisfaction[i],
+                        (image.zoneFlags[i] & CityFormat.AVAILABLE) != 0, (image.zoneFlags[i] & CityFormat.HAS_IMAGE) != 0);
+                newZones.add(zone);
+                newCitizens.registerZone(zone);
+            }
+
+            int[] ids = new int[image.citizenResidence.length];
+            for(int c = 0; c < ids.length; c++){
+                int workplace = image.citizenWorkplace[c];
+                ids[c] = newCitizens.restore((Residential) newZones.get(image.citizenResidence[c]),
+                        workplace == -1 ? null : newZones.get(workplace), image.citizenSatisfaction[c]);
+            }
+            int k = 0;
+            for(int i = 0; i < newZones.size(); i++){
+                Zone zone = newZones.get(i);
+                for(int j = 0; j < image.zonePeopleCount[i]; j++){
+                    zone.addCitizen(ids[image.people[k++]]);
+                }
+            }
+
+            this.buildings = newBuildings;
+            this.zones = newZones;
+            this.citizens = newCitizens;
+        } catch (ClassCastException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt city file", e);
+        }
+        this.playerName = image.playerName;
+        this.cityName = image.cityName;
+        this.width = image.width;
+        this.height = image.height;
+        this.time = image.time;
+        this.speed = image.speed;
+        this.money = image.money;
+        this.satisfaction = image.satisfaction;
+        this.loanPeriod = image.loanPeriod;
+        this.population = image.population;
+        this.countDays = image.countDays;
+        this.lastAnnualFee = image.lastAnnualFee;
+        this.paused = image.paused;
+        this.random = new CityRandom(image.seed, image.randomState);
+        this.rebuildIndex();
+        this.engine.publish();
+    }
     /**
      * Loads game data from a file and updates the current game state.
+     * The city stays as it is if the file cannot be read; use read to learn why.
      *
      * @param filename the name of the file to load from
      */
     public void load(String filename) {
         // String filename = "saves/" + playerName + "_" + cityName + ".sav";
         try {
-            FileInputStream fileIn = new FileInputStream(filename);
-            ObjectInputStream in = new ObjectInputStream(fileIn);
-            Storage storage = (Storage) in.readObject();
-            in.close();
-            fileIn.close();
-            this.zones = storage.zones;
-            this.zoneMatrix = storage.zoneMatrix;
-            this.buildingMatrix = storage.buildingMatrix;
-            this.buildings = storage.buildings;
-            this.citizens = storage.citizens;
-            this.time = storage.time;
-            this.speed = storage.speed;
-            this.money = storage.money;
-            this.satisfaction = storage.satisfaction;
-            this.loanPeriod = storage.loanPeriod;
-            this.population = storage.population;
-            this.countDays = storage.countDays;
-            this.playerName = storage.playerName;
-            this.cityName = storage.cityName;
-            this.lastAnnualFee = storage.lastAnnualFee;
-            this.checked = storage.checked;
-        } catch (Exception e) {
+            read(new File(filename));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+    /**
+     * Reads game data from a file and updates the current game state.
+     * Only files in the binary city format can be loaded; they are restored from their columns.
+     * Saves serialized by older versions of the game are not supported, and nothing else is deserialized.
+     * The city stays as it is if the file cannot be read.
+     *
+     * @param file the file to read
+     * @throws IOException if the file cannot be read or is not in the binary city format
+     */
+    public void read(File file) throws IOException {
+        if(!CityFormat.isCityFile(file)){
+            throw new IOException("Unsupported save format: " + file);
+        }
+        try (FileInputStream fileIn = new FileInputStream(file)) {
+            restore(CityFormat.read(fileIn));
         }
     }
 
     public void disasterAction(int x, int y, int dim) {
         for (int i = x-dim; i <= x+dim; i++) {
             for (int j = y-dim; j <= y+dim; j++) {
-                int index = getBuildingIndex(i, j, 1);
-                if (index != -1 && !(buildings.get(index) instanceof Road)) {
-                    buildings.remove(index);
-                    buildingMatrix[i][j] = null;
+                Building building = getBuildingAt(i, j);
+                if (building != null && !(building instanceof Road)) {
+                    unlist(building);
+                    unindexBuilding(building);
+                    scheduler.markWorkplacesDirty();
                 }
             }
         }
@@ -541,20 +1361,66 @@ public class Storage implements Serializable {
             // earthquake: 0+x+0 (1x1)
             disasterAction(x, y, 0);
         }
+        if(journal != null) journal.disaster(x, y, dType);
         return dType;
     }
 
     public int disaster(int x, int y) {
-        int dType = (int) Math.floor(Math.random() * 2);
-        return disaster(x, y, dType);
+        int dType = random.nextInt(2);
+        disaster(x, y, dType);
+        journalRandom();
+        return dType;
+    }
+    /**
+     * Strikes a disaster of the given type on a random cell of the map.
+     *
+     * @param dType the type of the disaster
+     * @return the x- and y-coordinates of the cell
+     */
+    public int[] randomDisaster(int dType) {
+        int x = random.nextInt(width);
+        int y = random.nextInt(height);
+        disaster(x, y, dType);
+        journalRandom();
+        return new int[]{x, y};
+    }
+    /**
+     * Strikes a disaster of a random type on a random cell of the map.
+     *
+     * @return the x- and y-coordinates of the cell and the type of the disaster
+     */
+    public int[] randomDisaster() {
+        int x = random.nextInt(width);
+        int y = random.nextInt(height);
+        int dType = disaster(x, y);
+        return new int[]{x, y, dType};
+    }
+    /**
+     * Plants a forest free of charge on a random cell of the map, if the cell is free.
+     *
+     * @return the forest, or null if it could not be planted
+     */
+    public Forest plantRandomForest() {
+        Forest forest = new Forest(random.nextInt(width), random.nextInt(height));
+        boolean planted = addBuilding(forest);
+        if(planted) addMoney(forest.getCost());
+        journalRandom();
+        return planted ? forest : null;
+    }
+    /**
+     * Records the state of the random generator after a command drew from it, since the journal only
+     * holds the resolved commands and replaying them draws nothing.
+     */
+    private void journalRandom() {
+        if(journal != null) journal.random(random.getState());
     }
 
     public boolean isGeneralZone(int x, int y, int size){
-        if(getZoneIndex(x, y) != -1) return false;
+        if(getZoneAt(x, y) != null) return false;
         if(size > 1){
-            if(getZoneIndex(x+1, y) != -1) return false;
-            if(getZoneIndex(x+1, y+1) != -1) return false;
-            if(getZoneIndex(x, y+1) != -1) return false;
+            if(getZoneAt(x+1, y) != null) return false;
+            if(getZoneAt(x+1, y+1) != null) return false;
+            if(getZoneAt(x, y+1) != null) return false;
         }
         return true;
     }
@@ -574,20 +1440,20 @@ public class Storage implements Serializable {
                         resZone.increaseSaturation(inc);
                         this.population += inc;
                         for(int j = 0; j < inc; j++){
-                            Citizen newCitizen = new Citizen(resZone);
-                            this.citizens.add(newCitizen);
-                            resZone.addCitizen(newCitizen);
+                            this.citizens.add(resZone);
                         }
+                        scheduler.markDirty(resZone);
+                        scheduler.markWorkplacesDirty();
                         return;
                     }
                     else{
                         inc -= availableSize;
                         resZone.increaseSaturation(availableSize);
                         for(int j = 0; j < availableSize; j++){
-                            Citizen newCitizen = new Citizen(resZone);
-                            this.citizens.add(newCitizen);
-                            resZone.addCitizen(newCitizen);
+                            this.citizens.add(resZone);
                         }
+                        scheduler.markDirty(resZone);
+                        scheduler.markWorkplacesDirty();
                         this.population += availableSize;
                     }
                 }
@@ -636,54 +1502,26 @@ public class Storage implements Serializable {
         for(Building building: buildings){
             if(building instanceof Forest){
                 Forest f = (Forest) building;
+                forestCoverage.remove(f.getX(), f.getY(), 1, f.getRadius(), f.getBonus());
                 f.incrementAge();
+                changes.markCell(f.getX(), f.getY());
+                forestCoverage.add(f.getX(), f.getY(), 1, f.getRadius(), f.getBonus());
+                buildingInfluenceChanged(f);
             }
         }
     }
     /**
      * Updates the satisfaction level of the zones in the city based on various factors.
+     * Only the zones whose bonuses, saturation or workers changed since the last update are recomputed,
+     * and the city average is derived from the running sum of the satisfaction of the citizens.
      */
     public void updateSatisfaction(){
-        for(Zone zone: zones){
-            if(zone instanceof Residential){
-                Residential resZone = (Residential) zone;
-                boolean policeExists = this.checkPolice(resZone);
-                boolean stadiumExists = this.checkStadium(resZone);
-                Forest forest = this.checkForest(resZone);
-                resZone.setPoliceBonus(policeExists);
-                resZone.setStadiumBonus(stadiumExists);
-                if(forest != null) resZone.setForestBonus(forest.getBonus());
-                else resZone.setForestBonus(0);
-
-                Industrial industry = this.checkIndustrial(resZone);
-                if(industry!=null){
-                    int distance = (int) (Math.pow(resZone.getX()-industry.getX(), 2) + Math.pow(resZone.getY()-industry.getY(), 2));
-                    resZone.setDistance(distance);
-                }
-                else{
-                    resZone.setDistance(0);
-                }
-                boolean industrialEffect = checkIndustrialEffect(resZone);
-                resZone.setIndustrialEffect(industrialEffect);
-                resZone.updateSatisfaction();
-            }
-        }
-        for(Zone zone: zones){
-            if(zone instanceof Service){
-                Service serviceZone = (Service) zone;
-                serviceZone.updateSatisfaction();
-            }
-            else if(zone instanceof Industrial){
-                Industrial industrialZone = (Industrial) zone;
-                industrialZone.updateSatisfaction();
-            }
-        }
-        int sum = 0;
-        for(Citizen citizen: citizens){
-            sum += citizen.getSatisfaction();
+        for(Residential resZone: influence.propagate(parallelTick)){
+            scheduler.markDirty(resZone);
         }
+        scheduler.run(parallelTick);
         if(citizens.size() != 0){
-            int avg = sum / citizens.size();
+            int avg = (int) (citizens.getSatisfactionSum() / citizens.size());
             this.satisfaction = avg;
         }
 
@@ -701,16 +1539,7 @@ public class Storage implements Serializable {
      * @return true if a police building exists nearby, false otherwise
      */
     public boolean checkPolice(Residential resZone){
-        for(int i = resZone.getX() - 3; i <= resZone.getX()+3; i++){
-            for(int j = resZone.getY() - 3; j<=resZone.getY()+3;j++){
-                if(validCoordinates(i, j, 1)){
-                    if(buildingMatrix[i][j] instanceof Police){
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+        return policeCoverage.covered(resZone.getX(), resZone.getY());
     }
     /**
      * Checks if there is a stadium building within a certain radius of the residential zone.
@@ -719,40 +1548,16 @@ public class Storage implements Serializable {
      * @return true if a stadium building exists nearby, false otherwise
      */
     public boolean checkStadium(Residential resZone){
-        for(int i = resZone.getX() - 5; i <= resZone.getX()+5; i++){
-            for(int j = resZone.getY() - 5; j<=resZone.getY()+5;j++){
-                if(validCoordinates(i, j, 1)){
-                    if(buildingMatrix[i][j] instanceof Stadium){
-                        return true;
-                    }
-                }
-            }
-        }
-        return false;
+        return stadiumCoverage.covered(resZone.getX(), resZone.getY());
     }
     /**
-     * Checks if there is a forest building within a certain radius of the residential zone and returns the one with the highest bonus.
+     * Checks if there is a forest building within a certain radius of the residential zone and returns the highest bonus among them.
      *
      * @param resZone the residential zone
-     * @return the forest building with the highest bonus, or null if none exist
+     * @return the highest forest bonus in range, or 0 if no forest is in range
      */
-    public Forest checkForest(Residential resZone){
-        int maxBonus = 0;
-        Forest resultForest = null;
-        for(int i = resZone.getX() - 3; i <= resZone.getX()+3; i++){
-            for(int j = resZone.getY() - 3; j<=resZone.getY()+3;j++){
-                if(validCoordinates(i, j, 1)){
-                    if(buildingMatrix[i][j] instanceof Forest){
-                        Forest forest = (Forest) buildingMatrix[i][j];
-                        if(forest.getBonus() > maxBonus){
-                            resultForest = (Forest) buildingMatrix[i][j];
-                            maxBonus = resultForest.getBonus();
-                        }
-                    }
-                }
-            }
-        }
-        return resultForest;
+    public int checkForest(Residential resZone){
+        return forestCoverage.maxLevel(resZone.getX(), resZone.getY());
     }
     /**
      * Checks if there is an industrial zone within a certain radius of the residential zone and returns the one with the shortest distance.
@@ -768,12 +1573,10 @@ public class Storage implements Serializable {
         int y = resZone.getY();
         for(int i = resZone.getX() - 3; i <= resZone.getX()+3; i++){
             for(int j = resZone.getY() - 3; j<=resZone.getY()+3;j++){
-                if(validCoordinates(i, j, 1)){
-                    if(zoneMatrix[i][j] instanceof Industrial){
-                        distance = (int) (Math.pow(x-i, 2) + Math.pow(y-j, 2));
-                        if(distance < minDistance){
-                            industry = (Industrial) zoneMatrix[i][j];
-                        }
+                if(zoneMatrix.get(i, j) instanceof Industrial){
+                    distance = (int) (Math.pow(x-i, 2) + Math.pow(y-j, 2));
+                    if(distance < minDistance){
+                        industry = (Industrial) zoneMatrix.get(i, j);
                     }
                 }
             }
@@ -789,126 +1592,108 @@ public class Storage implements Serializable {
     public boolean checkIndustrialEffect(Residential res){
         int x = res.getX();
         int y = res.getY();
-        for(int i = x; i <= x+3 && i<=25; i++){
-            if(buildingMatrix[i][y] instanceof Forest) return false;
-            if(zoneMatrix[i][y] instanceof Industrial) return true;
+        for(int i = x; i <= x+3 && i < width; i++){
+            if(isForestAt(i, y)) return false;
+            if(isIndustrialAt(i, y)) return true;
         }
         for(int i = x; i >= x-3 && i>=0; i--){
-            if(buildingMatrix[i][y] instanceof Forest) return false;
-            if(zoneMatrix[i][y] instanceof Industrial) return true;
+            if(isForestAt(i, y)) return false;
+            if(isIndustrialAt(i, y)) return true;
         }
-        for(int i = y; i <= y+3 && i <= 22; i++){
-            if(buildingMatrix[x][i] instanceof Forest) return false;
-            if(zoneMatrix[x][i] instanceof Industrial) return true;
+        for(int i = y; i <= y+3 && i < height; i++){
+            if(isForestAt(x, i)) return false;
+            if(isIndustrialAt(x, i)) return true;
         }
         for(int i = y; i <= y-3 && i >= 0; i--){
-            if(buildingMatrix[x][i] instanceof Forest) return false;
-            if(zoneMatrix[x][i] instanceof Industrial) return true;
+            if(isForestAt(x, i)) return false;
+            if(isIndustrialAt(x, i)) return true;
         }
 
         return false;
     }
+    /**
+     * Checks if a forest covers the given cell, reading the tile map when one is attached.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if a forest is on the cell, false otherwise
+     */
+    private boolean isForestAt(int x, int y) {
+        if(tileMap != null) return tileMap.getBuilding(x, y) == TileMap.FOREST;
+        return buildingMatrix.get(x, y) instanceof Forest;
+    }
+    /**
+     * Checks if an industrial zone is on the given cell, reading the tile map when one is attached.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if an industrial zone is on the cell, false otherwise
+     */
+    private boolean isIndustrialAt(int x, int y) {
+        if(tileMap != null) return tileMap.getZone(x, y) == TileMap.INDUSTRIAL;
+        return zoneMatrix.get(x, y) instanceof Industrial;
+    }
     /**
      * Updates the availability of workplace for each residential zone in the city.
+     * The nearest workplaces are labelled once for the whole road network, and a zone only falls back
+     * to its own search when its nearest workplace got filled by another zone in the same update.
+     * Skipped when neither the map nor the population changed since a run that assigned nobody.
      */
     public void updateWorkplaces(){
+        if(!scheduler.takeWorkplacesDirty()) return;
+        boolean fieldBuilt = false;
         for(Zone zone: zones){
             if(zone instanceof Residential){
                 Residential resZone = (Residential) zone;
                 if(!resZone.workplaceExists()){
-                    this.setFalse();
-                    Zone workPlace = getWorkplace(resZone.getX(), resZone.getY());
-                    if(workPlace!=null) resZone.setWorkplace(workPlace);
+                    if(!fieldBuilt){
+                        workplaceField.build();
+                        fieldBuilt = true;
+                    }
+                    Zone workPlace = workplaceField.find(resZone.getX(), resZone.getY());
+                    if(workPlace != null){
+                        for(int i = 0; i < workplaceField.getPathLength(); i++){
+                            Road road = workplaceField.getPathRoad(i);
+                            road.setDestructible(false);
+                            changes.markCell(road.getX(), road.getY());
+                        }
+                    }
+                    else if(workplaceField.hadCandidate()){
+                        workPlace = getWorkplace(resZone.getX(), resZone.getY());
+                    }
+                    if(workPlace!=null){
+                        resZone.setWorkplace(workPlace);
+                        scheduler.markDirty(workPlace);
+                        scheduler.markWorkplacesDirty();
+                    }
                 }
             }
         }
     }
     /**
-     * Recursive function to find a suitable workplace for a residential zone.
+     * Finds the nearest workplace with free capacity reachable by road from the given cell.
+     * The roads on the way to the workplace become indestructible.
      *
      * @param x the x-coordinate of the residential zone
      * @param y the y-coordinate of the residential zone
      * @return the workplace zone, or null if none is found
      */
     public Zone getWorkplace(int x, int y){
-        if(!recursionFlag) return null;
-
-        checked[x][y] = true;
-        Zone workPlace = null;
-        int index;
-        ArrayList<Integer> zoneIndexes = new ArrayList<>();
-        ArrayList<Integer> buildingIndexes = new ArrayList<>();
-        ArrayList<Building> pathToWork = new ArrayList<>();
-
-        checkWorkplace(x, y, zoneIndexes, buildingIndexes, -1, 0);
-        checkWorkplace(x, y, zoneIndexes, buildingIndexes, 1, 0);
-        checkWorkplace(x, y, zoneIndexes, buildingIndexes, 0, -1);
-        checkWorkplace(x, y, zoneIndexes, buildingIndexes, 0, 1);
-
-        int cnt = 0;
-        while(workPlace == null && cnt <= 3){
-            index = zoneIndexes.get(cnt);
-            int incx = 0, incy = 0;
-            switch(cnt){
-                case 0: incx = -1; incy = 0; break;
-                case 1: incx = 1; incy = 0; break;
-                case 2: incx = 0; incy = -1; break;
-                case 3: incx = 0; incy = 1; break;
-                default: break;
-            }
-            if(index != -1){
-                if(!(zones.get(index) instanceof Residential)){
-                    workPlace = zones.get(index);
-                    if(workPlace.getAvailableSize() == 0) workPlace = null;
-                }
-            }
-            else{
-                index = buildingIndexes.get(cnt);
-                if(index != -1 && buildings.get(index) instanceof Road){
-                    Building building = buildings.get(index);
-                    pathToWork.add(building);
-                    workPlace = getWorkplace(x+incx, y+incy);
-                    if(workPlace == null) pathToWork.remove(building);
-                }
-            }
-            cnt++;
-        }
-
+        Zone workPlace = workplaceFinder.find(x, y);
         if(workPlace != null){
-            for(Building building: pathToWork){
-                Road road = (Road) building;
+            for(int i = 0; i < workplaceFinder.getPathLength(); i++){
+                Road road = workplaceFinder.getPathRoad(i);
                 road.setDestructible(false);
+                changes.markCell(road.getX(), road.getY());
             }
-            recursionFlag = false;
-        } 
-        return workPlace;
-    }
-    /**
-     * Helper function to check if a neighboring coordinate is a valid workplace option.
-     *
-     * @param x               the x-coordinate of the residential zone
-     * @param y               the y-coordinate of the residential zone
-     * @param zoneIndexes     the list to store the zone indexes
-     * @param buildingIndexes the list to store the building indexes
-     * @param incX            the increment in the x-coordinate
-     * @param incY            the increment in the y-coordinate
-     */
-    public void checkWorkplace(int x, int y, ArrayList<Integer> zoneIndexes, ArrayList<Integer> buildingIndexes, int incX, int incY){
-        if(validCoordinates(x+incX, y+incY, 1) && !checked[x+incX][y+incY]) {
-            zoneIndexes.add(getZoneIndex(x+incX, y+incY));
-            buildingIndexes.add(getBuildingIndex(x+incX, y+incY, 1));
-        }
-        else{
-            zoneIndexes.add(-1);
-            buildingIndexes.add(-1);
         }
+        return workPlace;
     }
     /**
-     * Resets the checked array and recursion flag to their initial values.
+     * Resets the visited marks of the workplace search.
      */
     public void setFalse(){
-        checked = new boolean[26][23];
-        recursionFlag = true;
+        workplaceFinder.reset();
     }
     /**
      * Adds additional money to the city's budget.
@@ -917,5 +1702,6 @@ public class Storage implements Serializable {
      */
     public void addMoney(int additionalMoney){
         this.money+=additionalMoney;
+        if(journal != null) journal.money(additionalMoney);
     }
 }
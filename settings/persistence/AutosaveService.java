@@ -0,0 +1,148 @@
+package settings.persistence;
+
+import settings.General;
+import settings.Storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The AutosaveService class saves a city on a background thread.
+ * A save copies the city into a SaveImage between two ticks, which only takes a pass over primitive columns;
+ * encoding the image and writing the file then run on the autosave thread while the simulation and the
+ * interface go on. The file is replaced through a temporary file, so it always holds a complete city.
+ * When the city keeps a journal next to the file, a save compacts the journal instead, so the records the
+ * new file contains are dropped from it. With General.incrementalSaves set, a save only appends what changed
+ * since the last one to a CityLog.
+ */
+public class AutosaveService implements Closeable {
+    private final Storage storage;
+    private final File file;
+    private final ScheduledExecutorService executor;
+    private ScheduledFuture<?> task;
+    private long interval = 0;
+    private volatile int saveCount = 0;
+    private volatile IOException lastError;
+
+    /**
+     * Constructs a stopped service saving the given city to the given file.
+     *
+     * @param storage the city to save
+     * @param file    the file to write
+     */
+    public AutosaveService(Storage storage, File file) {
+        this.storage = storage;
+        this.file = file;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "autosave");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts saving the city periodically, replacing any earlier schedule.
+     *
+     * @param seconds the number of seconds between two saves; 0 or less stops autosaving
+     */
+    public synchronized void start(long seconds) {
+        stop();
+        if(seconds <= 0) return;
+        interval = seconds;
+        task = executor.scheduleWithFixedDelay(this::saveQuietly, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops saving the city periodically. A save that already started still completes.
+     */
+    public synchronized void stop() {
+        if(task != null) task.cancel(false);
+        task = null;
+        interval = 0;
+    }
+
+    /**
+     * Returns the number of seconds between two saves.
+     *
+     * @return the interval, or 0 if autosaving is stopped
+     */
+    public synchronized long getInterval() {
+        return interval;
+    }
+
+    /**
+     * Saves the city on the autosave thread as soon as possible, e.g. for the "Save" menu item.
+     *
+     * @return a future completing once the file is written
+     */
+    public Future<?> saveNow() {
+        return executor.submit(this::saveQuietly);
+    }
+
+    /**
+     * Saves the city on the calling thread, which must not be running a command of the simulation engine.
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public void save() throws IOException {
+        Journal journal = storage.getJournal();
+        if(journal != null && journal.getSnapshot().getAbsoluteFile().equals(file.getAbsoluteFile())){
+            journal.compact(storage);
+        }
+        else if(General.incrementalSaves){
+            storage.getCityLog(file).save(storage);
+        }
+        else{
+            SaveImage image = storage.getEngine().execute(storage::capture);
+            CityFormat.writeFile(CityFormat.toBytes(image), file);
+        }
+        saveCount++;
+    }
+
+    /**
+     * Returns the number of saves written so far.
+     *
+     * @return the number of saves
+     */
+    public int getSaveCount() {
+        return saveCount;
+    }
+
+    /**
+     * Returns the error of the last background save that failed.
+     *
+     * @return the error, or null if no save failed
+     */
+    public IOException getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Stops the service once the pending saves are written.
+     */
+    @Override
+    public void close() {
+        stop();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            lastError = e;
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package settings.persistence;
+
+import java.util.BitSet;
+
+/**
+ * The ChangeTracker class remembers which parts of a city changed since it was last saved.
+ * The map is split into the same chunks as the compressed saves, and a chunk is marked when a building or
+ * zone whose origin lies in it is added, removed or changed. The entity tables are marked as a whole: the
+ * building and zone tables when entities are added or removed, which moves the others in the lists, and the
+ * citizen table when a citizen or the members of a zone change.
+ * A tracker starts with everything marked, as nothing was saved yet.
+ * Every mark also raises a version number that is never cleared, so a reader can tell cheaply whether the
+ * city changed since it last looked, e.g. to publish a new snapshot only then.
+ */
+public class ChangeTracker {
+    /** The order of the buildings. */
+    public static final int BUILDINGS = 1;
+    /** The order of the zones. */
+    public static final int ZONES = 2;
+    /** The citizens and the members of every zone. */
+    public static final int CITIZENS = 4;
+
+    private final int chunksX;
+    private final int chunksY;
+    private BitSet chunks;
+    private int tables;
+    private boolean all;
+    private long version;
+
+    /**
+     * Constructs a tracker for a map of the given size, with everything marked.
+     *
+     * @param width  the number of cells along the x-axis of the map
+     * @param height the number of cells along the y-axis of the map
+     */
+    public ChangeTracker(int width, int height) {
+        this(width, height, 0);
+    }
+
+    /**
+     * Constructs a tracker for a map of the given size, with everything marked, whose version follows the
+     * one of the tracker it replaces.
+     *
+     * @param width   the number of cells along the x-axis of the map
+     * @param height  the number of cells along the y-axis of the map
+     * @param version the version of the replaced tracker
+     */
+    public ChangeTracker(int width, int height, long version) {
+        this(Math.max(1, (width + (1 << ChunkedCityFormat.CHUNK_BITS) - 1) >> ChunkedCityFormat.CHUNK_BITS),
+                Math.max(1, (height + (1 << ChunkedCityFormat.CHUNK_BITS) - 1) >> ChunkedCityFormat.CHUNK_BITS),
+                new BitSet(), 0, true, version + 1);
+    }
+
+    private ChangeTracker(int chunksX, int chunksY, BitSet chunks, int tables, boolean all, long version) {
+        this.chunksX = chunksX;
+        this.chunksY = chunksY;
+        this.chunks = chunks;
+        this.tables = tables;
+        this.all = all;
+        this.version = version;
+    }
+
+    /**
+     * Marks the chunk holding the given cell; cells outside the map count for the nearest chunk.
+     *
+     * @param x the x-coordinate of the cell
+     * @param y the y-coordinate of the cell
+     */
+    public void markCell(int x, int y) {
+        chunks.set(chunkOf(x, y));
+        version++;
+    }
+
+    /**
+     * Marks entity tables.
+     *
+     * @param table the tables to mark, e.g. BUILDINGS | ZONES
+     */
+    public void markTable(int table) {
+        tables |= table;
+        version++;
+    }
+
+    /**
+     * Marks everything, e.g. after the whole city was replaced.
+     */
+    public void markAll() {
+        all = true;
+        version++;
+    }
+
+    /**
+     * Returns the marks gathered so far and clears them.
+     *
+     * @return a tracker holding the marks
+     */
+    public ChangeTracker take() {
+        ChangeTracker taken = new ChangeTracker(chunksX, chunksY, chunks, tables, all, version);
+        chunks = new BitSet();
+        tables = 0;
+        all = false;
+        return taken;
+    }
+
+    /**
+     * Returns the number of marks made so far; taking the marks does not lower it.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Checks if everything is marked.
+     *
+     * @return true if the whole city has to be saved, false otherwise
+     */
+    public boolean isAll() {
+        return all;
+    }
+
+    /**
+     * Checks if a chunk is marked.
+     *
+     * @param chunk the index of the chunk, row after row
+     * @return true if the chunk changed, false otherwise
+     */
+    public boolean isChunkChanged(int chunk) {
+        return all || chunks.get(chunk);
+    }
+
+    /**
+     * Checks if an entity table is marked.
+     *
+     * @param table the table, e.g. CITIZENS
+     * @return true if the table changed, false otherwise
+     */
+    public boolean isTableChanged(int table) {
+        return all || (tables & table) != 0;
+    }
+
+    /**
+     * Returns the number of marked chunks.
+     *
+     * @return the number of chunks that changed
+     */
+    public int getChangedChunkCount() {
+        return all ? chunksX * chunksY : chunks.cardinality();
+    }
+
+    /**
+     * Returns the index of the next marked chunk.
+     *
+     * @param from the index to start from
+     * @return the index of the chunk, or -1 if no chunk from there on is marked
+     */
+    public int nextChangedChunk(int from) {
+        if(all) return from < chunksX * chunksY ? from : -1;
+        return chunks.nextSetBit(from);
+    }
+
+    private int chunkOf(int x, int y) {
+        int cx = Math.min(Math.max(x >> ChunkedCityFormat.CHUNK_BITS, 0), chunksX - 1);
+        int cy = Math.min(Math.max(y >> ChunkedCityFormat.CHUNK_BITS, 0), chunksY - 1);
+        return cy * chunksX + cx;
+    }
+}
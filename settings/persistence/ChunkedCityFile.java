@@ -0,0 +1,158 @@
+package settings.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.Consumer;
+
+/**
+ * The ChunkedCityFile class gives random access to the sections of a compressed city file.
+ * Only the index is read when the file is opened; every other read fetches and inflates one section, so a
+ * caller can read the chunks it needs, or the whole city starting with the chunks around a given cell.
+ */
+public class ChunkedCityFile implements Closeable {
+    private final FileChannel channel;
+    private final ChunkedCityFormat.Index index;
+
+    /**
+     * Opens a compressed city file and reads its index.
+     *
+     * @param file the file
+     * @throws IOException if the file cannot be read or is not a compressed city file
+     */
+    public ChunkedCityFile(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            if(in.readInt() != ChunkedCityFormat.MAGIC) throw new IOException("Not a compressed city file");
+            this.index = ChunkedCityFormat.readIndex(in);
+            if(index.size() == 0 || index.chunkX[0] != -1) throw new IOException("Corrupt city file: no global section");
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of cells along the x-axis of the map.
+     *
+     * @return the width of the map
+     */
+    public int getWidth() {
+        return index.width;
+    }
+
+    /**
+     * Returns the number of cells along the y-axis of the map.
+     *
+     * @return the height of the map
+     */
+    public int getHeight() {
+        return index.height;
+    }
+
+    /**
+     * Returns the number of chunks holding at least one building or zone.
+     *
+     * @return the number of chunk sections
+     */
+    public int getChunkCount() {
+        return index.size() - 1;
+    }
+
+    /**
+     * Checks if the file has a section for the given chunk.
+     *
+     * @param chunkX the x-coordinate of the chunk
+     * @param chunkY the y-coordinate of the chunk
+     * @return true if a building or zone lies in the chunk, false otherwise
+     */
+    public boolean hasChunk(int chunkX, int chunkY) {
+        return find(chunkX, chunkY) != -1;
+    }
+
+    /**
+     * Reads the buildings and zones of one chunk.
+     *
+     * @param chunkX the x-coordinate of the chunk
+     * @param chunkY the y-coordinate of the chunk
+     * @return the chunk, or null if nothing lies in it
+     * @throws IOException if the section cannot be read
+     */
+    public SaveChunk readChunk(int chunkX, int chunkY) throws IOException {
+        int i = find(chunkX, chunkY);
+        if(i == -1) return null;
+        return ChunkedCityFormat.decodeChunk(readSection(i), chunkX, chunkY);
+    }
+
+    /**
+     * Reads the whole city.
+     *
+     * @return the image
+     * @throws IOException if the file cannot be read
+     */
+    public SaveImage readImage() throws IOException {
+        return readImage(0, 0, null);
+    }
+
+    /**
+     * Reads the whole city, inflating the chunks in the order of their distance to the given cell.
+     * Each chunk is handed to the listener as soon as it is read, e.g. to draw what the player looks at while
+     * the rest of the city is still loading.
+     *
+     * @param x        the x-coordinate of the cell to start from, e.g. the centre of the viewport
+     * @param y        the y-coordinate of the cell to start from
+     * @param listener the listener of the chunks, or null
+     * @return the image
+     * @throws IOException if the file cannot be read
+     */
+    public SaveImage readImage(int x, int y, Consumer<SaveChunk> listener) throws IOException {
+        SaveImage image = ChunkedCityFormat.decodeGlobal(readSection(0));
+        int cx = x >> ChunkedCityFormat.CHUNK_BITS;
+        int cy = y >> ChunkedCityFormat.CHUNK_BITS;
+        Integer[] order = new Integer[index.size() - 1];
+        for(int i = 0; i < order.length; i++){
+            order[i] = i + 1;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> Math.max(Math.abs(index.chunkX[i] - cx), Math.abs(index.chunkY[i] - cy))));
+        for(int i: order){
+            SaveChunk chunk = ChunkedCityFormat.decodeChunk(readSection(i), index.chunkX[i], index.chunkY[i]);
+            ChunkedCityFormat.place(image, chunk);
+            if(listener != null) listener.accept(chunk);
+        }
+        return image;
+    }
+
+    /**
+     * Closes the file.
+     *
+     * @throws IOException if closing fails
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int find(int chunkX, int chunkY) {
+        for(int i = 1; i < index.size(); i++){
+            if(index.chunkX[i] == chunkX && index.chunkY[i] == chunkY) return i;
+        }
+        return -1;
+    }
+
+    private byte[] readSection(int i) throws IOException {
+        ByteBuffer section = ByteBuffer.allocate(index.length[i]);
+        while(section.hasRemaining()){
+            if(channel.read(section, index.offset[i] + section.position()) < 0) throw new IOException("Corrupt city file: truncated section");
+        }
+        return ChunkedCityFormat.inflate(section.array(), index.rawLength[i]);
+    }
+}
@@ -0,0 +1,376 @@
+package settings.persistence;
+
+import settings.world.ChunkedGrid;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The ChunkedCityFormat class reads and writes the compressed container for saves.
+ * The city is split into sections: a global one with the scalar state, the citizens and the zone members, and
+ * one per map chunk of 64x64 cells with the buildings and zones whose origin lies in it. Every section is
+ * deflated on its own, and an index at the head of the file gives the chunk, offset and length of each, so
+ * a reader can stream the file in order or pick single chunks, e.g. the ones around the viewport first.
+ * The layout is the magic number, the version, the SaveHeader and its thumbnail, the map size, the chunk
+ * size, the section count, one index entry per section (chunk x, chunk y, offset, compressed length, raw
+ * length) and then the sections, global section first. The global section has the chunk coordinates -1, -1.
+ * Files of version 1 have no SaveHeader and are still read.
+ */
+public final class ChunkedCityFormat {
+    /** The first four bytes of every compressed city file: "SDNZ". */
+    public static final int MAGIC = 0x53444E5A;
+    /** The version of the format written by this class. */
+    public static final int VERSION = 2;
+    /** The number of bits of a cell coordinate taken by the position inside its chunk. */
+    public static final int CHUNK_BITS = ChunkedGrid.CHUNK_BITS;
+
+    // The map size, the chunk size and the section count
+    static final int INDEX_HEADER_SIZE = 16;
+    static final int ENTRY_SIZE = 24;
+
+    private ChunkedCityFormat() {
+    }
+
+    /**
+     * Writes a save image with the default compression level.
+     *
+     * @param image the image to write
+     * @param os    the stream to write to; it is flushed but not closed
+     * @throws IOException if writing fails
+     */
+    public static void write(SaveImage image, OutputStream os) throws IOException {
+        write(image, os, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Writes a save image.
+     *
+     * @param image the image to write
+     * @param os    the stream to write to; it is flushed but not closed
+     * @param level the deflate level, from 0 to 9, or -1 for the default
+     * @throws IOException if writing fails
+     */
+    public static void write(SaveImage image, OutputStream os, int level) throws IOException {
+        int chunksX = Math.max(1, (image.width + (1 << CHUNK_BITS) - 1) >> CHUNK_BITS);
+        int chunksY = Math.max(1, (image.height + (1 << CHUNK_BITS) - 1) >> CHUNK_BITS);
+        int chunks = chunksX * chunksY;
+        // Entities sorted by chunk, keeping their order inside a chunk
+        int[] buildingStart = new int[chunks + 1];
+        int[] buildingOrder = bucket(image.buildingX, image.buildingY, chunksX, chunksY, buildingStart);
+        int[] zoneStart = new int[chunks + 1];
+        int[] zoneOrder = bucket(image.zoneX, image.zoneY, chunksX, chunksY, zoneStart);
+
+        ArrayList<int[]> entries = new ArrayList<int[]>();
+        ArrayList<byte[]> sections = new ArrayList<byte[]>();
+        Deflater deflater = new Deflater(level);
+        try {
+            byte[] raw = encodeGlobal(image);
+            entries.add(new int[]{-1, -1, raw.length});
+            sections.add(deflate(deflater, raw));
+            for(int chunk = 0; chunk < chunks; chunk++){
+                int[] buildingIndex = Arrays.copyOfRange(buildingOrder, buildingStart[chunk], buildingStart[chunk + 1]);
+                int[] zoneIndex = Arrays.copyOfRange(zoneOrder, zoneStart[chunk], zoneStart[chunk + 1]);
+                if(buildingIndex.length == 0 && zoneIndex.length == 0) continue;
+                raw = encodeChunk(image, buildingIndex, zoneIndex);
+                entries.add(new int[]{chunk % chunksX, chunk / chunksX, raw.length});
+                sections.add(deflate(deflater, raw));
+            }
+        } finally {
+            deflater.end();
+        }
+
+        DataOutputStream out = new DataOutputStream(os);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        SaveHeader.of(image).write(out);
+        byte[] thumbnail = SaveHeader.thumbnail(image);
+        out.write(thumbnail);
+        out.writeInt(image.width);
+        out.writeInt(image.height);
+        out.writeInt(CHUNK_BITS);
+        out.writeInt(sections.size());
+        long offset = SaveHeader.OFFSET + SaveHeader.SIZE + thumbnail.length + INDEX_HEADER_SIZE
+                + (long) ENTRY_SIZE * sections.size();
+        for(int i = 0; i < sections.size(); i++){
+            int[] entry = entries.get(i);
+            out.writeInt(entry[0]);
+            out.writeInt(entry[1]);
+            out.writeLong(offset);
+            out.writeInt(sections.get(i).length);
+            out.writeInt(entry[2]);
+            offset += sections.get(i).length;
+        }
+        for(byte[] section: sections){
+            out.write(section);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the rest of a compressed city file whose magic number was already read, one section after the other.
+     *
+     * @param in the stream positioned after the magic number
+     * @return the image
+     * @throws IOException if reading fails or the file is corrupt
+     */
+    static SaveImage readBody(DataInputStream in) throws IOException {
+        Index index = readIndex(in);
+        long position = index.dataStart;
+        SaveImage image = null;
+        for(int i = 0; i < index.size(); i++){
+            if(index.offset[i] != position) throw new IOException("Corrupt city file: sections out of order");
+            byte[] section = new byte[index.length[i]];
+            in.readFully(section);
+            position += section.length;
+            byte[] raw = inflate(section, index.rawLength[i]);
+            if(i == 0){
+                if(index.chunkX[0] != -1) throw new IOException("Corrupt city file: no global section");
+                image = decodeGlobal(raw);
+            }
+            else{
+                place(image, decodeChunk(raw, index.chunkX[i], index.chunkY[i]));
+            }
+        }
+        if(image == null) throw new IOException("Corrupt city file: no global section");
+        return image;
+    }
+
+    /**
+     * Copies the columns of a chunk into their positions in the columns of the whole image.
+     *
+     * @param image the image with the global section read
+     * @param chunk the chunk
+     * @throws IOException if the chunk refers to positions the image does not have
+     */
+    static void place(SaveImage image, SaveChunk chunk) throws IOException {
+        try {
+            for(int i = 0; i < chunk.buildingIndex.length; i++){
+                int k = chunk.buildingIndex[i];
+                image.buildingType[k] = chunk.buildingType[i];
+                image.buildingX[k] = chunk.buildingX[i];
+                image.buildingY[k] = chunk.buildingY[i];
+                image.buildingFee[k] = chunk.buildingFee[i];
+                image.buildingAge[k] = chunk.buildingAge[i];
+                image.buildingFlags[k] = chunk.buildingFlags[i];
+            }
+            for(int i = 0; i < chunk.zoneIndex.length; i++){
+                int k = chunk.zoneIndex[i];
+                image.zoneType[k] = chunk.zoneType[i];
+                image.zoneX[k] = chunk.zoneX[i];
+                image.zoneY[k] = chunk.zoneY[i];
+                image.zoneSaturation[k] = chunk.zoneSaturation[i];
+                image.zoneSatisfaction[k] = chunk.zoneSatisfaction[i];
+                image.zoneFlags[k] = chunk.zoneFlags[i];
+                image.zonePeopleCount[k] = chunk.zonePeopleCount[i];
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new IOException("Corrupt city file: entity out of range", e);
+        }
+    }
+
+    static Index readIndex(DataInputStream in) throws IOException {
+        int version = in.readUnsignedShort();
+        if(version != 1 && version != VERSION) throw new IOException("Unsupported compressed city file version: " + version);
+        Index index = new Index();
+        long start = SaveHeader.OFFSET;
+        if(version >= 2){
+            SaveHeader header = SaveHeader.read(in);
+            in.readFully(new byte[header.thumbnailWidth * header.thumbnailHeight]);
+            start += SaveHeader.SIZE + header.thumbnailWidth * header.thumbnailHeight;
+        }
+        index.width = in.readInt();
+        index.height = in.readInt();
+        if(in.readInt() != CHUNK_BITS) throw new IOException("Unsupported chunk size");
+        int count = CityFormat.readCount(in);
+        index.chunkX = new int[count];
+        index.chunkY = new int[count];
+        index.offset = new long[count];
+        index.length = new int[count];
+        index.rawLength = new int[count];
+        for(int i = 0; i < count; i++){
+            index.chunkX[i] = in.readInt();
+            index.chunkY[i] = in.readInt();
+            index.offset[i] = in.readLong();
+            index.length[i] = CityFormat.readCount(in);
+            index.rawLength[i] = CityFormat.readCount(in);
+        }
+        index.dataStart = start + INDEX_HEADER_SIZE + (long) ENTRY_SIZE * count;
+        return index;
+    }
+
+    static byte[] inflate(byte[] section, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(section);
+            byte[] raw = new byte[rawLength];
+            int n = 0;
+            while(n < rawLength && !inflater.finished()){
+                int read = inflater.inflate(raw, n, rawLength - n);
+                if(read == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                n += read;
+            }
+            if(n != rawLength || !inflater.finished()) throw new IOException("Corrupt city file: bad section length");
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt city file", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    static SaveImage decodeGlobal(byte[] raw) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+        SaveImage image = new SaveImage();
+        CityFormat.readScalars(in, image);
+        int buildings = CityFormat.readCount(in);
+        image.buildingType = new byte[buildings];
+        image.buildingX = new int[buildings];
+        image.buildingY = new int[buildings];
+        image.buildingFee = new int[buildings];
+        image.buildingAge = new int[buildings];
+        image.buildingFlags = new byte[buildings];
+        int zones = CityFormat.readCount(in);
+        image.zoneType = new byte[zones];
+        image.zoneX = new int[zones];
+        image.zoneY = new int[zones];
+        image.zoneSaturation = new int[zones];
+        image.zoneSatisfaction = new int[zones];
+        image.zoneFlags = new byte[zones];
+        image.zonePeopleCount = new int[zones];
+        int citizens = CityFormat.readCount(in);
+        image.citizenResidence = CityFormat.readInts(in, citizens);
+        image.citizenWorkplace = CityFormat.readInts(in, citizens);
+        image.citizenSatisfaction = CityFormat.readBytes(in, citizens);
+        image.people = CityFormat.readInts(in, CityFormat.readCount(in));
+        return image;
+    }
+
+    static SaveChunk decodeChunk(byte[] raw, int chunkX, int chunkY) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(raw));
+        SaveChunk chunk = new SaveChunk();
+        chunk.chunkX = chunkX;
+        chunk.chunkY = chunkY;
+        int buildings = CityFormat.readCount(in);
+        chunk.buildingIndex = CityFormat.readInts(in, buildings);
+        chunk.buildingType = CityFormat.readBytes(in, buildings);
+        chunk.buildingX = CityFormat.readInts(in, buildings);
+        chunk.buildingY = CityFormat.readInts(in, buildings);
+        chunk.buildingFee = CityFormat.readInts(in, buildings);
+        chunk.buildingAge = CityFormat.readInts(in, buildings);
+        chunk.buildingFlags = CityFormat.readBytes(in, buildings);
+        int zones = CityFormat.readCount(in);
+        chunk.zoneIndex = CityFormat.readInts(in, zones);
+        chunk.zoneType = CityFormat.readBytes(in, zones);
+        chunk.zoneX = CityFormat.readInts(in, zones);
+        chunk.zoneY = CityFormat.readInts(in, zones);
+        chunk.zoneSaturation = CityFormat.readInts(in, zones);
+        chunk.zoneSatisfaction = CityFormat.readInts(in, zones);
+        chunk.zoneFlags = CityFormat.readBytes(in, zones);
+        chunk.zonePeopleCount = CityFormat.readInts(in, zones);
+        return chunk;
+    }
+
+    private static byte[] encodeGlobal(SaveImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        CityFormat.writeScalars(out, image);
+        out.writeInt(image.buildingType.length);
+        out.writeInt(image.zoneType.length);
+        out.writeInt(image.citizenResidence.length);
+        CityFormat.writeInts(out, image.citizenResidence);
+        CityFormat.writeInts(out, image.citizenWorkplace);
+        out.write(image.citizenSatisfaction);
+        out.writeInt(image.people.length);
+        CityFormat.writeInts(out, image.people);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeChunk(SaveImage image, int[] buildingIndex, int[] zoneIndex) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(buildingIndex.length);
+        CityFormat.writeInts(out, buildingIndex);
+        for(int i: buildingIndex) out.writeByte(image.buildingType[i]);
+        for(int i: buildingIndex) out.writeInt(image.buildingX[i]);
+        for(int i: buildingIndex) out.writeInt(image.buildingY[i]);
+        for(int i: buildingIndex) out.writeInt(image.buildingFee[i]);
+        for(int i: buildingIndex) out.writeInt(image.buildingAge[i]);
+        for(int i: buildingIndex) out.writeByte(image.buildingFlags[i]);
+        out.writeInt(zoneIndex.length);
+        CityFormat.writeInts(out, zoneIndex);
+        for(int i: zoneIndex) out.writeByte(image.zoneType[i]);
+        for(int i: zoneIndex) out.writeInt(image.zoneX[i]);
+        for(int i: zoneIndex) out.writeInt(image.zoneY[i]);
+        for(int i: zoneIndex) out.writeInt(image.zoneSaturation[i]);
+        for(int i: zoneIndex) out.writeInt(image.zoneSatisfaction[i]);
+        for(int i: zoneIndex) out.writeByte(image.zoneFlags[i]);
+        for(int i: zoneIndex) out.writeInt(image.zonePeopleCount[i]);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static byte[] deflate(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+        byte[] buffer = new byte[8192];
+        while(!deflater.finished()){
+            int n = deflater.deflate(buffer);
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Counting sort of the entities by chunk; start receives the first position of every chunk in the order
+    static int[] bucket(int[] x, int[] y, int chunksX, int chunksY, int[] start) {
+        int[] chunk = new int[x.length];
+        for(int i = 0; i < x.length; i++){
+            chunk[i] = chunkOf(x[i], y[i], chunksX, chunksY);
+            start[chunk[i] + 1]++;
+        }
+        for(int c = 1; c < start.length; c++){
+            start[c] += start[c - 1];
+        }
+        int[] next = Arrays.copyOf(start, start.length);
+        int[] order = new int[x.length];
+        for(int i = 0; i < x.length; i++){
+            order[next[chunk[i]]++] = i;
+        }
+        return order;
+    }
+
+    static int chunkOf(int x, int y, int chunksX, int chunksY) {
+        int cx = Math.min(Math.max(x >> CHUNK_BITS, 0), chunksX - 1);
+        int cy = Math.min(Math.max(y >> CHUNK_BITS, 0), chunksY - 1);
+        return cy * chunksX + cx;
+    }
+
+    /**
+     * The index at the head of a compressed city file.
+     */
+    static final class Index {
+        int width;
+        int height;
+        int[] chunkX;
+        int[] chunkY;
+        long[] offset;
+        int[] length;
+        int[] rawLength;
+        long dataStart;
+
+        int size() {
+            return chunkX.length;
+        }
+    }
+}
@@ -0,0 +1,351 @@
+package settings.persistence;
+
+import settings.General;
+import types.Building;
+import types.Buildings.Fire;
+import types.Buildings.Forest;
+import types.Buildings.Police;
+import types.Buildings.Road;
+import types.Buildings.Stadium;
+import types.Zone;
+import types.Zones.Industrial;
+import types.Zones.Residential;
+import types.Zones.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The CityFormat class reads and writes the binary city format.
+ * A file starts with a magic number and a format version, followed by the SaveHeader and the thumbnail it
+ * points to, then the scalar state of the city and one column after the other for the buildings, the zones,
+ * the citizens and the zone members. Files of version 1 have no SaveHeader and are still read.
+ * Entity classes are stored as one-byte type tags rather than Java class descriptors, so renaming a class
+ * does not break old saves, and no image data is ever written.
+ */
+public final class CityFormat {
+    /** The first four bytes of every city file: "SDNC". */
+    public static final int MAGIC = 0x53444E43;
+    /** The version of the format written by this class. */
+    public static final int VERSION = 2;
+
+    public static final byte ROAD = 1;
+    public static final byte POLICE = 2;
+    public static final byte STADIUM = 3;
+    public static final byte FOREST = 4;
+    public static final byte FIRE = 5;
+
+    public static final byte RESIDENTIAL = 1;
+    public static final byte SERVICE = 2;
+    public static final byte INDUSTRIAL = 3;
+
+    public static final byte AVAILABLE = 1;
+    /** Building flag of a road that has become part of a commute and cannot be demolished. */
+    public static final byte INDESTRUCTIBLE = 2;
+    /** Zone flag of a zone that shows an image rather than its colour. */
+    public static final byte HAS_IMAGE = 2;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private CityFormat() {
+    }
+
+    /**
+     * Returns the type tag of a building.
+     *
+     * @param building the building
+     * @return the tag
+     */
+    public static byte tagOf(Building building) {
+        if(building instanceof Road) return ROAD;
+        if(building instanceof Police) return POLICE;
+        if(building instanceof Stadium) return STADIUM;
+        if(building instanceof Forest) return FOREST;
+        if(building instanceof Fire) return FIRE;
+        throw new IllegalArgumentException("Unknown building type: " + building.getClass().getName());
+    }
+
+    /**
+     * Returns the type tag of a zone.
+     *
+     * @param zone the zone
+     * @return the tag
+     */
+    public static byte tagOf(Zone zone) {
+        if(zone instanceof Residential) return RESIDENTIAL;
+        if(zone instanceof Service) return SERVICE;
+        if(zone instanceof Industrial) return INDUSTRIAL;
+        throw new IllegalArgumentException("Unknown zone type: " + zone.getClass().getName());
+    }
+
+    /**
+     * Creates a building of the given type, with the sprite of its type.
+     *
+     * @param tag the type tag
+     * @param x   the x-coordinate
+     * @param y   the y-coordinate
+     * @return the new building
+     * @throws IOException if the tag is unknown
+     */
+    public static Building newBuilding(byte tag, int x, int y) throws IOException {
+        switch(tag){
+            case ROAD: return new Road(x, y);
+            case POLICE: return new Police(x, y);
+            case STADIUM: return new Stadium(x, y);
+            case FOREST: return new Forest(x, y);
+            case FIRE: return new Fire(x, y);
+            default: throw new IOException("Unknown building tag: " + tag);
+        }
+    }
+
+    /**
+     * Creates a zone of the given type.
+     *
+     * @param tag the type tag
+     * @param x   the x-coordinate
+     * @param y   the y-coordinate
+     * @return the new zone
+     * @throws IOException if the tag is unknown
+     */
+    public static Zone newZone(byte tag, int x, int y) throws IOException {
+        switch(tag){
+            case RESIDENTIAL: return new Residential(x, y);
+            case SERVICE: return new Service(x, y);
+            case INDUSTRIAL: return new Industrial(x, y);
+            default: throw new IOException("Unknown zone tag: " + tag);
+        }
+    }
+
+    /**
+     * Checks if the given file starts with the magic number of the format.
+     *
+     * @param file the file
+     * @return true if the file is a city file, false if it is something else, e.g. an older serialized save
+     */
+    public static boolean isCityFile(File file) {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            int magic = in.readInt();
+            return magic == MAGIC || magic == ChunkedCityFormat.MAGIC || magic == CityLog.MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Writes a save image.
+     *
+     * @param image the image to write
+     * @param os    the stream to write to; it is flushed but not closed
+     * @throws IOException if writing fails
+     */
+    public static void write(SaveImage image, OutputStream os) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, BUFFER_SIZE));
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+        SaveHeader.of(image).write(out);
+        out.write(SaveHeader.thumbnail(image));
+        writeScalars(out, image);
+
+        out.writeInt(image.buildingType.length);
+        out.write(image.buildingType);
+        writeInts(out, image.buildingX);
+        writeInts(out, image.buildingY);
+        writeInts(out, image.buildingFee);
+        writeInts(out, image.buildingAge);
+        out.write(image.buildingFlags);
+
+        out.writeInt(image.zoneType.length);
+        out.write(image.zoneType);
+        writeInts(out, image.zoneX);
+        writeInts(out, image.zoneY);
+        writeInts(out, image.zoneSaturation);
+        writeInts(out, image.zoneSatisfaction);
+        out.write(image.zoneFlags);
+        writeInts(out, image.zonePeopleCount);
+
+        out.writeInt(image.citizenResidence.length);
+        writeInts(out, image.citizenResidence);
+        writeInts(out, image.citizenWorkplace);
+        out.write(image.citizenSatisfaction);
+
+        out.writeInt(image.people.length);
+        writeInts(out, image.people);
+        out.flush();
+    }
+
+    /**
+     * Encodes a save image, in the compressed container of ChunkedCityFormat when General.compressSaves is set.
+     *
+     * @param image the image to encode
+     * @return the bytes of the city file
+     */
+    public static byte[] toBytes(SaveImage image) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            if(General.compressSaves) ChunkedCityFormat.write(image, bytes);
+            else write(image, bytes);
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not fail
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replaces a file with the given bytes.
+     * The bytes are written to a temporary file in the same folder, forced to the device and moved over the
+     * target, so a crash leaves either the old file or the new one, never a part of both.
+     *
+     * @param data the bytes to write
+     * @param file the file to replace
+     * @throws IOException if writing fails
+     */
+    public static void writeFile(byte[] data, File file) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Files.createDirectories(target.getParent());
+        Path temp = Files.createTempFile(target.getParent(), file.getName(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                ByteBuffer src = ByteBuffer.wrap(data);
+                while(src.hasRemaining()){
+                    out.write(src);
+                }
+                out.force(true);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Reads a save image, from a plain city file, the compressed container of ChunkedCityFormat or a CityLog.
+     * A compressed file is inflated section by section while it streams in.
+     *
+     * @param is the stream to read from; it is not closed
+     * @return the image
+     * @throws IOException if reading fails, the data is not a city file or its version is not supported
+     */
+    public static SaveImage read(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is, BUFFER_SIZE));
+        int magic = in.readInt();
+        if(magic == ChunkedCityFormat.MAGIC) return ChunkedCityFormat.readBody(in);
+        if(magic == CityLog.MAGIC) return CityLog.readBody(in);
+        if(magic != MAGIC) throw new IOException("Not a city file");
+        int version = in.readUnsignedShort();
+        if(version != 1 && version != VERSION) throw new IOException("Unsupported city file version: " + version);
+        if(version >= 2){
+            // Only the list of saves needs the header, the city is read from the columns
+            SaveHeader header = SaveHeader.read(in);
+            in.readFully(new byte[header.thumbnailWidth * header.thumbnailHeight]);
+        }
+        SaveImage image = new SaveImage();
+        readScalars(in, image);
+
+        int buildings = readCount(in);
+        image.buildingType = readBytes(in, buildings);
+        image.buildingX = readInts(in, buildings);
+        image.buildingY = readInts(in, buildings);
+        image.buildingFee = readInts(in, buildings);
+        image.buildingAge = readInts(in, buildings);
+        image.buildingFlags = readBytes(in, buildings);
+
+        int zones = readCount(in);
+        image.zoneType = readBytes(in, zones);
+        image.zoneX = readInts(in, zones);
+        image.zoneY = readInts(in, zones);
+        image.zoneSaturation = readInts(in, zones);
+        image.zoneSatisfaction = readInts(in, zones);
+        image.zoneFlags = readBytes(in, zones);
+        image.zonePeopleCount = readInts(in, zones);
+
+        int citizens = readCount(in);
+        image.citizenResidence = readInts(in, citizens);
+        image.citizenWorkplace = readInts(in, citizens);
+        image.citizenSatisfaction = readBytes(in, citizens);
+
+        image.people = readInts(in, readCount(in));
+        return image;
+    }
+
+    static void writeScalars(DataOutputStream out, SaveImage image) throws IOException {
+        out.writeUTF(image.playerName);
+        out.writeUTF(image.cityName);
+        out.writeInt(image.width);
+        out.writeInt(image.height);
+        out.writeInt(image.time);
+        out.writeInt(image.speed);
+        out.writeInt(image.money);
+        out.writeInt(image.satisfaction);
+        out.writeInt(image.loanPeriod);
+        out.writeInt(image.population);
+        out.writeInt(image.countDays);
+        out.writeInt(image.lastAnnualFee);
+        out.writeBoolean(image.paused);
+        out.writeLong(image.seed);
+        out.writeLong(image.randomState);
+    }
+
+    static void readScalars(DataInputStream in, SaveImage image) throws IOException {
+        image.playerName = in.readUTF();
+        image.cityName = in.readUTF();
+        image.width = in.readInt();
+        image.height = in.readInt();
+        image.time = in.readInt();
+        image.speed = in.readInt();
+        image.money = in.readInt();
+        image.satisfaction = in.readInt();
+        image.loanPeriod = in.readInt();
+        image.population = in.readInt();
+        image.countDays = in.readInt();
+        image.lastAnnualFee = in.readInt();
+        image.paused = in.readBoolean();
+        image.seed = in.readLong();
+        image.randomState = in.readLong();
+    }
+
+    static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for(int value: values){
+            out.writeInt(value);
+        }
+    }
+
+    static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if(count < 0) throw new IOException("Corrupt city file: negative count");
+        return count;
+    }
+
+    static byte[] readBytes(DataInputStream in, int count) throws IOException {
+        byte[] values = new byte[count];
+        in.readFully(values);
+        return values;
+    }
+
+    static int[] readInts(DataInputStream in, int count) throws IOException {
+        int[] values = new int[count];
+        for(int i = 0; i < count; i++){
+            values[i] = in.readInt();
+        }
+        return values;
+    }
+}
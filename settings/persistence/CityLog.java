@@ -0,0 +1,615 @@
+package settings.persistence;
+
+import settings.Storage;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * The CityLog class saves a city incrementally into a log-structured file.
+ * The city is cut into the sections of the compressed saves: the scalar state, the order of the buildings, the
+ * order of the zones, the citizens with the members of every zone, and one section per map chunk with the
+ * buildings and zones whose origin lies in it. The first save writes every section; each later save appends
+ * only the sections a ChangeTracker marked since, followed by a commit record, so a save costs time in
+ * proportion to what changed. A chunk section lists its entities in the order of the city, and the order
+ * sections tell the chunk of every building and zone, so adding or removing an entity never touches the
+ * sections of other chunks.
+ * The layout is the magic number, the version, the SaveHeader and its thumbnail, which are rewritten in place
+ * after every save, and then the records. A record is the kind, the chunk (-1 for the tables), the sequence
+ * number of its save, the compressed and the raw length, and the deflated section. A commit record holds the
+ * sequence number, the number of records of the save and a checksum chained over all saves, which also names
+ * the content of the file for a Journal. Reading keeps the latest committed version of every section; a save
+ * without its commit, e.g. after a crash, is ignored and dropped by the next one. Once the replaced sections
+ * take more room than the live ones, the next save writes the whole city into a new file instead.
+ */
+public class CityLog {
+    /** The first four bytes of every city log: "SDNL". */
+    public static final int MAGIC = 0x53444E4C;
+    /** The version of the format written by this class. */
+    public static final int VERSION = 1;
+
+    static final byte SCALARS = 1;
+    static final byte BUILDINGS = 2;
+    static final byte ZONES = 3;
+    static final byte CITIZENS = 4;
+    static final byte CHUNK = 5;
+    static final byte COMMIT = 6;
+    // The kind, the chunk, the sequence number, the compressed and the raw length
+    static final int RECORD_HEADER_SIZE = 21;
+    // The size under which a log is never rewritten
+    private static final int MIN_REWRITE_SIZE = 1 << 16;
+
+    private final File file;
+    // The state of the file after the last save of this object
+    private boolean synced = false;
+    private long sequence = 0;
+    private long checksum = 0;
+    private long end = 0;
+    private int width;
+    private int height;
+    private HashMap<Integer, Integer> live = new HashMap<Integer, Integer>();
+    private long liveBytes = 0;
+
+    /**
+     * A save encoded by prepare, waiting to be written.
+     */
+    public static final class Update {
+        private final long sequence;
+        private final boolean full;
+        private final byte[] data;
+        private final byte[] header;
+        private final long checksum;
+        private final HashMap<Integer, Integer> live;
+        private final long liveBytes;
+        private final int width;
+        private final int height;
+
+        private Update(long sequence, boolean full, byte[] data, byte[] header, long checksum,
+                       HashMap<Integer, Integer> live, long liveBytes, int width, int height) {
+            this.sequence = sequence;
+            this.full = full;
+            this.data = data;
+            this.header = header;
+            this.checksum = checksum;
+            this.live = live;
+            this.liveBytes = liveBytes;
+            this.width = width;
+            this.height = height;
+        }
+
+        /**
+         * Returns the checksum naming the content of the file once the save is written.
+         *
+         * @return the checksum
+         */
+        public long getChecksum() {
+            return checksum;
+        }
+
+        /**
+         * Checks if the save rewrites the whole file.
+         *
+         * @return true for a full save, false for a save appending the changed sections
+         */
+        public boolean isFull() {
+            return full;
+        }
+
+        /**
+         * Returns the number of bytes the save writes, the header aside.
+         *
+         * @return the size of the records
+         */
+        public int getSize() {
+            return data.length;
+        }
+    }
+
+    /**
+     * Constructs a log writing the given file. Its first save writes the whole city.
+     *
+     * @param file the save file
+     */
+    public CityLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Returns the file the log writes.
+     *
+     * @return the save file
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Saves a city: only the copy of the city and the taking of its changes run between two ticks, the
+     * encoding and the writing run on the calling thread, which must not be running a command of the
+     * simulation engine.
+     *
+     * @param storage the city
+     * @return the checksum naming the content of the file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized long save(Storage storage) throws IOException {
+        ChangeTracker[] changes = new ChangeTracker[1];
+        SaveImage image = storage.getEngine().execute(() -> {
+            changes[0] = storage.takeChanges();
+            return storage.capture();
+        });
+        Update update = prepare(image, changes[0]);
+        write(update);
+        return update.getChecksum();
+    }
+
+    /**
+     * Encodes the sections of an image that changed since the last save of this log.
+     * The whole city is encoded when the log has not written the file yet, when the last save failed, or when
+     * the file holds more replaced sections than live ones.
+     *
+     * @param image   the image of the city
+     * @param changes the changes taken from the city together with the image
+     * @return the save, to be written with write
+     * @throws IOException if encoding fails
+     */
+    public synchronized Update prepare(SaveImage image, ChangeTracker changes) throws IOException {
+        try {
+            boolean full = !synced || changes.isAll() || image.width != width || image.height != height;
+            Update update = encode(image, changes, full);
+            if(!full){
+                long garbage = end + update.data.length - headerSize(image) - update.liveBytes;
+                if(garbage > update.liveBytes && garbage > MIN_REWRITE_SIZE) update = encode(image, changes, true);
+            }
+            return update;
+        } catch (IOException | RuntimeException e) {
+            synced = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a save encoded by prepare. A full save replaces the file through a temporary file; any other
+     * save drops what a crash may have left after the last commit, appends its records, forces them to the
+     * disk and then rewrites the header.
+     *
+     * @param update the save
+     * @throws IOException if the file cannot be written, or if saves are written out of order
+     */
+    public synchronized void write(Update update) throws IOException {
+        try {
+            if(update.sequence != sequence + 1 || (!update.full && !synced)){
+                throw new IOException("City log saves written out of order");
+            }
+            if(update.full){
+                CityFormat.writeFile(update.data, file);
+                end = update.data.length;
+            }
+            else{
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    // The file must still end, or continue, with the last save of this log
+                    ByteBuffer last = ByteBuffer.allocate(8);
+                    if(channel.size() < end || channel.read(last, end - 8) != 8 || last.getLong(0) != checksum){
+                        throw new IOException("City log changed by someone else: " + file);
+                    }
+                    channel.truncate(end);
+                    writeFully(channel, update.data, end);
+                    channel.force(false);
+                    writeFully(channel, update.header, SaveHeader.OFFSET);
+                    channel.force(false);
+                }
+                end += update.data.length;
+            }
+            sequence = update.sequence;
+            checksum = update.checksum;
+            live = update.live;
+            liveBytes = update.liveBytes;
+            width = update.width;
+            height = update.height;
+            synced = true;
+        } catch (IOException | RuntimeException e) {
+            synced = false;
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the size of the file after the last save of this log.
+     *
+     * @return the size in bytes, or 0 if the log has not written the file yet
+     */
+    public synchronized long getSize() {
+        return synced ? end : 0;
+    }
+
+    /**
+     * Returns the checksum naming the content of a city log, as given by its last complete save.
+     *
+     * @param data the content of the file
+     * @return the checksum
+     * @throws IOException if the data is not a city log
+     */
+    public static long checksum(byte[] data) throws IOException {
+        return checksum(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Returns the checksum naming the content of a city log read from a stream, without keeping the whole file.
+     *
+     * @param is the stream holding the file
+     * @return the checksum
+     * @throws IOException if reading fails or the stream does not hold a city log
+     */
+    public static long checksum(InputStream is) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(is));
+        if(in.readInt() != MAGIC) throw new IOException("Not a city log");
+        return scan(in).checksum;
+    }
+
+    /**
+     * Checks if data starts like a city log.
+     *
+     * @param data the content of a file
+     * @return true if the data is a city log, false otherwise
+     */
+    public static boolean isCityLog(byte[] data) {
+        return data.length >= 4 && ByteBuffer.wrap(data).getInt() == MAGIC;
+    }
+
+    /**
+     * Reads the rest of a city log whose magic number was already read.
+     *
+     * @param in the stream positioned after the magic number
+     * @return the image, as of the last complete save
+     * @throws IOException if reading fails or the file is corrupt
+     */
+    static SaveImage readBody(DataInputStream in) throws IOException {
+        HashMap<Integer, Stored> sections = scan(in).sections;
+        Stored scalars = sections.get(-(int) SCALARS);
+        Stored buildings = sections.get(-(int) BUILDINGS);
+        Stored zones = sections.get(-(int) ZONES);
+        Stored citizens = sections.get(-(int) CITIZENS);
+        if(scalars == null || buildings == null || zones == null || citizens == null){
+            throw new IOException("Corrupt city log: no complete save");
+        }
+        SaveImage image = new SaveImage();
+        CityFormat.readScalars(scalars.open(), image);
+        int chunksX = chunksOf(image.width);
+        int chunks = chunksX * chunksOf(image.height);
+
+        DataInputStream table = buildings.open();
+        int[] buildingChunk = CityFormat.readInts(table, CityFormat.readCount(table));
+        table = zones.open();
+        int[] zoneChunk = CityFormat.readInts(table, CityFormat.readCount(table));
+        int n = buildingChunk.length;
+        image.buildingType = new byte[n];
+        image.buildingX = new int[n];
+        image.buildingY = new int[n];
+        image.buildingFee = new int[n];
+        image.buildingAge = new int[n];
+        image.buildingFlags = new byte[n];
+        int m = zoneChunk.length;
+        image.zoneType = new byte[m];
+        image.zoneX = new int[m];
+        image.zoneY = new int[m];
+        image.zoneSaturation = new int[m];
+        image.zoneSatisfaction = new int[m];
+        image.zoneFlags = new byte[m];
+        image.zonePeopleCount = new int[m];
+
+        table = citizens.open();
+        int count = CityFormat.readCount(table);
+        image.citizenResidence = CityFormat.readInts(table, count);
+        image.citizenWorkplace = CityFormat.readInts(table, count);
+        image.citizenSatisfaction = CityFormat.readBytes(table, count);
+        image.people = CityFormat.readInts(table, CityFormat.readCount(table));
+
+        int[] buildingStart = new int[chunks + 1];
+        int[] buildingOrder = order(buildingChunk, chunks, buildingStart);
+        int[] zoneStart = new int[chunks + 1];
+        int[] zoneOrder = order(zoneChunk, chunks, zoneStart);
+        for(int chunk = 0; chunk < chunks; chunk++){
+            Stored section = sections.get(chunk);
+            int buildingCount = buildingStart[chunk + 1] - buildingStart[chunk];
+            int zoneCount = zoneStart[chunk + 1] - zoneStart[chunk];
+            if(section == null){
+                if(buildingCount != 0 || zoneCount != 0) throw new IOException("Corrupt city log: missing chunk " + chunk);
+                continue;
+            }
+            DataInputStream c = section.open();
+            if(c.readInt() != buildingCount) throw new IOException("Corrupt city log: chunk " + chunk + " out of date");
+            int from = buildingStart[chunk];
+            for(int i = 0; i < buildingCount; i++) image.buildingType[buildingOrder[from + i]] = c.readByte();
+            for(int i = 0; i < buildingCount; i++) image.buildingX[buildingOrder[from + i]] = c.readInt();
+            for(int i = 0; i < buildingCount; i++) image.buildingY[buildingOrder[from + i]] = c.readInt();
+            for(int i = 0; i < buildingCount; i++) image.buildingFee[buildingOrder[from + i]] = c.readInt();
+            for(int i = 0; i < buildingCount; i++) image.buildingAge[buildingOrder[from + i]] = c.readInt();
+            for(int i = 0; i < buildingCount; i++) image.buildingFlags[buildingOrder[from + i]] = c.readByte();
+            if(c.readInt() != zoneCount) throw new IOException("Corrupt city log: chunk " + chunk + " out of date");
+            from = zoneStart[chunk];
+            for(int i = 0; i < zoneCount; i++) image.zoneType[zoneOrder[from + i]] = c.readByte();
+            for(int i = 0; i < zoneCount; i++) image.zoneX[zoneOrder[from + i]] = c.readInt();
+            for(int i = 0; i < zoneCount; i++) image.zoneY[zoneOrder[from + i]] = c.readInt();
+            for(int i = 0; i < zoneCount; i++) image.zoneSaturation[zoneOrder[from + i]] = c.readInt();
+            for(int i = 0; i < zoneCount; i++) image.zoneSatisfaction[zoneOrder[from + i]] = c.readInt();
+            for(int i = 0; i < zoneCount; i++) image.zoneFlags[zoneOrder[from + i]] = c.readByte();
+            for(int i = 0; i < zoneCount; i++) image.zonePeopleCount[zoneOrder[from + i]] = c.readInt();
+        }
+        return image;
+    }
+
+    private Update encode(SaveImage image, ChangeTracker changes, boolean full) throws IOException {
+        int chunksX = chunksOf(image.width);
+        int chunksY = chunksOf(image.height);
+        int chunks = chunksX * chunksY;
+        int[] buildingStart = new int[chunks + 1];
+        int[] buildingOrder = ChunkedCityFormat.bucket(image.buildingX, image.buildingY, chunksX, chunksY, buildingStart);
+        int[] zoneStart = new int[chunks + 1];
+        int[] zoneOrder = ChunkedCityFormat.bucket(image.zoneX, image.zoneY, chunksX, chunksY, zoneStart);
+
+        long next = sequence + 1;
+        HashMap<Integer, Integer> newLive = full ? new HashMap<Integer, Integer>() : new HashMap<Integer, Integer>(live);
+        long[] newLiveBytes = {full ? 0 : liveBytes};
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        byte[] header = header(image);
+        if(full){
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.write(header);
+        }
+        int start = bytes.size();
+        int[] records = {0};
+        Deflater deflater = new Deflater();
+        try {
+            Section section = (kind, chunk, raw) -> {
+                byte[] data = ChunkedCityFormat.deflate(deflater, raw);
+                out.writeByte(kind);
+                out.writeInt(chunk);
+                out.writeLong(next);
+                out.writeInt(data.length);
+                out.writeInt(raw.length);
+                out.write(data);
+                int key = kind == CHUNK ? chunk : -kind;
+                Integer old = newLive.put(key, RECORD_HEADER_SIZE + data.length);
+                newLiveBytes[0] += RECORD_HEADER_SIZE + data.length - (old == null ? 0 : old);
+                records[0]++;
+            };
+            section.write(SCALARS, -1, encodeScalars(image));
+            if(full || changes.isTableChanged(ChangeTracker.BUILDINGS)){
+                section.write(BUILDINGS, -1, encodeOrder(image.buildingX, image.buildingY, chunksX, chunksY));
+            }
+            if(full || changes.isTableChanged(ChangeTracker.ZONES)){
+                section.write(ZONES, -1, encodeOrder(image.zoneX, image.zoneY, chunksX, chunksY));
+            }
+            if(full || changes.isTableChanged(ChangeTracker.CITIZENS)){
+                section.write(CITIZENS, -1, encodeCitizens(image));
+            }
+            int chunk = full ? 0 : changes.nextChangedChunk(0);
+            while(chunk >= 0 && chunk < chunks){
+                int buildingCount = buildingStart[chunk + 1] - buildingStart[chunk];
+                int zoneCount = zoneStart[chunk + 1] - zoneStart[chunk];
+                // An empty chunk is written only to replace what it held before
+                if(buildingCount != 0 || zoneCount != 0 || newLive.containsKey(chunk)){
+                    section.write(CHUNK, chunk, encodeChunk(image, buildingOrder, buildingStart[chunk], buildingCount,
+                            zoneOrder, zoneStart[chunk], zoneCount));
+                }
+                chunk = full ? chunk + 1 : changes.nextChangedChunk(chunk + 1);
+            }
+        } finally {
+            deflater.end();
+        }
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(longBytes(full ? 0 : checksum));
+        crc.update(bytes.toByteArray(), start, bytes.size() - start);
+        long newChecksum = crc.getValue();
+        out.writeByte(COMMIT);
+        out.writeLong(next);
+        out.writeInt(records[0]);
+        out.writeLong(newChecksum);
+        out.flush();
+        return new Update(next, full, bytes.toByteArray(), header, newChecksum, newLive, newLiveBytes[0],
+                image.width, image.height);
+    }
+
+    // Encodes one section and appends it to the save
+    private interface Section {
+        void write(byte kind, int chunk, byte[] raw) throws IOException;
+    }
+
+    // A deflated section read from a city log
+    private static final class Stored {
+        final byte[] data;
+        final int rawLength;
+
+        Stored(byte[] data, int rawLength) {
+            this.data = data;
+            this.rawLength = rawLength;
+        }
+
+        DataInputStream open() throws IOException {
+            return new DataInputStream(new ByteArrayInputStream(ChunkedCityFormat.inflate(data, rawLength)));
+        }
+    }
+
+    // The last complete save of a city log
+    private static final class Scan {
+        final HashMap<Integer, Stored> sections = new HashMap<Integer, Stored>();
+        long checksum = 0;
+    }
+
+    // Reads the records of a city log, keeping the latest committed version of every section
+    private static Scan scan(DataInputStream in) throws IOException {
+        int version = in.readUnsignedShort();
+        if(version != VERSION) throw new IOException("Unsupported city log version: " + version);
+        SaveHeader header = SaveHeader.read(in);
+        in.readFully(new byte[header.thumbnailWidth * header.thumbnailHeight]);
+
+        Scan scan = new Scan();
+        HashMap<Integer, Stored> pending = new HashMap<Integer, Stored>();
+        int records = 0;
+        long pendingSequence = -1;
+        CRC32 crc = new CRC32();
+        crc.update(longBytes(0));
+        byte[] recordHeader = new byte[RECORD_HEADER_SIZE];
+        try {
+            int kind;
+            while((kind = in.read()) != -1){
+                if(kind == COMMIT){
+                    long sequence = in.readLong();
+                    int count = in.readInt();
+                    long sum = in.readLong();
+                    // A save counts only as a whole
+                    if(sequence != pendingSequence || count != records || sum != crc.getValue()) break;
+                    scan.sections.putAll(pending);
+                    scan.checksum = sum;
+                    pending.clear();
+                    records = 0;
+                    pendingSequence = -1;
+                    crc.reset();
+                    crc.update(longBytes(sum));
+                    continue;
+                }
+                if(kind < SCALARS || kind > CHUNK) break;
+                recordHeader[0] = (byte) kind;
+                in.readFully(recordHeader, 1, RECORD_HEADER_SIZE - 1);
+                ByteBuffer fields = ByteBuffer.wrap(recordHeader, 1, RECORD_HEADER_SIZE - 1);
+                int chunk = fields.getInt();
+                long sequence = fields.getLong();
+                int length = fields.getInt();
+                int rawLength = fields.getInt();
+                if(length < 0 || rawLength < 0) break;
+                if(pendingSequence == -1) pendingSequence = sequence;
+                if(sequence != pendingSequence) break;
+                byte[] data = new byte[length];
+                in.readFully(data);
+                crc.update(recordHeader);
+                crc.update(data);
+                pending.put(kind == CHUNK ? chunk : -kind, new Stored(data, rawLength));
+                records++;
+            }
+        } catch (EOFException e) {
+            // A save torn by a crash
+        }
+        return scan;
+    }
+
+    // The positions of the entities sorted by chunk, keeping their order inside a chunk
+    private static int[] order(int[] chunkOf, int chunks, int[] start) throws IOException {
+        for(int c: chunkOf){
+            if(c < 0 || c >= chunks) throw new IOException("Corrupt city log: entity out of the map");
+            start[c + 1]++;
+        }
+        for(int c = 1; c < start.length; c++){
+            start[c] += start[c - 1];
+        }
+        int[] next = Arrays.copyOf(start, start.length);
+        int[] order = new int[chunkOf.length];
+        for(int i = 0; i < chunkOf.length; i++){
+            order[next[chunkOf[i]]++] = i;
+        }
+        return order;
+    }
+
+    private static int chunksOf(int cells) {
+        return Math.max(1, (cells + (1 << ChunkedCityFormat.CHUNK_BITS) - 1) >> ChunkedCityFormat.CHUNK_BITS);
+    }
+
+    private static int headerSize(SaveImage image) {
+        SaveHeader header = SaveHeader.of(image);
+        return SaveHeader.OFFSET + SaveHeader.SIZE + header.thumbnailWidth * header.thumbnailHeight;
+    }
+
+    private static byte[] header(SaveImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        SaveHeader.of(image).write(out);
+        out.write(SaveHeader.thumbnail(image));
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeScalars(SaveImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        CityFormat.writeScalars(out, image);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeOrder(int[] x, int[] y, int chunksX, int chunksY) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(x.length);
+        for(int i = 0; i < x.length; i++){
+            out.writeInt(ChunkedCityFormat.chunkOf(x[i], y[i], chunksX, chunksY));
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeCitizens(SaveImage image) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(image.citizenResidence.length);
+        CityFormat.writeInts(out, image.citizenResidence);
+        CityFormat.writeInts(out, image.citizenWorkplace);
+        out.write(image.citizenSatisfaction);
+        out.writeInt(image.people.length);
+        CityFormat.writeInts(out, image.people);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] encodeChunk(SaveImage image, int[] buildingOrder, int buildingFrom, int buildingCount,
+                                      int[] zoneOrder, int zoneFrom, int zoneCount) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        int to = buildingFrom + buildingCount;
+        out.writeInt(buildingCount);
+        for(int i = buildingFrom; i < to; i++) out.writeByte(image.buildingType[buildingOrder[i]]);
+        for(int i = buildingFrom; i < to; i++) out.writeInt(image.buildingX[buildingOrder[i]]);
+        for(int i = buildingFrom; i < to; i++) out.writeInt(image.buildingY[buildingOrder[i]]);
+        for(int i = buildingFrom; i < to; i++) out.writeInt(image.buildingFee[buildingOrder[i]]);
+        for(int i = buildingFrom; i < to; i++) out.writeInt(image.buildingAge[buildingOrder[i]]);
+        for(int i = buildingFrom; i < to; i++) out.writeByte(image.buildingFlags[buildingOrder[i]]);
+        to = zoneFrom + zoneCount;
+        out.writeInt(zoneCount);
+        for(int i = zoneFrom; i < to; i++) out.writeByte(image.zoneType[zoneOrder[i]]);
+        for(int i = zoneFrom; i < to; i++) out.writeInt(image.zoneX[zoneOrder[i]]);
+        for(int i = zoneFrom; i < to; i++) out.writeInt(image.zoneY[zoneOrder[i]]);
+        for(int i = zoneFrom; i < to; i++) out.writeInt(image.zoneSaturation[zoneOrder[i]]);
+        for(int i = zoneFrom; i < to; i++) out.writeInt(image.zoneSatisfaction[zoneOrder[i]]);
+        for(int i = zoneFrom; i < to; i++) out.writeByte(image.zoneFlags[zoneOrder[i]]);
+        for(int i = zoneFrom; i < to; i++) out.writeInt(image.zonePeopleCount[zoneOrder[i]]);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static byte[] longBytes(long value) {
+        return ByteBuffer.allocate(8).putLong(value).array();
+    }
+
+    private static void writeFully(FileChannel channel, byte[] data, long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while(buffer.hasRemaining()){
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,642 @@
+package settings.persistence;
+
+import settings.General;
+import settings.Storage;
+import types.Building;
+import types.Zone;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * The Journal class records every command applied to a city since its last snapshot.
+ * Records are small fixed-size entries for placing and removing buildings and zones, disasters with their
+ * resolved type, speed, pause and money changes, and tick boundaries. They are gathered in a buffer and
+ * handed to a FileChannel in one write every few ticks, so a crash loses at most the commands of the ticks
+ * since the last write, and saving no longer means writing the whole city each time.
+ * Recovery loads the snapshot and replays the records; a torn record at the end of the file is dropped.
+ * Compaction writes a new snapshot and drops the records it contains from the journal.
+ * The header of the journal holds the checksum of the snapshot it continues. Before a new snapshot replaces
+ * the old one, a checkpoint record tells where the new snapshot was taken, so a compaction that stopped half
+ * way is recovered by replaying only the records after the checkpoint.
+ */
+public class Journal implements Closeable {
+    /** The first four bytes of every journal file: "SDNJ". */
+    public static final int MAGIC = 0x53444E4A;
+    /** The version of the format written by this class. */
+    public static final int VERSION = 1;
+    /** The size of the header: the magic number, the version and the checksum of the snapshot. */
+    public static final int HEADER_SIZE = 16;
+
+    static final byte PLACE_BUILDING = 1;
+    static final byte REMOVE_BUILDING = 2;
+    static final byte PLACE_ZONE = 3;
+    static final byte REMOVE_ZONE = 4;
+    static final byte DISASTER = 5;
+    static final byte SPEED = 6;
+    static final byte MONEY = 7;
+    static final byte PAUSE = 8;
+    static final byte TICK = 9;
+    static final byte CHECKPOINT = 10;
+    static final byte RANDOM = 11;
+    // The size of every record, opcode included, indexed by opcode
+    private static final int[] RECORD_SIZE = {0, 10, 9, 10, 9, 10, 5, 5, 2, 1, 17, 9};
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final File snapshot;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final ReentrantLock compaction = new ReentrantLock();
+    private int flushInterval = 1;
+    private int ticksSinceFlush = 0;
+    private long recordCount = 0;
+
+    private Journal(File snapshot, FileChannel channel) {
+        this.snapshot = snapshot;
+        this.channel = channel;
+    }
+
+    /**
+     * Returns the journal file kept next to the given snapshot file.
+     *
+     * @param snapshot the snapshot file, e.g. saves/Player_City.sav
+     * @return the journal file, e.g. saves/Player_City.journal
+     */
+    public static File fileFor(File snapshot) {
+        String name = snapshot.getName();
+        int dot = name.lastIndexOf('.');
+        if(dot > 0) name = name.substring(0, dot);
+        return new File(snapshot.getAbsoluteFile().getParentFile(), name + ".journal");
+    }
+
+    /**
+     * Starts journaling a new city: its current state becomes the snapshot and the journal starts empty.
+     * The journal is attached to the storage, which records every command from then on.
+     * An existing snapshot file is never replaced; see create(Storage, File, File, boolean).
+     *
+     * @param storage  the city
+     * @param snapshot the snapshot file to write
+     * @param file     the journal file to write
+     * @return the attached journal
+     * @throws FileAlreadyExistsException if the snapshot file already exists
+     * @throws IOException if a file cannot be written
+     */
+    public static Journal create(Storage storage, File snapshot, File file) throws IOException {
+        return create(storage, snapshot, file, false);
+    }
+
+    /**
+     * Starts journaling a new city: its current state becomes the snapshot and the journal starts empty.
+     * The journal is attached to the storage, which records every command from then on.
+     *
+     * @param storage  the city
+     * @param snapshot the snapshot file to write
+     * @param file     the journal file to write
+     * @param replace  true to replace an existing snapshot file, e.g. after the player confirmed it
+     * @return the attached journal
+     * @throws FileAlreadyExistsException if the snapshot file exists and may not be replaced
+     * @throws IOException if a file cannot be written
+     */
+    public static Journal create(Storage storage, File snapshot, File file, boolean replace) throws IOException {
+        // Checked before the journal is touched, so the save and its journal stay as they are
+        if(!replace && snapshot.exists()) throw new FileAlreadyExistsException(snapshot.getPath());
+        Journal journal = new Journal(snapshot, openChannel(file));
+        storage.setJournal(journal);
+        try {
+            journal.compact(storage);
+        } catch (IOException | RuntimeException e) {
+            storage.setJournal(null);
+            journal.channel.close();
+            throw e;
+        }
+        return journal;
+    }
+
+    /**
+     * Recovers a city: the snapshot is loaded into the storage and the journal records that follow it are
+     * replayed in order. The journal is then attached to the storage and keeps growing from there.
+     * Nothing is attached if the snapshot cannot be loaded, so no save ever goes over a file that was not read.
+     *
+     * @param storage  the storage to load the city into
+     * @param snapshot the snapshot file
+     * @param file     the journal file; it is created if it does not exist
+     * @return the attached journal
+     * @throws IOException if the snapshot or the journal cannot be read
+     */
+    public static Journal open(Storage storage, File snapshot, File file) throws IOException {
+        return open(storage, snapshot, file, 0, 0);
+    }
+
+    /**
+     * Recovers a city like open, reading the snapshot from the file as it goes instead of loading it whole.
+     * A compressed snapshot is read one chunk at a time, starting with the chunks around the given cell.
+     *
+     * @param storage  the storage to load the city into
+     * @param snapshot the snapshot file
+     * @param file     the journal file; it is created if it does not exist
+     * @param x        the x-coordinate of the cell to load first, e.g. the centre of the view
+     * @param y        the y-coordinate of the cell to load first
+     * @return the attached journal
+     * @throws IOException if the snapshot or the journal cannot be read
+     */
+    public static Journal open(Storage storage, File snapshot, File file, int x, int y) throws IOException {
+        int magic = magicOf(snapshot);
+        long checksum = checksum(snapshot, magic);
+        boolean existed = file.exists();
+        Journal journal = new Journal(snapshot, openChannel(file));
+        try {
+            storage.getEngine().execute(() -> {
+                try {
+                    if(magic == ChunkedCityFormat.MAGIC){
+                        try (ChunkedCityFile city = new ChunkedCityFile(snapshot)) {
+                            storage.restore(city.readImage(x, y, null));
+                        }
+                    }
+                    else{
+                        storage.read(snapshot);
+                    }
+                    journal.replay(storage, checksum);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                // Attached before the next tick can run, so no tick goes unrecorded
+                storage.setJournal(journal);
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            journal.channel.close();
+            if(!existed) file.delete();
+            throw e.getCause();
+        }
+        return journal;
+    }
+
+    /**
+     * Sets how many ticks the records are gathered for before they are written to the file.
+     *
+     * @param ticks the number of ticks between two writes, at least 1
+     */
+    public synchronized void setFlushInterval(int ticks) {
+        this.flushInterval = Math.max(1, ticks);
+    }
+
+    /**
+     * Returns the number of records written or replayed since the last compaction.
+     *
+     * @return the number of records
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * Returns the snapshot file the journal continues.
+     *
+     * @return the snapshot file
+     */
+    public File getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Records a building placed by the player.
+     *
+     * @param building the building
+     */
+    public synchronized void placeBuilding(Building building) {
+        reserve(RECORD_SIZE[PLACE_BUILDING]);
+        buffer.put(PLACE_BUILDING).put(CityFormat.tagOf(building)).putInt(building.getX()).putInt(building.getY());
+        recordCount++;
+    }
+
+    /**
+     * Records a building removed by the player.
+     *
+     * @param x the x-coordinate of the building
+     * @param y the y-coordinate of the building
+     */
+    public synchronized void removeBuilding(int x, int y) {
+        reserve(RECORD_SIZE[REMOVE_BUILDING]);
+        buffer.put(REMOVE_BUILDING).putInt(x).putInt(y);
+        recordCount++;
+    }
+
+    /**
+     * Records a zone placed by the player.
+     *
+     * @param zone the zone
+     */
+    public synchronized void placeZone(Zone zone) {
+        reserve(RECORD_SIZE[PLACE_ZONE]);
+        buffer.put(PLACE_ZONE).put(CityFormat.tagOf(zone)).putInt(zone.getX()).putInt(zone.getY());
+        recordCount++;
+    }
+
+    /**
+     * Records a zone removed by the player.
+     *
+     * @param x the x-coordinate of the zone
+     * @param y the y-coordinate of the zone
+     */
+    public synchronized void removeZone(int x, int y) {
+        reserve(RECORD_SIZE[REMOVE_ZONE]);
+        buffer.put(REMOVE_ZONE).putInt(x).putInt(y);
+        recordCount++;
+    }
+
+    /**
+     * Records a disaster with its resolved type, so a replay does not draw it again.
+     *
+     * @param x     the x-coordinate of the disaster
+     * @param y     the y-coordinate of the disaster
+     * @param dType the type of the disaster
+     */
+    public synchronized void disaster(int x, int y, int dType) {
+        reserve(RECORD_SIZE[DISASTER]);
+        buffer.put(DISASTER).putInt(x).putInt(y).put((byte) dType);
+        recordCount++;
+    }
+
+    /**
+     * Records the state of the random generator of the city after a command drew from it.
+     *
+     * @param state the state of the generator
+     */
+    public synchronized void random(long state) {
+        reserve(RECORD_SIZE[RANDOM]);
+        buffer.put(RANDOM).putLong(state);
+        recordCount++;
+    }
+
+    /**
+     * Records a change of the game speed.
+     *
+     * @param speed the new speed
+     */
+    public synchronized void speed(int speed) {
+        reserve(RECORD_SIZE[SPEED]);
+        buffer.put(SPEED).putInt(speed);
+        recordCount++;
+    }
+
+    /**
+     * Records money added to, or taken from, the budget of the city.
+     *
+     * @param amount the amount of money
+     */
+    public synchronized void money(int amount) {
+        reserve(RECORD_SIZE[MONEY]);
+        buffer.put(MONEY).putInt(amount);
+        recordCount++;
+    }
+
+    /**
+     * Records the game being paused or resumed.
+     *
+     * @param paused the new pause state
+     */
+    public synchronized void pause(boolean paused) {
+        reserve(RECORD_SIZE[PAUSE]);
+        buffer.put(PAUSE).put((byte) (paused ? 1 : 0));
+        recordCount++;
+    }
+
+    /**
+     * Records a tick boundary and writes the gathered records once enough ticks went by.
+     *
+     * @throws UncheckedIOException if the records cannot be written
+     */
+    public synchronized void tick() {
+        reserve(RECORD_SIZE[TICK]);
+        buffer.put(TICK);
+        recordCount++;
+        if(++ticksSinceFlush >= flushInterval){
+            try {
+                flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the gathered records to the file.
+     * Once written they survive a crash of the game; sync also makes them survive a crash of the system.
+     *
+     * @throws IOException if writing fails
+     */
+    public synchronized void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining()){
+            channel.write(buffer);
+        }
+        buffer.clear();
+        ticksSinceFlush = 0;
+    }
+
+    /**
+     * Writes the gathered records and forces them to the storage device.
+     *
+     * @throws IOException if writing fails
+     */
+    public synchronized void sync() throws IOException {
+        flush();
+        channel.force(false);
+    }
+
+    /**
+     * Folds the journal into a new snapshot of the city and drops the records the snapshot contains.
+     * Only the copy of the city into a SaveImage runs between two ticks; encoding and writing the snapshot
+     * run on the calling thread while the simulation goes on, and the commands recorded meanwhile stay in
+     * the journal. With General.incrementalSaves set, the snapshot is a CityLog and only the changes since
+     * the last compaction are appended to it. Must not be called from inside SimulationEngine.execute.
+     *
+     * @param storage the city the journal is attached to
+     * @throws IOException if a file cannot be written
+     */
+    public void compact(Storage storage) throws IOException {
+        compaction.lock();
+        try {
+            if(General.incrementalSaves){
+                CityLog log = storage.getCityLog(snapshot);
+                // The log lock is taken before the engine lock, in the same order as CityLog.save
+                synchronized(log){
+                    compact(storage, log);
+                }
+            }
+            else{
+                compact(storage, null);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            compaction.unlock();
+        }
+    }
+
+    private void compact(Storage storage, CityLog log) throws IOException {
+        long[] mark = new long[1];
+        ChangeTracker[] changes = new ChangeTracker[1];
+        // The engine lock is taken before the journal lock, in the same order as a tick
+        SaveImage image = storage.getEngine().execute(() -> {
+            if(log != null) changes[0] = storage.takeChanges();
+            SaveImage captured = storage.capture();
+            synchronized(this){
+                try {
+                    flush();
+                    mark[0] = channel.position();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return captured;
+        });
+        CityLog.Update update = log == null ? null : log.prepare(image, changes[0]);
+        byte[] data = log == null ? CityFormat.toBytes(image) : null;
+        long checksum = log == null ? checksum(data) : update.getChecksum();
+        synchronized(this){
+            reserve(RECORD_SIZE[CHECKPOINT]);
+            buffer.put(CHECKPOINT).putLong(checksum).putLong(mark[0]);
+            sync();
+        }
+        if(log == null) CityFormat.writeFile(data, snapshot);
+        else log.write(update);
+        synchronized(this){
+            rewrite(checksum, mark[0]);
+        }
+    }
+
+    /**
+     * Writes the gathered records and closes the file.
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            sync();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void replay(Storage storage, long checksum) throws IOException {
+        long size = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if(size >= HEADER_SIZE){
+            channel.read(header, 0);
+            header.flip();
+        }
+        if(size < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION){
+            reset(checksum);
+            return;
+        }
+        boolean continues = header.getLong() == checksum;
+
+        ByteBuffer data = read(HEADER_SIZE, size);
+        long start = HEADER_SIZE;
+        if(!continues){
+            // The snapshot was replaced by a compaction that stopped before emptying the journal
+            start = -1;
+            int op;
+            while((op = nextRecord(data)) != -1){
+                if(op != CHECKPOINT){
+                    data.position(data.position() + RECORD_SIZE[op] - 1);
+                }
+                else if(data.getLong() == checksum){
+                    start = data.getLong();
+                }
+                else{
+                    data.getLong();
+                }
+            }
+            if(start == -1){
+                // A journal of another snapshot
+                reset(checksum);
+                return;
+            }
+            data.position((int) (start - HEADER_SIZE));
+        }
+        int op;
+        while((op = nextRecord(data)) != -1){
+            if(op == CHECKPOINT){
+                data.position(data.position() + RECORD_SIZE[CHECKPOINT] - 1);
+                continue;
+            }
+            apply(storage, op, data);
+            recordCount++;
+        }
+        // Drop a torn record left by a crash in the middle of a write
+        long end = HEADER_SIZE + data.position();
+        channel.truncate(end);
+        channel.position(end);
+        if(!continues) rewrite(checksum, start);
+    }
+
+    // Returns the opcode of the next whole record and moves past it, or -1 at the end of the records
+    private static int nextRecord(ByteBuffer data) {
+        if(!data.hasRemaining()) return -1;
+        int op = data.get(data.position());
+        if(op <= 0 || op >= RECORD_SIZE.length || data.remaining() < RECORD_SIZE[op]) return -1;
+        data.get();
+        return op;
+    }
+
+    // Keeps the records after the given position, without checkpoints, behind a header for the given snapshot
+    private void rewrite(long checksum, long from) throws IOException {
+        flush();
+        ByteBuffer data = read(from, channel.position());
+        ByteBuffer kept = ByteBuffer.allocate(data.remaining());
+        long records = 0;
+        int op;
+        while((op = nextRecord(data)) != -1){
+            int length = RECORD_SIZE[op] - 1;
+            if(op != CHECKPOINT){
+                kept.put((byte) op);
+                kept.put(data.slice(data.position(), length));
+                records++;
+            }
+            data.position(data.position() + length);
+        }
+        kept.flip();
+        reset(checksum);
+        while(kept.hasRemaining()){
+            channel.write(kept);
+        }
+        recordCount = records;
+    }
+
+    private ByteBuffer read(long from, long to) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate((int) (to - from));
+        while(data.hasRemaining()){
+            if(channel.read(data, from + data.position()) < 0) break;
+        }
+        data.flip();
+        return data;
+    }
+
+    private static void apply(Storage storage, int op, ByteBuffer data) throws IOException {
+        switch(op){
+            case PLACE_BUILDING: {
+                byte tag = data.get();
+                int x = data.getInt();
+                storage.addBuilding(CityFormat.newBuilding(tag, x, data.getInt()));
+                break;
+            }
+            case REMOVE_BUILDING: {
+                int x = data.getInt();
+                storage.removeBuilding(x, data.getInt());
+                break;
+            }
+            case PLACE_ZONE: {
+                byte tag = data.get();
+                int x = data.getInt();
+                storage.addZone(CityFormat.newZone(tag, x, data.getInt()));
+                break;
+            }
+            case REMOVE_ZONE: {
+                int x = data.getInt();
+                storage.removeZone(x, data.getInt());
+                break;
+            }
+            case DISASTER: {
+                int x = data.getInt();
+                int y = data.getInt();
+                storage.disaster(x, y, data.get());
+                break;
+            }
+            case SPEED:
+                storage.setSpeed(data.getInt());
+                break;
+            case MONEY:
+                storage.addMoney(data.getInt());
+                break;
+            case PAUSE:
+                storage.setPause(data.get() != 0);
+                break;
+            case TICK:
+                storage.tick();
+                break;
+            case RANDOM:
+                storage.setRandomState(data.getLong());
+                break;
+            default:
+                throw new IOException("Unknown journal record: " + op);
+        }
+    }
+
+    private void reset(long checksum) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putLong(checksum);
+        header.flip();
+        channel.truncate(0);
+        channel.position(0);
+        while(header.hasRemaining()){
+            channel.write(header);
+        }
+        channel.force(false);
+        recordCount = 0;
+    }
+
+    private void reserve(int bytes) {
+        if(buffer.remaining() >= bytes) return;
+        try {
+            flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static FileChannel openChannel(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if(parent != null) parent.mkdirs();
+        return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static long checksum(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    /**
+     * Computes the checksum of a snapshot while streaming it, the same one a compaction gives the data it writes.
+     *
+     * @param snapshot the snapshot file
+     * @param magic    the magic number the file starts with
+     * @return the checksum
+     * @throws IOException if the file cannot be read
+     */
+    private static long checksum(File snapshot, int magic) throws IOException {
+        try (InputStream in = new FileInputStream(snapshot)) {
+            if(magic == CityLog.MAGIC) return CityLog.checksum(in);
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while((n = in.read(buffer)) > 0){
+                crc.update(buffer, 0, n);
+            }
+            return crc.getValue();
+        }
+    }
+
+    private static int magicOf(File snapshot) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(snapshot))) {
+            return in.readInt();
+        } catch (EOFException e) {
+            throw new IOException((snapshot.length() == 0 ? "Empty save: " : "Unsupported save format: ") + snapshot);
+        }
+    }
+}
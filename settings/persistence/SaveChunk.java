@@ -0,0 +1,28 @@
+package settings.persistence;
+
+/**
+ * The SaveChunk class holds the buildings and zones of one map chunk of a compressed save, as primitive columns.
+ * Every entry keeps its position in the columns of the whole SaveImage, so chunks can be read in any order
+ * and the city is restored in its saved order.
+ */
+public class SaveChunk {
+    public int chunkX;
+    public int chunkY;
+
+    public int[] buildingIndex;
+    public byte[] buildingType;
+    public int[] buildingX;
+    public int[] buildingY;
+    public int[] buildingFee;
+    public int[] buildingAge;
+    public byte[] buildingFlags;
+
+    public int[] zoneIndex;
+    public byte[] zoneType;
+    public int[] zoneX;
+    public int[] zoneY;
+    public int[] zoneSaturation;
+    public int[] zoneSatisfaction;
+    public byte[] zoneFlags;
+    public int[] zonePeopleCount;
+}
@@ -0,0 +1,212 @@
+package settings.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The SaveHeader class is the fixed-size block at the head of every save, right after the magic number and
+ * the version. It tells who plays which city, the date, money, population, satisfaction and map size, and
+ * where to find a thumbnail of the map, so a list of saves can be shown without reading any city.
+ * The thumbnail is a small grid with one byte per pixel telling what covers the cells under it.
+ */
+public class SaveHeader {
+    /** The size of the header in bytes; unused bytes are reserved and written as zeros. */
+    public static final int SIZE = 256;
+    /** The largest side of a thumbnail in pixels. */
+    public static final int THUMBNAIL_SIZE = 64;
+    /** The position of the header in a save, after the magic number and the version. */
+    public static final int OFFSET = 6;
+
+    public static final byte EMPTY = 0;
+    public static final byte ROAD = 1;
+    public static final byte BUILDING = 2;
+    public static final byte RESIDENTIAL = 3;
+    public static final byte INDUSTRIAL = 4;
+    public static final byte SERVICE = 5;
+
+    private static final int NAME_SIZE = 64;
+
+    public String playerName;
+    public String cityName;
+    public int time;
+    public int money;
+    public int population;
+    public int satisfaction;
+    public int width;
+    public int height;
+    public long thumbnailOffset;
+    public int thumbnailWidth;
+    public int thumbnailHeight;
+
+    /**
+     * Builds the header of a save image; the thumbnail is placed right after the header.
+     *
+     * @param image the image to describe
+     * @return the header
+     */
+    public static SaveHeader of(SaveImage image) {
+        SaveHeader header = new SaveHeader();
+        header.playerName = image.playerName;
+        header.cityName = image.cityName;
+        header.time = image.time;
+        header.money = image.money;
+        header.population = image.population;
+        header.satisfaction = image.satisfaction;
+        header.width = image.width;
+        header.height = image.height;
+        int scale = scaleOf(image.width, image.height);
+        header.thumbnailOffset = OFFSET + SIZE;
+        header.thumbnailWidth = (image.width + scale - 1) / scale;
+        header.thumbnailHeight = (image.height + scale - 1) / scale;
+        return header;
+    }
+
+    /**
+     * Draws the thumbnail of a save image. Zones win over buildings and buildings over roads, so the kinds
+     * that matter most stay visible when many cells share a pixel.
+     *
+     * @param image the image to draw
+     * @return one byte per pixel, row after row
+     */
+    public static byte[] thumbnail(SaveImage image) {
+        int scale = scaleOf(image.width, image.height);
+        int w = (image.width + scale - 1) / scale;
+        int h = (image.height + scale - 1) / scale;
+        byte[] pixels = new byte[w * h];
+        for(int i = 0; i < image.buildingType.length; i++){
+            byte kind = image.buildingType[i] == CityFormat.ROAD ? ROAD : BUILDING;
+            paint(pixels, w, h, image.buildingX[i] / scale, image.buildingY[i] / scale, kind);
+        }
+        for(int i = 0; i < image.zoneType.length; i++){
+            byte kind = image.zoneType[i] == CityFormat.RESIDENTIAL ? RESIDENTIAL
+                    : image.zoneType[i] == CityFormat.INDUSTRIAL ? INDUSTRIAL : SERVICE;
+            paint(pixels, w, h, image.zoneX[i] / scale, image.zoneY[i] / scale, kind);
+        }
+        return pixels;
+    }
+
+    /**
+     * Writes the header, always taking SIZE bytes.
+     *
+     * @param out the stream to write to
+     * @throws IOException if writing fails
+     */
+    public void write(DataOutputStream out) throws IOException {
+        writeName(out, playerName);
+        writeName(out, cityName);
+        out.writeInt(time);
+        out.writeInt(money);
+        out.writeInt(population);
+        out.writeInt(satisfaction);
+        out.writeInt(width);
+        out.writeInt(height);
+        out.writeLong(thumbnailOffset);
+        out.writeInt(thumbnailWidth);
+        out.writeInt(thumbnailHeight);
+        out.write(new byte[SIZE - 2 * NAME_SIZE - 40]);
+    }
+
+    /**
+     * Reads a header of SIZE bytes.
+     *
+     * @param in the stream to read from
+     * @return the header
+     * @throws IOException if reading fails
+     */
+    public static SaveHeader read(DataInputStream in) throws IOException {
+        SaveHeader header = new SaveHeader();
+        header.playerName = readName(in);
+        header.cityName = readName(in);
+        header.time = in.readInt();
+        header.money = in.readInt();
+        header.population = in.readInt();
+        header.satisfaction = in.readInt();
+        header.width = in.readInt();
+        header.height = in.readInt();
+        header.thumbnailOffset = in.readLong();
+        header.thumbnailWidth = in.readInt();
+        header.thumbnailHeight = in.readInt();
+        in.readFully(new byte[SIZE - 2 * NAME_SIZE - 40]);
+        return header;
+    }
+
+    /**
+     * Reads the header of a save file without reading the city.
+     *
+     * @param file the save file
+     * @return the header, or null if the file is a save without a header, e.g. an older one
+     * @throws IOException if the file cannot be read
+     */
+    public static SaveHeader read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), OFFSET + SIZE))) {
+            int magic = in.readInt();
+            if(magic != CityFormat.MAGIC && magic != ChunkedCityFormat.MAGIC && magic != CityLog.MAGIC) return null;
+            // City logs have had a header from their first version
+            if(in.readUnsignedShort() < 2 && magic != CityLog.MAGIC) return null;
+            return read(in);
+        }
+    }
+
+    /**
+     * Reads the thumbnail of a save file.
+     *
+     * @param file the save file this header was read from
+     * @return one byte per pixel, row after row
+     * @throws IOException if the file cannot be read
+     */
+    public byte[] readThumbnail(File file) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            byte[] pixels = new byte[thumbnailWidth * thumbnailHeight];
+            in.seek(thumbnailOffset);
+            in.readFully(pixels);
+            return pixels;
+        }
+    }
+
+    /**
+     * Returns the date of the city as a string.
+     *
+     * @return the date, in the format of the top panel of the game
+     */
+    public String getStringDate() {
+        int day = time % 30 + 1;
+        int month = (time / 30) % 12 + 1;
+        int year = 1850 + time / (12 * 30);
+        return String.format("%02d/%02d/%d", day, month, year);
+    }
+
+    private static int scaleOf(int width, int height) {
+        return Math.max(1, (Math.max(width, height) + THUMBNAIL_SIZE - 1) / THUMBNAIL_SIZE);
+    }
+
+    private static void paint(byte[] pixels, int w, int h, int x, int y, byte kind) {
+        if(x < 0 || y < 0 || x >= w || y >= h) return;
+        if(pixels[y * w + x] < kind) pixels[y * w + x] = kind;
+    }
+
+    private static void writeName(DataOutputStream out, String name) throws IOException {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        int length = bytes.length;
+        if(length > NAME_SIZE - 1){
+            // Cut at the start of a character, never inside one
+            length = NAME_SIZE - 1;
+            while(length > 0 && (bytes[length] & 0xC0) == 0x80) length--;
+        }
+        out.writeByte(length);
+        out.write(bytes, 0, length);
+        out.write(new byte[NAME_SIZE - 1 - length]);
+    }
+
+    private static String readName(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[NAME_SIZE];
+        in.readFully(bytes);
+        int length = Math.min(bytes[0] & 0xFF, NAME_SIZE - 1);
+        return new String(bytes, 1, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,48 @@
+package settings.persistence;
+
+/**
+ * The SaveImage class holds everything a save file contains, as primitive columns.
+ * It is captured from a city between two ticks and shares nothing with it, so it can be written on any thread.
+ * Entities refer to each other by their position in the columns: citizens name their zones by zone index,
+ * and zones list their members by citizen index. Sprites are not part of the image; they are reattached
+ * from the type and saturation of each entity when the city is restored.
+ */
+public class SaveImage {
+    public String playerName;
+    public String cityName;
+    public int width;
+    public int height;
+    public int time;
+    public int speed;
+    public int money;
+    public int satisfaction;
+    public int loanPeriod;
+    public int population;
+    public int countDays;
+    public int lastAnnualFee;
+    public boolean paused;
+    public long seed;
+    public long randomState;
+
+    public byte[] buildingType;
+    public int[] buildingX;
+    public int[] buildingY;
+    public int[] buildingFee;
+    public int[] buildingAge;
+    public byte[] buildingFlags;
+
+    public byte[] zoneType;
+    public int[] zoneX;
+    public int[] zoneY;
+    public int[] zoneSaturation;
+    public int[] zoneSatisfaction;
+    public byte[] zoneFlags;
+    public int[] zonePeopleCount;
+
+    public int[] citizenResidence;
+    public int[] citizenWorkplace;
+    public byte[] citizenSatisfaction;
+
+    /** The members of every zone, zone after zone, each zone taking zonePeopleCount entries. */
+    public int[] people;
+}
@@ -0,0 +1,198 @@
+package settings.persistence;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The SaveIndex class lists the saves of a folder with their headers.
+ * The headers are cached in an index file in the folder, together with the size and modification time of
+ * each save; a refresh only reads the header of the saves that changed since, so listing hundreds of saves
+ * reads one small file. Saves without a header, written by older versions of the game, are read in full
+ * once and then served from the index like the others.
+ */
+public class SaveIndex {
+    /** The name of the index file kept in the folder. */
+    public static final String FILE_NAME = "saves.index";
+    /** The first four bytes of the index file: "SDNI". */
+    public static final int MAGIC = 0x53444E49;
+    public static final int VERSION = 1;
+
+    private final File folder;
+    private final HashMap<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * The header of one save, with the file it was read from.
+     */
+    public static class Entry {
+        private final File file;
+        private final long length;
+        private final long lastModified;
+        private final SaveHeader header;
+
+        Entry(File file, long length, long lastModified, SaveHeader header) {
+            this.file = file;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.header = header;
+        }
+
+        /**
+         * Returns the save file.
+         *
+         * @return the file
+         */
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * Returns the time the save file was last written.
+         *
+         * @return the modification time in milliseconds since the epoch
+         */
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        /**
+         * Returns the header of the save.
+         *
+         * @return the header
+         */
+        public SaveHeader getHeader() {
+            return header;
+        }
+    }
+
+    /**
+     * Constructs an index of the saves in the given folder; nothing is read before the first refresh.
+     *
+     * @param folder the folder holding the saves
+     */
+    public SaveIndex(File folder) {
+        // Entries are compared with the files picked by the user, which never hold "." or ".." parts
+        this.folder = folder.getAbsoluteFile().toPath().normalize().toFile();
+    }
+
+    /**
+     * Brings the index up to date with the folder and returns its entries, the most recent save first.
+     * The index file is rewritten only when a save was added, changed or removed.
+     *
+     * @return the entries
+     */
+    public synchronized List<Entry> refresh() {
+        if(entries.isEmpty()) readIndex();
+        File[] files = folder.listFiles((dir, name) -> name.endsWith(".sav"));
+        if(files == null) files = new File[0];
+        boolean changed = false;
+        HashMap<String, Entry> current = new HashMap<String, Entry>();
+        for(File file: files){
+            Entry entry = entries.get(file.getName());
+            if(entry == null || entry.length != file.length() || entry.lastModified != file.lastModified()){
+                SaveHeader header = readHeader(file);
+                if(header == null) continue;
+                entry = new Entry(file, file.length(), file.lastModified(), header);
+                changed = true;
+            }
+            current.put(file.getName(), entry);
+        }
+        if(current.size() != entries.size()) changed = true;
+        entries.clear();
+        entries.putAll(current);
+        if(changed) writeIndex();
+
+        ArrayList<Entry> list = new ArrayList<Entry>(entries.values());
+        list.sort((a, b) -> Long.compare(b.lastModified, a.lastModified));
+        return list;
+    }
+
+    /**
+     * Returns the entry of a save, as of the last refresh.
+     * The file may be given through any path leading to the save, e.g. a relative one.
+     *
+     * @param file the save file
+     * @return the entry, or null if the file is not a save of the folder
+     */
+    public synchronized Entry get(File file) {
+        Entry entry = entries.get(file.getName());
+        if(entry == null || !sameFile(entry.file, file)) return null;
+        return entry;
+    }
+
+    private static boolean sameFile(File a, File b) {
+        try {
+            return a.getCanonicalFile().equals(b.getCanonicalFile());
+        } catch (IOException e) {
+            return a.getAbsoluteFile().toPath().normalize().equals(b.getAbsoluteFile().toPath().normalize());
+        }
+    }
+
+    private static SaveHeader readHeader(File file) {
+        try {
+            SaveHeader header = SaveHeader.read(file);
+            if(header == null && CityFormat.isCityFile(file)){
+                // A save from before headers: its header is taken from the city, once
+                try (FileInputStream in = new FileInputStream(file)) {
+                    header = SaveHeader.of(CityFormat.read(in));
+                }
+                header.thumbnailWidth = 0;
+                header.thumbnailHeight = 0;
+            }
+            return header;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void readIndex() {
+        File file = new File(folder, FILE_NAME);
+        if(!file.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if(in.readInt() != MAGIC || in.readUnsignedShort() != VERSION) return;
+            int count = CityFormat.readCount(in);
+            for(int i = 0; i < count; i++){
+                String name = in.readUTF();
+                long length = in.readLong();
+                long lastModified = in.readLong();
+                SaveHeader header = SaveHeader.read(in);
+                entries.put(name, new Entry(new File(folder, name), length, lastModified, header));
+            }
+        } catch (IOException e) {
+            // A broken index is rebuilt from the saves
+            entries.clear();
+        }
+    }
+
+    private void writeIndex() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            String[] names = entries.keySet().toArray(new String[0]);
+            Arrays.sort(names);
+            out.writeInt(names.length);
+            for(String name: names){
+                Entry entry = entries.get(name);
+                out.writeUTF(name);
+                out.writeLong(entry.length);
+                out.writeLong(entry.lastModified);
+                entry.header.write(out);
+            }
+            out.flush();
+            CityFormat.writeFile(bytes.toByteArray(), new File(folder, FILE_NAME));
+        } catch (IOException e) {
+            // Without an index the headers are read again next time
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package settings.simulation;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The AcceleratedClock class ticks at a fixed multiple of the real-time pace on a background thread.
+ * It does not need a display, so it can drive the simulation on a server.
+ * A tick that throws is reported and stops the clock.
+ */
+public class AcceleratedClock implements Clock {
+    private final long periodMicros;
+    private ScheduledExecutorService executor;
+    private volatile Thread thread;
+
+    /**
+     * Constructs a clock ticking the given number of times faster than real time.
+     *
+     * @param factor the speed-up over one tick per second, greater than 0
+     */
+    public AcceleratedClock(double factor) {
+        if(factor <= 0) throw new IllegalArgumentException("factor must be positive: " + factor);
+        this.periodMicros = Math.max(1, Math.round(RealTimeClock.TICK_MILLIS * 1000 / factor));
+    }
+
+    @Override
+    public void start(Runnable tick) {
+        stop();
+        ScheduledExecutorService service = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread clockThread = new Thread(r, "simulation-clock");
+            clockThread.setDaemon(true);
+            thread = clockThread;
+            return clockThread;
+        });
+        executor = service;
+        service.scheduleAtFixedRate(() -> {
+            try {
+                tick.run();
+            } catch (RuntimeException | Error e) {
+                // The executor would drop the exception and cancel the task while still looking alive
+                e.printStackTrace();
+                service.shutdown();
+            }
+        }, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+    }
+
+    /**
+     * Stops the clock and, unless called from a tick, waits a bounded time for the running tick to finish.
+     */
+    @Override
+    public void stop() {
+        ScheduledExecutorService service = executor;
+        if(service == null) return;
+        service.shutdownNow();
+        if(thread != Thread.currentThread()){
+            try {
+                service.awaitTermination(STOP_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return executor != null && !executor.isShutdown();
+    }
+}
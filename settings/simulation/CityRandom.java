@@ -0,0 +1,108 @@
+package settings.simulation;
+
+import java.io.Serializable;
+
+/**
+ * The CityRandom class is the source of every random decision of a city, such as disasters and forest spawning.
+ * It is a SplitMix64 generator: its whole state is two longs, so it is saved with the city and a replay
+ * from the same seed takes the same decisions. A generator can be split into independent streams,
+ * e.g. one per region or thread, so parallel work never shares one generator.
+ * A single generator is not thread-safe.
+ */
+public class CityRandom implements Serializable {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private final long seed;
+    private long state;
+
+    /**
+     * Constructs a generator from the given seed.
+     *
+     * @param seed the seed
+     */
+    public CityRandom(long seed) {
+        this(seed, seed);
+    }
+
+    /**
+     * Constructs a generator that continues from a saved state.
+     *
+     * @param seed  the seed the generator was created with
+     * @param state the state returned by getState
+     */
+    public CityRandom(long seed, long state) {
+        this.seed = seed;
+        this.state = state;
+    }
+
+    /**
+     * Returns the seed the generator was created with.
+     *
+     * @return the seed
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Returns the current state of the generator, which is all it needs to continue.
+     *
+     * @return the state
+     */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Returns the next pseudo-random long.
+     *
+     * @return a uniformly distributed long
+     */
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix(state);
+    }
+
+    /**
+     * Returns a pseudo-random int between 0 (inclusive) and the given bound (exclusive).
+     *
+     * @param bound the upper bound, greater than 0
+     * @return a uniformly distributed int in [0, bound)
+     */
+    public int nextInt(int bound) {
+        if(bound <= 0) throw new IllegalArgumentException("bound must be positive: " + bound);
+        long limit = Long.MAX_VALUE - Long.MAX_VALUE % bound;
+        long r;
+        do {
+            r = nextLong() >>> 1;
+        } while(r >= limit);
+        return (int) (r % bound);
+    }
+
+    /**
+     * Returns a pseudo-random double between 0 (inclusive) and 1 (exclusive).
+     *
+     * @return a uniformly distributed double in [0, 1)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns an independent generator for the given stream, e.g. a region or thread index.
+     * The result only depends on the seed and the stream, not on how much this generator has been used,
+     * so the streams of a tick are the same whatever order they are created in.
+     *
+     * @param stream the index of the stream
+     * @return the generator of the stream
+     */
+    public CityRandom split(long stream) {
+        return new CityRandom(mix(seed ^ mix(stream * GOLDEN_GAMMA + GOLDEN_GAMMA)));
+    }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,306 @@
+package settings.simulation;
+
+import settings.Storage;
+import types.Building;
+import types.Zone;
+import types.Zones.Residential;
+
+import java.awt.Image;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * The CitySnapshot class is an immutable copy of what the interface shows of a city at one point in time.
+ * The simulation publishes a new snapshot after every tick and command, and the renderer and the statistics
+ * dialog only read the latest one, so they never iterate the lists the simulation is changing.
+ * The buildings and zones are only copied again when the city changed since the previous snapshot.
+ * Buildings and zones are kept in primitive columns; sprites are shared, as images are never modified.
+ */
+public final class CitySnapshot {
+    private final long version;
+    private final long changeCount;
+    private final String date;
+    private final int money;
+    private final int satisfaction;
+    private final Entities entities;
+
+    /**
+     * The columns of the buildings and zones. Consecutive snapshots share them while the city does not change,
+     * so a tick that only moves the date copies nothing but a few numbers.
+     */
+    private static final class Entities {
+        private final int[] buildingX;
+        private final int[] buildingY;
+        private final int[] buildingSize;
+        private final Image[] buildingImage;
+
+        private final int[] zoneX;
+        private final int[] zoneY;
+        private final int[] zoneType;
+        private final int[] zoneSaturation;
+        private final int[] zoneSatisfaction;
+        private final Image[] zoneImage;
+        private final int population;
+        // The index of every zone by its cell, built on the first lookup
+        private volatile HashMap<Long, Integer> zoneIndex;
+
+        private Entities(Storage storage) {
+            ArrayList<Building> buildings = storage.getBuildings();
+            int n = buildings.size();
+            buildingX = new int[n];
+            buildingY = new int[n];
+            buildingSize = new int[n];
+            buildingImage = new Image[n];
+            for(int i = 0; i < n; i++){
+                Building building = buildings.get(i);
+                buildingX[i] = building.getX();
+                buildingY[i] = building.getY();
+                buildingSize[i] = building.getSize();
+                buildingImage[i] = building.getImage();
+            }
+
+            ArrayList<Zone> zones = storage.getZones();
+            int m = zones.size();
+            int people = 0;
+            zoneX = new int[m];
+            zoneY = new int[m];
+            zoneType = new int[m];
+            zoneSaturation = new int[m];
+            zoneSatisfaction = new int[m];
+            zoneImage = new Image[m];
+            for(int i = 0; i < m; i++){
+                Zone zone = zones.get(i);
+                zoneX[i] = zone.getX();
+                zoneY[i] = zone.getY();
+                zoneType[i] = zone.getType();
+                zoneSaturation[i] = zone.getSaturation();
+                zoneSatisfaction[i] = zone.getSatisfaction();
+                zoneImage[i] = zone.getImage();
+                if(zone instanceof Residential) people += zone.getSaturation();
+            }
+            this.population = people;
+        }
+    }
+
+    private CitySnapshot(Storage storage, long version, long changeCount, Entities entities) {
+        this.version = version;
+        this.changeCount = changeCount;
+        this.date = storage.getStringDate();
+        this.money = storage.getMoney();
+        this.satisfaction = storage.getSatisfaction();
+        this.entities = entities;
+    }
+
+    /**
+     * Copies the current state of the given city.
+     * Must run on the thread that changes the city, between two ticks.
+     *
+     * @param storage     the city
+     * @param version     the number of the snapshot
+     * @param changeCount the change count of the city, see Storage.getChangeCount
+     * @param previous    the snapshot published before, or null
+     * @return the snapshot, sharing the buildings and zones of the previous one if the change count is the same
+     */
+    public static CitySnapshot capture(Storage storage, long version, long changeCount, CitySnapshot previous) {
+        Entities entities = previous != null && previous.changeCount == changeCount ? previous.entities : new Entities(storage);
+        return new CitySnapshot(storage, version, changeCount, entities);
+    }
+
+    /**
+     * Returns the number of the snapshot; later snapshots have higher numbers.
+     *
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns the change count of the city when the snapshot was made, so a renderer knows whether it has
+     * to redraw.
+     *
+     * @return the change count
+     */
+    public long getChangeCount() {
+        return changeCount;
+    }
+
+    /**
+     * Returns the game date as a formatted string.
+     *
+     * @return the date
+     */
+    public String getDate() {
+        return date;
+    }
+
+    /**
+     * Returns the amount of money.
+     *
+     * @return the money
+     */
+    public int getMoney() {
+        return money;
+    }
+
+    /**
+     * Returns the satisfaction level of the city.
+     *
+     * @return the satisfaction
+     */
+    public int getSatisfaction() {
+        return satisfaction;
+    }
+
+    /**
+     * Returns the number of people living in residential zones.
+     *
+     * @return the population
+     */
+    public int getPopulation() {
+        return entities.population;
+    }
+
+    /**
+     * Returns the number of buildings.
+     *
+     * @return the building count
+     */
+    public int getBuildingCount() {
+        return entities.buildingX.length;
+    }
+
+    /**
+     * Returns the x-coordinate of a building.
+     *
+     * @param i the index of the building
+     * @return the x-coordinate
+     */
+    public int getBuildingX(int i) {
+        return entities.buildingX[i];
+    }
+
+    /**
+     * Returns the y-coordinate of a building.
+     *
+     * @param i the index of the building
+     * @return the y-coordinate
+     */
+    public int getBuildingY(int i) {
+        return entities.buildingY[i];
+    }
+
+    /**
+     * Returns the side length of a building.
+     *
+     * @param i the index of the building
+     * @return the size in cells
+     */
+    public int getBuildingSize(int i) {
+        return entities.buildingSize[i];
+    }
+
+    /**
+     * Returns the sprite of a building.
+     *
+     * @param i the index of the building
+     * @return the image
+     */
+    public Image getBuildingImage(int i) {
+        return entities.buildingImage[i];
+    }
+
+    /**
+     * Returns the number of zones.
+     *
+     * @return the zone count
+     */
+    public int getZoneCount() {
+        return entities.zoneX.length;
+    }
+
+    /**
+     * Returns the x-coordinate of a zone.
+     *
+     * @param i the index of the zone
+     * @return the x-coordinate
+     */
+    public int getZoneX(int i) {
+        return entities.zoneX[i];
+    }
+
+    /**
+     * Returns the y-coordinate of a zone.
+     *
+     * @param i the index of the zone
+     * @return the y-coordinate
+     */
+    public int getZoneY(int i) {
+        return entities.zoneY[i];
+    }
+
+    /**
+     * Returns the type of a zone: 0 for residential, 1 for service, 2 for industrial.
+     *
+     * @param i the index of the zone
+     * @return the type
+     */
+    public int getZoneType(int i) {
+        return entities.zoneType[i];
+    }
+
+    /**
+     * Returns the saturation of a zone.
+     *
+     * @param i the index of the zone
+     * @return the saturation
+     */
+    public int getZoneSaturation(int i) {
+        return entities.zoneSaturation[i];
+    }
+
+    /**
+     * Returns the satisfaction of a zone.
+     *
+     * @param i the index of the zone
+     * @return the satisfaction
+     */
+    public int getZoneSatisfaction(int i) {
+        return entities.zoneSatisfaction[i];
+    }
+
+    /**
+     * Returns the sprite of a zone.
+     *
+     * @param i the index of the zone
+     * @return the image, or null if the zone is still empty
+     */
+    public Image getZoneImage(int i) {
+        return entities.zoneImage[i];
+    }
+
+    /**
+     * Finds the zone at the given cell.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the index of the zone, or -1 if there is no zone at the cell
+     */
+    public int findZone(int x, int y) {
+        HashMap<Long, Integer> index = entities.zoneIndex;
+        if(index == null){
+            // Built from immutable columns, so threads racing here build the same index
+            index = new HashMap<Long, Integer>();
+            for(int i = 0; i < entities.zoneX.length; i++){
+                index.put(cellKey(entities.zoneX[i], entities.zoneY[i]), i);
+            }
+            entities.zoneIndex = index;
+        }
+        Integer zone = index.get(cellKey(x, y));
+        return zone == null ? -1 : zone;
+    }
+
+    private static long cellKey(int x, int y) {
+        return ((long) x << 32) | (y & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,33 @@
+package settings.simulation;
+
+/**
+ * A Clock decides when the simulation advances.
+ * It calls the given tick action at its own pace until it is stopped; the simulation itself does not
+ * depend on wall-clock time, so the same city can be run in real time, faster, or as fast as possible.
+ */
+public interface Clock {
+    /** The number of milliseconds stop waits at most for a running tick to finish. */
+    long STOP_TIMEOUT_MILLIS = 1000;
+
+    /**
+     * Starts calling the given action once per tick.
+     *
+     * @param tick the action advancing the simulation by one tick
+     */
+    void start(Runnable tick);
+
+    /**
+     * Stops calling the tick action.
+     * Clocks ticking on a thread of their own wait up to STOP_TIMEOUT_MILLIS for the running tick to finish.
+     * The wait is bounded because a command running through the engine may stop the clock while its tick waits
+     * for that command; such a tick still runs once the command returns.
+     */
+    void stop();
+
+    /**
+     * Returns whether the clock is currently calling the tick action.
+     *
+     * @return true if the clock is running, false otherwise
+     */
+    boolean isRunning();
+}
@@ -0,0 +1,131 @@
+package settings.simulation;
+
+import settings.Storage;
+import types.Zone;
+import types.Zones.Industrial;
+import types.Zones.Residential;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
+/**
+ * The InfluencePropagator class keeps the bonuses of residential zones up to date.
+ * Whenever a source of influence (police, stadium, forest or industrial zone) is added, removed, destroyed
+ * or changes its strength, only the residential zones within the radius of that source are queued.
+ * The queued zones are refreshed once per tick, so an unchanged city costs nothing.
+ */
+public class InfluencePropagator {
+    private final Storage storage;
+    private final LinkedHashSet<Residential> pending = new LinkedHashSet<Residential>();
+
+    /**
+     * Constructs a propagator working on the given storage.
+     *
+     * @param storage the storage whose residential zones are updated
+     */
+    public InfluencePropagator(Storage storage) {
+        this.storage = storage;
+    }
+
+    /**
+     * Queues every residential zone within the radius of a changed source.
+     *
+     * @param x      the x-coordinate of the source
+     * @param y      the y-coordinate of the source
+     * @param size   the side length of the source footprint
+     * @param radius the radius of influence of the source
+     */
+    public void sourceChanged(int x, int y, int size, int radius) {
+        for(int i = x - radius; i <= x + size - 1 + radius; i++){
+            for(int j = y - radius; j <= y + size - 1 + radius; j++){
+                Zone zone = storage.getZoneAt(i, j);
+                if(zone instanceof Residential){
+                    pending.add((Residential) zone);
+                }
+            }
+        }
+    }
+
+    /**
+     * Queues the residential zones affected by an industrial zone.
+     *
+     * @param industry the industrial zone that was added or removed
+     */
+    public void sourceChanged(Industrial industry) {
+        sourceChanged(industry.getX(), industry.getY(), industry.getSize(), industry.getRadius());
+    }
+
+    /**
+     * Queues a single residential zone, e.g. one that has just been placed.
+     *
+     * @param resZone the residential zone to refresh
+     */
+    public void zoneChanged(Residential resZone) {
+        pending.add(resZone);
+    }
+
+    /**
+     * Returns the number of residential zones waiting for a refresh.
+     *
+     * @return the number of queued zones
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Refreshes the bonuses of every queued residential zone that is still on the map.
+     *
+     * @return the zones whose bonuses were refreshed
+     */
+    public ArrayList<Residential> propagate() {
+        return propagate(null);
+    }
+
+    /**
+     * Refreshes the bonuses of every queued residential zone that is still on the map,
+     * spreading the zones over the regions of the given parallel tick.
+     * Refreshing only reads the city and writes to the zone itself, so the result does not depend on the order.
+     *
+     * @param parallel the parallel tick to use, or null to refresh on the calling thread
+     * @return the zones whose bonuses were refreshed, in the order they were queued
+     */
+    public ArrayList<Residential> propagate(ParallelTick parallel) {
+        ArrayList<Residential> refreshed = new ArrayList<Residential>(pending.size());
+        for(Residential resZone: pending){
+            if(storage.getZoneAt(resZone.getX(), resZone.getY()) != resZone) continue;
+            refreshed.add(resZone);
+        }
+        pending.clear();
+        if(parallel == null){
+            for(Residential resZone: refreshed){
+                refresh(resZone);
+            }
+        }
+        else{
+            parallel.forEach(refreshed, i -> refresh(refreshed.get(i)));
+        }
+        return refreshed;
+    }
+
+    /**
+     * Recomputes the police, stadium, forest and industrial bonuses of a residential zone.
+     *
+     * @param resZone the residential zone
+     */
+    public void refresh(Residential resZone) {
+        resZone.setPoliceBonus(storage.checkPolice(resZone));
+        resZone.setStadiumBonus(storage.checkStadium(resZone));
+        resZone.setForestBonus(storage.checkForest(resZone));
+
+        Industrial industry = storage.checkIndustrial(resZone);
+        if(industry != null){
+            int distance = (int) (Math.pow(resZone.getX()-industry.getX(), 2) + Math.pow(resZone.getY()-industry.getY(), 2));
+            resZone.setDistance(distance);
+        }
+        else{
+            resZone.setDistance(0);
+        }
+        resZone.setIndustrialEffect(storage.checkIndustrialEffect(resZone));
+    }
+}
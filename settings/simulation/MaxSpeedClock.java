@@ -0,0 +1,46 @@
+package settings.simulation;
+
+/**
+ * The MaxSpeedClock class ticks as fast as the simulation allows on a background thread.
+ * A tick that throws is reported and stops the clock.
+ */
+public class MaxSpeedClock implements Clock {
+    private volatile boolean running = false;
+    private Thread thread;
+
+    @Override
+    public void start(Runnable tick) {
+        stop();
+        running = true;
+        thread = new Thread(() -> {
+            try {
+                while(running){
+                    tick.run();
+                }
+            } catch (RuntimeException | Error e) {
+                e.printStackTrace();
+                running = false;
+            }
+        }, "simulation-clock");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if(thread != null && thread != Thread.currentThread()){
+            try {
+                // Bounded, the tick may be waiting for the command that stops the clock
+                thread.join(STOP_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,145 @@
+package settings.simulation;
+
+import settings.world.ChunkedGrid;
+import types.Zone;
+import types.Zones.Residential;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * The ParallelTick class spreads the per-zone work of a tick over the threads of a ForkJoinPool.
+ * The map is split into square regions of the size of a grid chunk, the zones to process are grouped by
+ * region, and each region is handled by one task. Only work that reads the city and writes to the zone
+ * it is given runs in parallel; its results are stored per zone and applied afterwards by the caller
+ * in the same order as a sequential tick, so both modes give identical cities.
+ */
+public class ParallelTick {
+    private static final int REGION_BITS = ChunkedGrid.CHUNK_BITS;
+    // Below this many zones, forking costs more than it saves
+    static final int SEQUENTIAL_THRESHOLD = 64;
+
+    private final ForkJoinPool pool;
+    private final int regionsX;
+    private final int regionCount;
+
+    /**
+     * Constructs a parallel tick for a map of the given size running on the given pool.
+     *
+     * @param pool   the pool running the region tasks
+     * @param width  the number of cells along the x-axis
+     * @param height the number of cells along the y-axis
+     */
+    public ParallelTick(ForkJoinPool pool, int width, int height) {
+        this.pool = pool;
+        int mask = (1 << REGION_BITS) - 1;
+        this.regionsX = (width + mask) >> REGION_BITS;
+        this.regionCount = regionsX * ((height + mask) >> REGION_BITS);
+    }
+
+    /**
+     * Constructs a parallel tick for a map of the given size running on the common pool.
+     *
+     * @param width  the number of cells along the x-axis
+     * @param height the number of cells along the y-axis
+     */
+    public ParallelTick(int width, int height) {
+        this(ForkJoinPool.commonPool(), width, height);
+    }
+
+    /**
+     * Returns the pool running the region tasks.
+     *
+     * @return the pool
+     */
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Runs the given action for the position of every zone in the list, region by region in parallel.
+     * Actions for zones of the same region run one after the other, in list order.
+     *
+     * @param zones  the zones to process
+     * @param action the action receiving the position of a zone in the list
+     */
+    public void forEach(List<? extends Zone> zones, IntConsumer action) {
+        int n = zones.size();
+        if(n < SEQUENTIAL_THRESHOLD || pool.getParallelism() < 2){
+            for(int i = 0; i < n; i++){
+                action.accept(i);
+            }
+            return;
+        }
+        // Counting sort of the positions by region
+        int[] region = new int[n];
+        int[] start = new int[regionCount + 1];
+        for(int i = 0; i < n; i++){
+            Zone zone = zones.get(i);
+            region[i] = (zone.getY() >> REGION_BITS) * regionsX + (zone.getX() >> REGION_BITS);
+            start[region[i] + 1]++;
+        }
+        int used = 0;
+        for(int r = 0; r < regionCount; r++){
+            if(start[r + 1] > 0) used++;
+            start[r + 1] += start[r];
+        }
+        int[] order = new int[n];
+        int[] fill = start.clone();
+        for(int i = 0; i < n; i++){
+            order[fill[region[i]]++] = i;
+        }
+        int[] regions = new int[used];
+        used = 0;
+        for(int r = 0; r < regionCount; r++){
+            if(start[r + 1] > start[r]) regions[used++] = r;
+        }
+        pool.invoke(new RegionTask(order, start, regions, 0, regions.length, action));
+    }
+
+    /**
+     * Computes the satisfaction of every given residential zone in parallel without applying it.
+     *
+     * @param zones the residential zones
+     * @return the satisfaction of each zone, at the position of the zone in the list
+     */
+    public int[] computeSatisfaction(List<? extends Zone> zones) {
+        int[] values = new int[zones.size()];
+        forEach(zones, i -> values[i] = ((Residential) zones.get(i)).computeSatisfaction());
+        return values;
+    }
+
+    private static class RegionTask extends RecursiveAction {
+        private final int[] order;
+        private final int[] start;
+        private final int[] regions;
+        private final int from;
+        private final int to;
+        private final IntConsumer action;
+
+        RegionTask(int[] order, int[] start, int[] regions, int from, int to, IntConsumer action) {
+            this.order = order;
+            this.start = start;
+            this.regions = regions;
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from > 1){
+                int mid = (from + to) >>> 1;
+                invokeAll(new RegionTask(order, start, regions, from, mid, action),
+                          new RegionTask(order, start, regions, mid, to, action));
+                return;
+            }
+            int r = regions[from];
+            for(int k = start[r]; k < start[r + 1]; k++){
+                action.accept(order[k]);
+            }
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package settings.simulation;
+
+import javax.swing.Timer;
+
+/**
+ * The RealTimeClock class ticks once per second on the Swing event thread, which is the pace of the game.
+ */
+public class RealTimeClock implements Clock {
+    /** The number of milliseconds between two ticks at normal game pace. */
+    public static final int TICK_MILLIS = 1000;
+
+    private Timer timer;
+
+    @Override
+    public void start(Runnable tick) {
+        stop();
+        timer = new Timer(TICK_MILLIS, e -> tick.run());
+        timer.start();
+    }
+
+    @Override
+    public void stop() {
+        if(timer != null) timer.stop();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return timer != null && timer.isRunning();
+    }
+
+    /**
+     * Returns the Swing timer driving the ticks.
+     *
+     * @return the timer, or null if the clock has never been started
+     */
+    public Timer getTimer() {
+        return timer;
+    }
+}
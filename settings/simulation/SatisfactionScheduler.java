@@ -0,0 +1,102 @@
+package settings.simulation;
+
+import types.CitizenStore;
+import types.Zone;
+import types.Zones.Industrial;
+import types.Zones.Residential;
+import types.Zones.Service;
+
+import java.util.ArrayList;
+
+/**
+ * The SatisfactionScheduler class recomputes the satisfaction of the zones whose inputs have changed.
+ * Residential zones become dirty when their bonuses or saturation change, workplaces become dirty when
+ * a worker is assigned or the satisfaction of one of their workers changes.
+ * It also remembers whether the workplace search could find anything new since its last run.
+ */
+public class SatisfactionScheduler {
+    private final ArrayList<Zone> residentialQueue = new ArrayList<Zone>();
+    private final ArrayList<Zone> workplaceQueue = new ArrayList<Zone>();
+    private boolean workplacesDirty = true;
+
+    /**
+     * Queues a zone for a satisfaction update, unless it is already queued.
+     *
+     * @param zone the zone whose inputs have changed
+     */
+    public void markDirty(Zone zone) {
+        if(zone == null || zone.isDirty()) return;
+        zone.setDirty(true);
+        if(zone instanceof Residential) residentialQueue.add(zone);
+        else workplaceQueue.add(zone);
+    }
+
+    /**
+     * Returns the number of zones waiting for a satisfaction update.
+     *
+     * @return the number of dirty zones
+     */
+    public int getDirtyCount() {
+        return residentialQueue.size() + workplaceQueue.size();
+    }
+
+    /**
+     * Records that the workplace search may find new workplaces, e.g. after the map or the population changed.
+     */
+    public void markWorkplacesDirty() {
+        workplacesDirty = true;
+    }
+
+    /**
+     * Returns whether the workplace search may find new workplaces and resets the flag.
+     *
+     * @return true if the workplace search has to run, false otherwise
+     */
+    public boolean takeWorkplacesDirty() {
+        boolean result = workplacesDirty;
+        workplacesDirty = false;
+        return result;
+    }
+
+    /**
+     * Recomputes the satisfaction of the dirty residential zones, then of the workplaces that became dirty.
+     */
+    public void run() {
+        run(null);
+    }
+
+    /**
+     * Recomputes the satisfaction of the dirty residential zones, then of the workplaces that became dirty.
+     * The satisfaction of the residential zones is computed in parallel by region, then applied in queue order,
+     * so the citizens, the running sums and the workplaces change exactly as in a sequential run.
+     *
+     * @param parallel the parallel tick to use, or null to compute on the calling thread
+     */
+    public void run(ParallelTick parallel) {
+        int[] values = parallel == null ? null : parallel.computeSatisfaction(residentialQueue);
+        for(int i = 0; i < residentialQueue.size(); i++){
+            Residential resZone = (Residential) residentialQueue.get(i);
+            resZone.setDirty(false);
+            int delta = values == null ? resZone.updateSatisfaction() : resZone.applySatisfaction(values[i]);
+            if(delta != 0){
+                workplacesDirty = true;
+                CitizenStore store = resZone.getStore();
+                for(int j = 0; j < resZone.getPeopleCount(); j++){
+                    markDirty(store.getWorkplace(resZone.getPerson(j)));
+                }
+            }
+        }
+        residentialQueue.clear();
+        for(int i = 0; i < workplaceQueue.size(); i++){
+            Zone zone = workplaceQueue.get(i);
+            zone.setDirty(false);
+            if(zone instanceof Service){
+                ((Service) zone).updateSatisfaction();
+            }
+            else if(zone instanceof Industrial){
+                ((Industrial) zone).updateSatisfaction();
+            }
+        }
+        workplaceQueue.clear();
+    }
+}
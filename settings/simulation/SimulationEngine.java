@@ -0,0 +1,140 @@
+package settings.simulation;
+
+import settings.Storage;
+
+import java.util.function.Supplier;
+
+/**
+ * The SimulationEngine class advances a city one fixed step at a time.
+ * A tick is one firing of the former game timer: the date moves by the game speed and the monthly, yearly
+ * and satisfaction updates run. Ticks can be run explicitly, e.g. to simulate decades in a batch, or be
+ * driven by a clock. Ticks are serialized, so a clock and explicit calls never run at the same time.
+ * Commands from the interface run through execute, between two ticks.
+ * After every tick and command the engine publishes an immutable CitySnapshot; readers take the latest one
+ * without locking, so drawing the city never blocks or races with the simulation. A snapshot only copies the
+ * buildings and zones again when the change count of the city moved, so idle ticks stay cheap.
+ */
+public class SimulationEngine {
+    private final Storage storage;
+    private Clock clock;
+    private long tickCount = 0;
+    private boolean snapshots = true;
+    private long version = 0;
+    private volatile CitySnapshot snapshot;
+
+    /**
+     * Constructs an engine for the given storage, driven by the given clock once started.
+     *
+     * @param storage the city to simulate
+     * @param clock   the clock driving the ticks, or null to only run ticks explicitly
+     */
+    public SimulationEngine(Storage storage, Clock clock) {
+        this.storage = storage;
+        this.clock = clock;
+    }
+
+    /**
+     * Advances the simulation by one tick.
+     */
+    public synchronized void tick() {
+        storage.tick();
+        tickCount++;
+        publish();
+        storage.trimTiles();
+    }
+
+    /**
+     * Runs a command changing the city between two ticks, then publishes a snapshot of the result.
+     *
+     * @param command the command, e.g. placing a building
+     * @param <T>     the type of the result of the command
+     * @return the result of the command
+     */
+    public synchronized <T> T execute(Supplier<T> command) {
+        T result = command.get();
+        publish();
+        storage.trimTiles();
+        return result;
+    }
+
+    /**
+     * Publishes a snapshot of the current state of the city, unless snapshots are turned off.
+     */
+    public synchronized void publish() {
+        if(!snapshots) return;
+        snapshot = CitySnapshot.capture(storage, ++version, storage.getChangeCount(), snapshot);
+    }
+
+    /**
+     * Returns the latest published snapshot. Never blocks.
+     *
+     * @return the snapshot, or null if none has been published yet
+     */
+    public CitySnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Sets whether snapshots are published, e.g. to save the copies in batch runs nobody watches.
+     *
+     * @param b true to publish a snapshot after every tick and command, false otherwise
+     */
+    public synchronized void setSnapshots(boolean b) {
+        snapshots = b;
+    }
+
+    /**
+     * Advances the simulation by the given number of ticks on the calling thread.
+     *
+     * @param n the number of ticks to run
+     */
+    public void runTicks(long n) {
+        for(long i = 0; i < n; i++){
+            tick();
+        }
+    }
+
+    /**
+     * Returns the number of ticks run since the engine was created.
+     *
+     * @return the tick count
+     */
+    public synchronized long getTickCount() {
+        return tickCount;
+    }
+
+    /**
+     * Starts the clock, if there is one.
+     */
+    public void start() {
+        if(clock != null) clock.start(this::tick);
+    }
+
+    /**
+     * Stops the clock, if there is one.
+     */
+    public void stop() {
+        if(clock != null) clock.stop();
+    }
+
+    /**
+     * Returns the clock driving the ticks.
+     *
+     * @return the clock, or null if ticks only run explicitly
+     */
+    public Clock getClock() {
+        return clock;
+    }
+
+    /**
+     * Replaces the clock driving the ticks. The new clock is started if the old one was running.
+     *
+     * @param newClock the new clock, or null to only run ticks explicitly
+     */
+    public void setClock(Clock newClock) {
+        boolean running = clock != null && clock.isRunning();
+        stop();
+        clock = newClock;
+        if(running) start();
+    }
+}
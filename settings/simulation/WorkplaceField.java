@@ -0,0 +1,148 @@
+package settings.simulation;
+
+import settings.Storage;
+import settings.world.RoadGraph;
+import types.Buildings.Road;
+import types.Zone;
+import types.Zones.Residential;
+
+import java.util.Arrays;
+
+/**
+ * The WorkplaceField class labels every road with its nearest workplace and the road distance to it.
+ * It runs one breadth-first search seeded from the roads next to every workplace with free capacity,
+ * so the cost of a build is linear in the number of roads, and a residential zone then picks its
+ * nearest workplace by looking at the labels of its neighbouring roads only.
+ * Every road also remembers the next road towards its workplace, so the path can be read back.
+ */
+public class WorkplaceField {
+    private final Storage storage;
+    private final RoadGraph graph;
+
+    private int[] distance = new int[0];
+    private int[] next = new int[0];
+    private Zone[] source = new Zone[0];
+    private int[] queue = new int[0];
+    private int[] path = new int[0];
+    private int pathLength = 0;
+    private boolean candidate = false;
+
+    /**
+     * Constructs a field over the roads of the given graph.
+     *
+     * @param storage the storage holding the zones
+     * @param graph   the road graph of the map
+     */
+    public WorkplaceField(Storage storage, RoadGraph graph) {
+        this.storage = storage;
+        this.graph = graph;
+    }
+
+    /**
+     * Labels every road with its nearest workplace that currently has free capacity.
+     */
+    public void build() {
+        int capacity = graph.getNodeCapacity();
+        if(distance.length < capacity){
+            int newCapacity = Math.max(capacity, distance.length * 2);
+            distance = new int[newCapacity];
+            next = new int[newCapacity];
+            source = new Zone[newCapacity];
+            queue = new int[newCapacity];
+            path = new int[newCapacity];
+        }
+        Arrays.fill(distance, 0, capacity, -1);
+        Arrays.fill(source, 0, capacity, null);
+        int head = 0, tail = 0;
+        for(Zone zone: storage.getZones()){
+            if(!isWorkplace(zone)) continue;
+            for(int d = 0; d < 4; d++){
+                int node = graph.getNode(zone.getX() + RoadGraph.DX[d], zone.getY() + RoadGraph.DY[d]);
+                if(node != -1 && distance[node] == -1){
+                    distance[node] = 0;
+                    next[node] = -1;
+                    source[node] = zone;
+                    queue[tail++] = node;
+                }
+            }
+        }
+        while(head < tail){
+            int node = queue[head++];
+            for(int d = 0; d < 4; d++){
+                int neighbour = graph.getNeighbour(node, d);
+                if(neighbour != -1 && distance[neighbour] == -1){
+                    distance[neighbour] = distance[node] + 1;
+                    next[neighbour] = node;
+                    source[neighbour] = source[node];
+                    queue[tail++] = neighbour;
+                }
+            }
+        }
+    }
+
+    /**
+     * Picks the nearest labelled workplace for the given cell.
+     * A workplace right next to the cell is preferred and needs no road.
+     * When the nearest workplace has been filled since the field was built, no workplace is returned,
+     * and hadCandidate tells that a search may still find another one.
+     *
+     * @param x the x-coordinate of the cell
+     * @param y the y-coordinate of the cell
+     * @return the nearest workplace with free capacity, or null
+     */
+    public Zone find(int x, int y) {
+        pathLength = 0;
+        candidate = false;
+        for(int d = 0; d < 4; d++){
+            Zone zone = storage.getZoneAt(x + RoadGraph.DX[d], y + RoadGraph.DY[d]);
+            if(isWorkplace(zone)) return zone;
+        }
+        int best = -1;
+        for(int d = 0; d < 4; d++){
+            int node = graph.getNode(x + RoadGraph.DX[d], y + RoadGraph.DY[d]);
+            if(node != -1 && node < distance.length && distance[node] != -1){
+                if(best == -1 || distance[node] < distance[best]) best = node;
+            }
+        }
+        if(best == -1) return null;
+        candidate = true;
+        Zone workPlace = source[best];
+        if(workPlace.getAvailableSize() == 0) return null;
+        for(int node = best; node != -1; node = next[node]){
+            path[pathLength++] = node;
+        }
+        return workPlace;
+    }
+
+    /**
+     * Returns whether the last call to find reached a labelled workplace, even one that is full by now.
+     *
+     * @return true if a workplace was reachable when the field was built
+     */
+    public boolean hadCandidate() {
+        return candidate;
+    }
+
+    /**
+     * Returns the number of roads on the path of the last successful find.
+     *
+     * @return the path length
+     */
+    public int getPathLength() {
+        return pathLength;
+    }
+
+    /**
+     * Returns a road on the path of the last successful find.
+     *
+     * @param index the position on the path, 0 being the road next to the starting cell
+     * @return the road at that position
+     */
+    public Road getPathRoad(int index) {
+        return graph.getRoad(path[index]);
+    }
+
+    private static boolean isWorkplace(Zone zone) {
+        return zone != null && !(zone instanceof Residential) && zone.getAvailableSize() > 0;
+    }
+}
@@ -0,0 +1,151 @@
+package settings.simulation;
+
+import settings.Storage;
+import settings.world.RoadGraph;
+import types.Buildings.Road;
+import types.Zone;
+import types.Zones.Residential;
+
+import java.util.Arrays;
+
+/**
+ * The WorkplaceFinder class finds the nearest workplace with free capacity for a cell of the map.
+ * It runs a breadth-first search over the road graph with an explicit queue.
+ * Visited nodes are marked with the number of the search instead of being cleared,
+ * so a search costs only the nodes it visits and allocates nothing per cell.
+ * The roads of the last path found can be read back to mark them as used.
+ */
+public class WorkplaceFinder {
+    private final Storage storage;
+    private final RoadGraph graph;
+
+    private int epoch = 0;
+    private int[] visited = new int[0];
+    private int[] parent = new int[0];
+    private int[] queue = new int[0];
+    private int[] path = new int[0];
+    private int pathLength = 0;
+
+    /**
+     * Constructs a finder searching the roads of the given graph.
+     *
+     * @param storage the storage holding the zones
+     * @param graph   the road graph of the map
+     */
+    public WorkplaceFinder(Storage storage, RoadGraph graph) {
+        this.storage = storage;
+        this.graph = graph;
+    }
+
+    /**
+     * Finds the workplace with free capacity closest to the given cell by road.
+     * A workplace right next to the cell is reached without any road.
+     *
+     * @param x the x-coordinate of the starting cell
+     * @param y the y-coordinate of the starting cell
+     * @return the nearest workplace, or null if none can be reached
+     */
+    public Zone find(int x, int y) {
+        pathLength = 0;
+        for(int d = 0; d < 4; d++){
+            if(isWorkplace(x + RoadGraph.DX[d], y + RoadGraph.DY[d])) return storage.getZoneAt(x + RoadGraph.DX[d], y + RoadGraph.DY[d]);
+        }
+        prepare();
+        int head = 0, tail = 0;
+        for(int d = 0; d < 4; d++){
+            int node = graph.getNode(x + RoadGraph.DX[d], y + RoadGraph.DY[d]);
+            if(node != -1 && visited[node] != epoch){
+                visited[node] = epoch;
+                parent[node] = -1;
+                queue[tail++] = node;
+            }
+        }
+        while(head < tail){
+            int node = queue[head++];
+            int nodeX = graph.getX(node);
+            int nodeY = graph.getY(node);
+            for(int d = 0; d < 4; d++){
+                if(isWorkplace(nodeX + RoadGraph.DX[d], nodeY + RoadGraph.DY[d])){
+                    storePath(node);
+                    return storage.getZoneAt(nodeX + RoadGraph.DX[d], nodeY + RoadGraph.DY[d]);
+                }
+            }
+            for(int d = 0; d < 4; d++){
+                int next = graph.getNeighbour(node, d);
+                if(next != -1 && visited[next] != epoch){
+                    visited[next] = epoch;
+                    parent[next] = node;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of roads on the path of the last successful search.
+     *
+     * @return the path length
+     */
+    public int getPathLength() {
+        return pathLength;
+    }
+
+    /**
+     * Returns a road on the path of the last successful search.
+     *
+     * @param index the position on the path, 0 being the road next to the starting cell
+     * @return the road at that position
+     */
+    public Road getPathRoad(int index) {
+        return graph.getRoad(path[index]);
+    }
+
+    /**
+     * Forgets every visited mark, e.g. after the road graph was rebuilt.
+     */
+    public void reset() {
+        epoch = 0;
+        Arrays.fill(visited, 0);
+        pathLength = 0;
+    }
+
+    /**
+     * Checks if the given cell holds a workplace with free capacity.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if the cell is a non-residential zone with free capacity
+     */
+    private boolean isWorkplace(int x, int y) {
+        Zone zone = storage.getZoneAt(x, y);
+        return zone != null && !(zone instanceof Residential) && zone.getAvailableSize() > 0;
+    }
+
+    private void prepare() {
+        int capacity = graph.getNodeCapacity();
+        if(visited.length < capacity){
+            int newCapacity = Math.max(capacity, visited.length * 2);
+            visited = Arrays.copyOf(visited, newCapacity);
+            parent = new int[newCapacity];
+            queue = new int[newCapacity];
+            path = new int[newCapacity];
+        }
+        epoch++;
+        if(epoch == Integer.MAX_VALUE){
+            Arrays.fill(visited, 0);
+            epoch = 1;
+        }
+    }
+
+    private void storePath(int last) {
+        int length = 0;
+        for(int node = last; node != -1; node = parent[node]){
+            length++;
+        }
+        pathLength = length;
+        for(int node = last; node != -1; node = parent[node]){
+            path[--length] = node;
+        }
+    }
+}
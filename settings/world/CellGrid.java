@@ -0,0 +1,55 @@
+package settings.world;
+
+/**
+ * A CellGrid stores one value per map cell.
+ * A ChunkedGrid keeps the values as references on the heap, a TileGrid keeps a slot number per cell in the
+ * records of a ChunkStore and only the distinct values on the heap.
+ *
+ * @param <T> the type of the values stored in the cells
+ */
+public interface CellGrid<T> {
+
+    /**
+     * Returns the number of cells along the x-axis.
+     *
+     * @return the width of the grid
+     */
+    int getWidth();
+
+    /**
+     * Returns the number of cells along the y-axis.
+     *
+     * @return the height of the grid
+     */
+    int getHeight();
+
+    /**
+     * Checks if the given cell lies inside the grid.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if the cell is inside the grid, false otherwise
+     */
+    default boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < getWidth() && y < getHeight();
+    }
+
+    /**
+     * Returns the value stored in the given cell.
+     * Cells outside the grid are empty.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the stored value, or null if the cell is empty
+     */
+    T get(int x, int y);
+
+    /**
+     * Stores a value in the given cell.
+     *
+     * @param x     the x-coordinate
+     * @param y     the y-coordinate
+     * @param value the value to store, or null to clear the cell
+     */
+    void set(int x, int y, T value);
+}
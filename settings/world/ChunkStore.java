@@ -0,0 +1,111 @@
+package settings.world;
+
+import java.io.Closeable;
+
+/**
+ * A ChunkStore keeps one fixed-size record per map cell outside the heap objects of the city.
+ * The map is split into the same 64x64 chunks as the ChunkedGrid, and the records of a chunk lie row after row,
+ * so scanning a row of cells reads consecutive bytes. Where the chunks live is up to the implementation.
+ * Accessing a cell outside the map or bytes past the end of a record throws an IndexOutOfBoundsException.
+ */
+public interface ChunkStore extends Closeable {
+
+    /**
+     * Returns the number of cells along the x-axis.
+     *
+     * @return the width of the map
+     */
+    int getWidth();
+
+    /**
+     * Returns the number of cells along the y-axis.
+     *
+     * @return the height of the map
+     */
+    int getHeight();
+
+    /**
+     * Returns the number of bytes of the record of a cell.
+     *
+     * @return the record size
+     */
+    int getRecordSize();
+
+    /**
+     * Checks if the given cell lies inside the map.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if the cell is inside the map, false otherwise
+     */
+    default boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < getWidth() && y < getHeight();
+    }
+
+    /**
+     * Reads one byte of the record of a cell.
+     *
+     * @param x      the x-coordinate
+     * @param y      the y-coordinate
+     * @param offset the position of the byte in the record
+     * @return the byte
+     */
+    byte getByte(int x, int y, int offset);
+
+    /**
+     * Writes one byte of the record of a cell.
+     *
+     * @param x      the x-coordinate
+     * @param y      the y-coordinate
+     * @param offset the position of the byte in the record
+     * @param value  the byte
+     */
+    void putByte(int x, int y, int offset, byte value);
+
+    /**
+     * Reads two bytes of the record of a cell.
+     *
+     * @param x      the x-coordinate
+     * @param y      the y-coordinate
+     * @param offset the position of the first byte in the record
+     * @return the short
+     */
+    short getShort(int x, int y, int offset);
+
+    /**
+     * Writes two bytes of the record of a cell.
+     *
+     * @param x      the x-coordinate
+     * @param y      the y-coordinate
+     * @param offset the position of the first byte in the record
+     * @param value  the short
+     */
+    void putShort(int x, int y, int offset, short value);
+
+    /**
+     * Reads four bytes of the record of a cell.
+     *
+     * @param x      the x-coordinate
+     * @param y      the y-coordinate
+     * @param offset the position of the first byte in the record
+     * @return the int
+     */
+    int getInt(int x, int y, int offset);
+
+    /**
+     * Writes four bytes of the record of a cell.
+     *
+     * @param x      the x-coordinate
+     * @param y      the y-coordinate
+     * @param offset the position of the first byte in the record
+     * @param value  the int
+     */
+    void putInt(int x, int y, int offset, int value);
+
+    /**
+     * Gives back the memory of the chunks the store no longer keeps. No other thread may use the store meanwhile,
+     * e.g. it runs between two ticks. Stores that free their chunks at once do nothing.
+     */
+    default void trim() {
+    }
+}
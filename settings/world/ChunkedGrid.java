@@ -0,0 +1,132 @@
+package settings.world;
+
+import java.io.Serializable;
+
+/**
+ * The ChunkedGrid class stores one value per map cell for maps of arbitrary size.
+ * The map is split into square chunks which are only allocated when a value is written into them,
+ * so empty regions of a large map cost a single null reference per chunk.
+ *
+ * @param <T> the type of the values stored in the cells
+ */
+public class ChunkedGrid<T> implements CellGrid<T>, Serializable {
+    public static final int CHUNK_BITS = 6;
+    public static final int CHUNK_SIZE = 1 << CHUNK_BITS; // 64x64 cells per chunk
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int width;
+    private final int height;
+    private final int chunksX;
+    private final int chunksY;
+    private final Object[][] chunks;
+
+    /**
+     * Constructs an empty grid with the given dimensions.
+     *
+     * @param width  the number of cells along the x-axis
+     * @param height the number of cells along the y-axis
+     */
+    public ChunkedGrid(int width, int height) {
+        if(width <= 0 || height <= 0){
+            throw new IllegalArgumentException("Grid dimensions must be positive: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.chunksX = (width + CHUNK_MASK) >> CHUNK_BITS;
+        this.chunksY = (height + CHUNK_MASK) >> CHUNK_BITS;
+        this.chunks = new Object[chunksX * chunksY][];
+    }
+
+    /**
+     * Returns the number of cells along the x-axis.
+     *
+     * @return the width of the grid
+     */
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the number of cells along the y-axis.
+     *
+     * @return the height of the grid
+     */
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Checks if the given cell lies inside the grid.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if the cell is inside the grid, false otherwise
+     */
+    @Override
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * Returns the value stored in the given cell.
+     * Cells outside the grid and cells of unallocated chunks are empty.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the stored value, or null if the cell is empty
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int x, int y) {
+        if(!inBounds(x, y)) return null;
+        Object[] chunk = chunks[chunkIndex(x, y)];
+        if(chunk == null) return null;
+        return (T) chunk[cellIndex(x, y)];
+    }
+
+    /**
+     * Stores a value in the given cell, allocating its chunk if needed.
+     * Writing null into an unallocated chunk does not allocate it.
+     *
+     * @param x     the x-coordinate
+     * @param y     the y-coordinate
+     * @param value the value to store, or null to clear the cell
+     */
+    @Override
+    public void set(int x, int y, T value) {
+        if(!inBounds(x, y)){
+            throw new IndexOutOfBoundsException("Cell (" + x + ", " + y + ") is outside the " + width + "x" + height + " grid");
+        }
+        int index = chunkIndex(x, y);
+        Object[] chunk = chunks[index];
+        if(chunk == null){
+            if(value == null) return;
+            chunk = new Object[CHUNK_SIZE * CHUNK_SIZE];
+            chunks[index] = chunk;
+        }
+        chunk[cellIndex(x, y)] = value;
+    }
+
+    /**
+     * Returns the number of chunks that have been allocated so far.
+     *
+     * @return the number of allocated chunks
+     */
+    public int getAllocatedChunks() {
+        int count = 0;
+        for(Object[] chunk: chunks){
+            if(chunk != null) count++;
+        }
+        return count;
+    }
+
+    private int chunkIndex(int x, int y) {
+        return (y >> CHUNK_BITS) * chunksX + (x >> CHUNK_BITS);
+    }
+
+    private static int cellIndex(int x, int y) {
+        return ((y & CHUNK_MASK) << CHUNK_BITS) | (x & CHUNK_MASK);
+    }
+}
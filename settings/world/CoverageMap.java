@@ -0,0 +1,205 @@
+package settings.world;
+
+import java.io.Serializable;
+
+/**
+ * The CoverageMap class counts, for every map cell, how many sources of one kind cover it.
+ * A source covers every cell within its radius of any cell of its footprint.
+ * Sources may carry a level (e.g. the bonus of a forest), and the map keeps a separate count per level
+ * so that the highest level covering a cell is known without looking at the sources themselves.
+ * Counts are kept in lazily allocated chunks of the same size as the ChunkedGrid chunks, either as arrays on the
+ * heap or, for large maps, in a DirectChunkStore outside the heap holding one int per level for every cell.
+ * Queries cost O(levels), updates cost O(footprint area).
+ */
+public class CoverageMap implements Serializable {
+    private static final int CHUNK_BITS = ChunkedGrid.CHUNK_BITS;
+    private static final int CHUNK_SIZE = ChunkedGrid.CHUNK_SIZE;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int width;
+    private final int height;
+    private final int chunksX;
+    private final int levels;
+    private final int[][][] counts;
+    private final transient DirectChunkStore store;
+
+    /**
+     * Constructs a coverage map for sources without levels.
+     *
+     * @param width  the number of cells along the x-axis
+     * @param height the number of cells along the y-axis
+     */
+    public CoverageMap(int width, int height) {
+        this(width, height, 1);
+    }
+
+    /**
+     * Constructs a coverage map for sources with levels from 1 to the given maximum.
+     *
+     * @param width  the number of cells along the x-axis
+     * @param height the number of cells along the y-axis
+     * @param levels the highest level a source can have
+     */
+    public CoverageMap(int width, int height, int levels) {
+        this(width, height, levels, false);
+    }
+
+    /**
+     * Constructs a coverage map for sources with levels from 1 to the given maximum, keeping the counts on or
+     * off the heap.
+     *
+     * @param width   the number of cells along the x-axis
+     * @param height  the number of cells along the y-axis
+     * @param levels  the highest level a source can have
+     * @param offHeap true to keep the counts outside the heap
+     */
+    public CoverageMap(int width, int height, int levels, boolean offHeap) {
+        this.width = width;
+        this.height = height;
+        this.levels = levels;
+        this.chunksX = (width + CHUNK_MASK) >> CHUNK_BITS;
+        int chunksY = (height + CHUNK_MASK) >> CHUNK_BITS;
+        this.counts = offHeap ? null : new int[levels][chunksX * chunksY][];
+        this.store = offHeap ? new DirectChunkStore(width, height, 4 * levels) : null;
+    }
+
+    /**
+     * Adds a level 1 source with the given footprint and radius.
+     *
+     * @param x      the x-coordinate of the footprint origin
+     * @param y      the y-coordinate of the footprint origin
+     * @param size   the side length of the footprint
+     * @param radius the radius covered around the footprint
+     */
+    public void add(int x, int y, int size, int radius) {
+        update(x, y, size, radius, 1, 1);
+    }
+
+    /**
+     * Removes a level 1 source with the given footprint and radius.
+     *
+     * @param x      the x-coordinate of the footprint origin
+     * @param y      the y-coordinate of the footprint origin
+     * @param size   the side length of the footprint
+     * @param radius the radius covered around the footprint
+     */
+    public void remove(int x, int y, int size, int radius) {
+        update(x, y, size, radius, 1, -1);
+    }
+
+    /**
+     * Adds a source of the given level.
+     *
+     * @param x      the x-coordinate of the footprint origin
+     * @param y      the y-coordinate of the footprint origin
+     * @param size   the side length of the footprint
+     * @param radius the radius covered around the footprint
+     * @param level  the level of the source, from 1 to the maximum level
+     */
+    public void add(int x, int y, int size, int radius, int level) {
+        update(x, y, size, radius, level, 1);
+    }
+
+    /**
+     * Removes a source of the given level.
+     *
+     * @param x      the x-coordinate of the footprint origin
+     * @param y      the y-coordinate of the footprint origin
+     * @param size   the side length of the footprint
+     * @param radius the radius covered around the footprint
+     * @param level  the level the source was added with
+     */
+    public void remove(int x, int y, int size, int radius, int level) {
+        update(x, y, size, radius, level, -1);
+    }
+
+    /**
+     * Checks if any source covers the given cell.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if the cell is covered, false otherwise
+     */
+    public boolean covered(int x, int y) {
+        return maxLevel(x, y) > 0;
+    }
+
+    /**
+     * Returns the number of sources of the given level covering the cell.
+     *
+     * @param x     the x-coordinate
+     * @param y     the y-coordinate
+     * @param level the level to count
+     * @return the number of covering sources of that level
+     */
+    public int count(int x, int y, int level) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return 0;
+        if(store != null) return store.getInt(x, y, 4 * (level - 1));
+        int[] chunk = counts[level - 1][chunkIndex(x, y)];
+        if(chunk == null) return 0;
+        return chunk[cellIndex(x, y)];
+    }
+
+    /**
+     * Returns the highest level of the sources covering the cell.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the highest covering level, or 0 if the cell is not covered
+     */
+    public int maxLevel(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return 0;
+        if(store != null){
+            for(int level = levels; level >= 1; level--){
+                if(store.getInt(x, y, 4 * (level - 1)) > 0) return level;
+            }
+            return 0;
+        }
+        int chunkIndex = chunkIndex(x, y);
+        int cellIndex = cellIndex(x, y);
+        for(int level = levels; level >= 1; level--){
+            int[] chunk = counts[level - 1][chunkIndex];
+            if(chunk != null && chunk[cellIndex] > 0) return level;
+        }
+        return 0;
+    }
+
+    private void update(int x, int y, int size, int radius, int level, int delta) {
+        if(level < 1 || level > levels){
+            throw new IllegalArgumentException("Level " + level + " is outside 1.." + levels);
+        }
+        int fromX = Math.max(0, x - radius);
+        int toX = Math.min(width - 1, x + size - 1 + radius);
+        int fromY = Math.max(0, y - radius);
+        int toY = Math.min(height - 1, y + size - 1 + radius);
+        if(store != null){
+            int offset = 4 * (level - 1);
+            for(int j = fromY; j <= toY; j++){
+                for(int i = fromX; i <= toX; i++){
+                    store.putInt(i, j, offset, store.getInt(i, j, offset) + delta);
+                }
+            }
+            return;
+        }
+        int[][] layer = counts[level - 1];
+        for(int j = fromY; j <= toY; j++){
+            for(int i = fromX; i <= toX; i++){
+                int index = chunkIndex(i, j);
+                int[] chunk = layer[index];
+                if(chunk == null){
+                    chunk = new int[CHUNK_SIZE * CHUNK_SIZE];
+                    layer[index] = chunk;
+                }
+                chunk[cellIndex(i, j)] += delta;
+            }
+        }
+    }
+
+    private int chunkIndex(int x, int y) {
+        return (y >> CHUNK_BITS) * chunksX + (x >> CHUNK_BITS);
+    }
+
+    private static int cellIndex(int x, int y) {
+        return ((y & CHUNK_MASK) << CHUNK_BITS) | (x & CHUNK_MASK);
+    }
+}
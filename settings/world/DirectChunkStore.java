@@ -0,0 +1,150 @@
+package settings.world;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The DirectChunkStore class keeps the records of a map in direct buffers, one per chunk, outside the Java heap.
+ * A chunk is allocated when a record in it is first written; reading a cell of an unallocated chunk returns zeros.
+ * The records hold no references, so the garbage collector neither scans them nor marks cards when they are
+ * written, and the heap only holds one small buffer object per allocated chunk.
+ * Records are written between two ticks; the parallel parts of a tick may read them from several threads.
+ */
+public class DirectChunkStore implements ChunkStore {
+    private static final int CHUNK_BITS = ChunkedGrid.CHUNK_BITS;
+    private static final int CHUNK_SIZE = ChunkedGrid.CHUNK_SIZE;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int width;
+    private final int height;
+    private final int recordSize;
+    private final int chunksX;
+    private ByteBuffer[] chunks;
+    private int chunkCount = 0;
+
+    /**
+     * Constructs a store with all records set to zeros.
+     *
+     * @param width      the number of cells along the x-axis
+     * @param height     the number of cells along the y-axis
+     * @param recordSize the number of bytes of the record of a cell
+     */
+    public DirectChunkStore(int width, int height, int recordSize) {
+        if(width <= 0 || height <= 0 || recordSize <= 0){
+            throw new IllegalArgumentException("Invalid store: " + width + "x" + height + ", " + recordSize + " bytes per cell");
+        }
+        this.width = width;
+        this.height = height;
+        this.recordSize = recordSize;
+        this.chunksX = (width + CHUNK_MASK) >> CHUNK_BITS;
+        int chunksY = (height + CHUNK_MASK) >> CHUNK_BITS;
+        this.chunks = new ByteBuffer[chunksX * chunksY];
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    @Override
+    public byte getByte(int x, int y, int offset) {
+        int position = position(x, y, offset, 1);
+        ByteBuffer chunk = read(x, y);
+        return chunk == null ? 0 : chunk.get(position);
+    }
+
+    @Override
+    public void putByte(int x, int y, int offset, byte value) {
+        write(x, y).put(position(x, y, offset, 1), value);
+    }
+
+    @Override
+    public short getShort(int x, int y, int offset) {
+        int position = position(x, y, offset, 2);
+        ByteBuffer chunk = read(x, y);
+        return chunk == null ? 0 : chunk.getShort(position);
+    }
+
+    @Override
+    public void putShort(int x, int y, int offset, short value) {
+        write(x, y).putShort(position(x, y, offset, 2), value);
+    }
+
+    @Override
+    public int getInt(int x, int y, int offset) {
+        int position = position(x, y, offset, 4);
+        ByteBuffer chunk = read(x, y);
+        return chunk == null ? 0 : chunk.getInt(position);
+    }
+
+    @Override
+    public void putInt(int x, int y, int offset, int value) {
+        write(x, y).putInt(position(x, y, offset, 4), value);
+    }
+
+    /**
+     * Returns the number of chunks allocated so far.
+     *
+     * @return the number of allocated chunks
+     */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Returns the number of bytes held outside the heap.
+     *
+     * @return the size of the allocated chunks
+     */
+    public long getOffHeapSize() {
+        return (long) chunkCount * CHUNK_SIZE * CHUNK_SIZE * recordSize;
+    }
+
+    /**
+     * Drops every chunk; the memory is given back once the buffers are collected.
+     */
+    @Override
+    public void close() {
+        chunks = new ByteBuffer[chunks.length];
+        chunkCount = 0;
+    }
+
+    private ByteBuffer read(int x, int y) {
+        return chunks[chunkIndex(x, y)];
+    }
+
+    private ByteBuffer write(int x, int y) {
+        int index = chunkIndex(x, y);
+        ByteBuffer chunk = chunks[index];
+        if(chunk == null){
+            chunk = ByteBuffer.allocateDirect(CHUNK_SIZE * CHUNK_SIZE * recordSize).order(ByteOrder.nativeOrder());
+            chunks[index] = chunk;
+            chunkCount++;
+        }
+        return chunk;
+    }
+
+    private int chunkIndex(int x, int y) {
+        if(!inBounds(x, y)){
+            throw new IndexOutOfBoundsException("Cell (" + x + ", " + y + ") is outside the " + width + "x" + height + " map");
+        }
+        return (y >> CHUNK_BITS) * chunksX + (x >> CHUNK_BITS);
+    }
+
+    private int position(int x, int y, int offset, int bytes) {
+        if(offset < 0 || offset + bytes > recordSize){
+            throw new IndexOutOfBoundsException("Bytes " + offset + " to " + (offset + bytes - 1) + " are outside the " + recordSize + "-byte record");
+        }
+        return (((y & CHUNK_MASK) << CHUNK_BITS) | (x & CHUNK_MASK)) * recordSize + offset;
+    }
+}
@@ -0,0 +1,432 @@
+package settings.world;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The MappedChunkStore class keeps one fixed-size record per map cell in a memory-mapped file.
+ * The file holds a small header followed by the chunks of the map, row after row, each chunk holding the records
+ * of its 64x64 cells row after row. A chunk is mapped when one of its cells is first touched, and only the
+ * most recently used chunks stay mapped; the others are left to the page cache of the operating system, which
+ * writes them back and reads them again on demand. The heap only holds the mappings of the resident chunks, so
+ * the store itself can be larger than the heap, and opening a store reads nothing but the header. A city whose
+ * tile map lives in such a store keeps its occupancy in the file, so its map can outgrow the heap.
+ * The file is sparse: chunks that were never written take no room on the disk and read as zeros.
+ * Every thread remembers the chunk it used last and only takes the lock of the store when it moves to another
+ * chunk, so the parallel parts of a tick may read records while nothing writes them. A chunk evicted from the
+ * resident set stays mapped until trim() unmaps it, which must happen while no other thread uses the store.
+ */
+public class MappedChunkStore implements ChunkStore {
+    /** The first four bytes of every store file: "SDNT". */
+    public static final int MAGIC = 0x53444E54;
+    /** The version of the format written by this class. */
+    public static final int VERSION = 1;
+    /** The size of the header: the magic number, the version, the map size, the record size and the chunk size. */
+    public static final int HEADER_SIZE = 32;
+
+    private static final int CHUNK_BITS = ChunkedGrid.CHUNK_BITS;
+    private static final int CHUNK_SIZE = ChunkedGrid.CHUNK_SIZE;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final int recordSize;
+    private final int chunksX;
+    private final int chunksY;
+    private final long chunkBytes;
+    private final LinkedHashMap<Integer, Chunk> resident;
+    // Evicted chunks that are still mapped until the next trim
+    private final ArrayList<Chunk> retired = new ArrayList<Chunk>();
+    // The chunk each thread used last, checked without taking the lock
+    private final ThreadLocal<Chunk> lastChunk = new ThreadLocal<Chunk>();
+    private long mapCount = 0;
+    // The file of a temporary store, deleted on close
+    private File temporary = null;
+
+    // Unmapping a buffer right away needs the cleaner of the JDK; without it the mapping goes with the buffer
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    /**
+     * A mapped chunk and whether it has left the resident set.
+     */
+    private static final class Chunk {
+        final int index;
+        final MappedByteBuffer buffer;
+        volatile boolean evicted = false;
+
+        Chunk(int index, MappedByteBuffer buffer) {
+            this.index = index;
+            this.buffer = buffer;
+        }
+    }
+
+    private MappedChunkStore(FileChannel channel, int width, int height, int recordSize, int maxResident) {
+        this.channel = channel;
+        this.width = width;
+        this.height = height;
+        this.recordSize = recordSize;
+        this.chunksX = (width + CHUNK_MASK) >> CHUNK_BITS;
+        this.chunksY = (height + CHUNK_MASK) >> CHUNK_BITS;
+        this.chunkBytes = (long) CHUNK_SIZE * CHUNK_SIZE * recordSize;
+        this.resident = new LinkedHashMap<Integer, Chunk>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Chunk> eldest) {
+                if(size() <= maxResident) return false;
+                eldest.getValue().evicted = true;
+                retired.add(eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Creates a store file for a map, replacing any file of the same name. All records start as zeros.
+     *
+     * @param file        the file
+     * @param width       the number of cells along the x-axis
+     * @param height      the number of cells along the y-axis
+     * @param recordSize  the number of bytes of the record of a cell
+     * @param maxResident the number of chunks kept mapped at most
+     * @return the store
+     * @throws IOException if the file cannot be created
+     */
+    public static MappedChunkStore create(File file, int width, int height, int recordSize, int maxResident) throws IOException {
+        if(width <= 0 || height <= 0 || recordSize <= 0 || maxResident <= 0){
+            throw new IllegalArgumentException("Invalid store: " + width + "x" + height + ", " + recordSize + " bytes per cell");
+        }
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedChunkStore store = new MappedChunkStore(channel, width, height, recordSize, maxResident);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(width).putInt(height).putInt(recordSize).putInt(CHUNK_BITS);
+            header.rewind();
+            channel.write(header, 0);
+            // Only the last byte is written, the chunks stay holes until they are touched
+            channel.write(ByteBuffer.allocate(1), store.fileSize() - 1);
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates a store in a temporary file that is deleted when the store is closed.
+     *
+     * @param width       the number of cells along the x-axis
+     * @param height      the number of cells along the y-axis
+     * @param recordSize  the number of bytes of the record of a cell
+     * @param maxResident the number of chunks kept mapped at most
+     * @return the store
+     * @throws IOException if the file cannot be created
+     */
+    public static MappedChunkStore createTemporary(int width, int height, int recordSize, int maxResident) throws IOException {
+        File file = File.createTempFile("city", ".tiles");
+        try {
+            MappedChunkStore store = create(file, width, height, recordSize, maxResident);
+            store.temporary = file;
+            return store;
+        } catch (IOException | RuntimeException e) {
+            file.delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens an existing store file; only its header is read.
+     *
+     * @param file        the file
+     * @param maxResident the number of chunks kept mapped at most
+     * @return the store
+     * @throws IOException if the file cannot be read, is not a store file or is shorter than its header says
+     */
+    public static MappedChunkStore open(File file, int maxResident) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while(header.hasRemaining()){
+                if(channel.read(header, header.position()) < 0) throw new IOException("Not a store file: " + file);
+            }
+            header.flip();
+            if(header.getInt() != MAGIC) throw new IOException("Not a store file: " + file);
+            int version = header.getInt();
+            if(version != VERSION) throw new IOException("Unsupported store version: " + version);
+            int width = header.getInt();
+            int height = header.getInt();
+            int recordSize = header.getInt();
+            if(header.getInt() != CHUNK_BITS) throw new IOException("Unsupported chunk size");
+            if(width <= 0 || height <= 0 || recordSize <= 0) throw new IOException("Corrupt store file: " + file);
+            MappedChunkStore store = new MappedChunkStore(channel, width, height, recordSize, maxResident);
+            // Mapping a chunk past the end would grow the file instead of failing
+            if(channel.size() < store.fileSize()) throw new IOException("Truncated store file: " + file);
+            return store;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of cells along the x-axis.
+     *
+     * @return the width of the map
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the number of cells along the y-axis.
+     *
+     * @return the height of the map
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of bytes of the record of a cell.
+     *
+     * @return the record size
+     */
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    /**
+     * Checks if the given cell lies inside the map.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if the cell is inside the map, false otherwise
+     */
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && y >= 0 && x < width && y < height;
+    }
+
+    /**
+     * Reads one byte of the record of a cell.
+     *
+     * @param x      the x-coordinate
+     * @param y      the y-coordinate
+     * @param offset the position of the byte in the record
+     * @return the byte
+     */
+    public byte getByte(int x, int y, int offset) {
+        return chunk(x, y).get(position(x, y, offset, 1));
+    }
+
+    /**
+     * Writes one byte of the record of a cell.
+     *
+     * @param x      the x-coordinate
+     * @param y      the y-coordinate
+     * @param offset the position of the byte in the record
+     * @param value  the byte
+     */
+    public void putByte(int x, int y, int offset, byte value) {
+        chunk(x, y).put(position(x, y, offset, 1), value);
+    }
+
+    /**
+     * Reads two bytes of the record of a cell.
+     *
+     * @param x      the x-coordinate
+     * @param y      the y-coordinate
+     * @param offset the position of the first byte in the record
+     * @return the short
+     */
+    public short getShort(int x, int y, int offset) {
+        return chunk(x, y).getShort(position(x, y, offset, 2));
+    }
+
+    /**
+     * Writes two bytes of the record of a cell.
+     *
+     * @param x      the x-coordinate
+     * @param y      the y-coordinate
+     * @param offset the position of the first byte in the record
+     * @param value  the short
+     */
+    public void putShort(int x, int y, int offset, short value) {
+        chunk(x, y).putShort(position(x, y, offset, 2), value);
+    }
+
+    /**
+     * Reads four bytes of the record of a cell.
+     *
+     * @param x      the x-coordinate
+     * @param y      the y-coordinate
+     * @param offset the position of the first byte in the record
+     * @return the int
+     */
+    public int getInt(int x, int y, int offset) {
+        return chunk(x, y).getInt(position(x, y, offset, 4));
+    }
+
+    /**
+     * Writes four bytes of the record of a cell.
+     *
+     * @param x      the x-coordinate
+     * @param y      the y-coordinate
+     * @param offset the position of the first byte in the record
+     * @param value  the int
+     */
+    public void putInt(int x, int y, int offset, int value) {
+        chunk(x, y).putInt(position(x, y, offset, 4), value);
+    }
+
+    /**
+     * Returns the number of chunks in the resident set.
+     *
+     * @return the number of resident chunks
+     */
+    public synchronized int getResidentCount() {
+        return resident.size();
+    }
+
+    /**
+     * Returns the number of chunks currently mapped: the resident ones and the evicted ones that are not trimmed yet.
+     *
+     * @return the number of mapped chunks
+     */
+    public synchronized int getMappedCount() {
+        return resident.size() + retired.size();
+    }
+
+    /**
+     * Returns how many times a chunk was mapped since the store was opened.
+     *
+     * @return the number of mappings
+     */
+    public synchronized long getMapCount() {
+        return mapCount;
+    }
+
+    /**
+     * Writes the records changed so far to the disk.
+     *
+     * @throws IOException if writing fails
+     */
+    public synchronized void flush() throws IOException {
+        for(Chunk chunk: resident.values()){
+            chunk.buffer.force();
+        }
+        for(Chunk chunk: retired){
+            chunk.buffer.force();
+        }
+        // Chunks that are no longer mapped are written back by the operating system; the sync covers them
+        channel.force(false);
+    }
+
+    /**
+     * Unmaps the chunks evicted since the last trim, so that no more than the resident chunks stay mapped.
+     * No other thread may use the store meanwhile, e.g. it runs between two ticks.
+     */
+    @Override
+    public synchronized void trim() {
+        for(Chunk chunk: retired){
+            unmap(chunk.buffer);
+        }
+        retired.clear();
+    }
+
+    /**
+     * Writes the changed records to the disk and closes the file.
+     *
+     * @throws IOException if writing fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if(temporary == null) flush();
+        } finally {
+            for(Chunk chunk: resident.values()){
+                chunk.evicted = true;
+                retired.add(chunk);
+            }
+            resident.clear();
+            trim();
+            channel.close();
+            if(temporary != null) Files.deleteIfExists(temporary.toPath());
+        }
+    }
+
+    private long fileSize() {
+        return HEADER_SIZE + chunkBytes * chunksX * chunksY;
+    }
+
+    private MappedByteBuffer chunk(int x, int y) {
+        if(!inBounds(x, y)){
+            throw new IndexOutOfBoundsException("Cell (" + x + ", " + y + ") is outside the " + width + "x" + height + " map");
+        }
+        int index = (y >> CHUNK_BITS) * chunksX + (x >> CHUNK_BITS);
+        Chunk chunk = lastChunk.get();
+        if(chunk == null || chunk.index != index || chunk.evicted){
+            chunk = map(index);
+            lastChunk.set(chunk);
+        }
+        return chunk.buffer;
+    }
+
+    private synchronized Chunk map(int index) {
+        Chunk chunk = resident.get(index);
+        if(chunk == null){
+            try {
+                chunk = new Chunk(index, channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + chunkBytes * index, chunkBytes));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            mapCount++;
+            resident.put(index, chunk);
+        }
+        return chunk;
+    }
+
+    private static void unmap(MappedByteBuffer buffer) {
+        if(INVOKE_CLEANER == null) return;
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (ReflectiveOperationException e) {
+            // The mapping is released when the buffer is collected
+        }
+    }
+
+    private int position(int x, int y, int offset, int bytes) {
+        if(offset < 0 || offset + bytes > recordSize){
+            throw new IndexOutOfBoundsException("Bytes " + offset + " to " + (offset + bytes - 1) + " are outside the " + recordSize + "-byte record");
+        }
+        return (((y & CHUNK_MASK) << CHUNK_BITS) | (x & CHUNK_MASK)) * recordSize + offset;
+    }
+}
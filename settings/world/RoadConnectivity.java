@@ -0,0 +1,224 @@
+package settings.world;
+
+import java.util.Arrays;
+
+/**
+ * The RoadConnectivity class answers which road network a cell belongs to.
+ * Roads are grouped into components with a union-find structure over the node ids of the road graph,
+ * so adding a road and asking for a component take almost constant time.
+ * Removing a road can split a component, which union-find cannot undo, so a removal only marks the
+ * structure as stale and it is rebuilt from the road graph on the next query.
+ * It also counts, for every cell, the roads next to it, so whether a cell touches the road network
+ * is known without looking at its neighbours.
+ */
+public class RoadConnectivity {
+    private static final int CHUNK_BITS = ChunkedGrid.CHUNK_BITS;
+    private static final int CHUNK_SIZE = ChunkedGrid.CHUNK_SIZE;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final RoadGraph graph;
+    private final int width;
+    private final int height;
+    private final int chunksX;
+    private final byte[][] adjacentRoads;
+
+    private int[] parent = new int[0];
+    private byte[] rank = new byte[0];
+    private boolean stale = false;
+
+    /**
+     * Constructs the connectivity of the roads in the given graph.
+     *
+     * @param graph  the road graph of the map
+     * @param width  the number of cells along the x-axis
+     * @param height the number of cells along the y-axis
+     */
+    public RoadConnectivity(RoadGraph graph, int width, int height) {
+        this.graph = graph;
+        this.width = width;
+        this.height = height;
+        this.chunksX = (width + CHUNK_MASK) >> CHUNK_BITS;
+        int chunksY = (height + CHUNK_MASK) >> CHUNK_BITS;
+        this.adjacentRoads = new byte[chunksX * chunksY][];
+    }
+
+    /**
+     * Records a road that has just been added to the road graph.
+     *
+     * @param id the node id of the new road
+     */
+    public void roadAdded(int id) {
+        int x = graph.getX(id);
+        int y = graph.getY(id);
+        for(int d = 0; d < 4; d++){
+            addAdjacent(x + RoadGraph.DX[d], y + RoadGraph.DY[d], 1);
+        }
+        if(stale) return;
+        ensureCapacity();
+        parent[id] = id;
+        rank[id] = 0;
+        for(int d = 0; d < 4; d++){
+            int neighbour = graph.getNeighbour(id, d);
+            if(neighbour != -1) union(id, neighbour);
+        }
+    }
+
+    /**
+     * Records a road that has just been removed from the road graph.
+     *
+     * @param x the x-coordinate of the removed road
+     * @param y the y-coordinate of the removed road
+     */
+    public void roadRemoved(int x, int y) {
+        for(int d = 0; d < 4; d++){
+            addAdjacent(x + RoadGraph.DX[d], y + RoadGraph.DY[d], -1);
+        }
+        stale = true;
+    }
+
+    /**
+     * Returns the number of roads next to the given cell.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the number of neighbouring roads, from 0 to 4
+     */
+    public int getAdjacentRoads(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return 0;
+        byte[] chunk = adjacentRoads[chunkIndex(x, y)];
+        if(chunk == null) return 0;
+        return chunk[cellIndex(x, y)];
+    }
+
+    /**
+     * Checks if the given cell is next to a road.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if a neighbouring cell holds a road, false otherwise
+     */
+    public boolean touchesRoad(int x, int y) {
+        return getAdjacentRoads(x, y) > 0;
+    }
+
+    /**
+     * Returns the component of the road at the given cell.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the component id, or -1 if there is no road at the cell
+     */
+    public int getComponent(int x, int y) {
+        int id = graph.getNode(x, y);
+        if(id == -1) return -1;
+        rebuildIfStale();
+        return find(id);
+    }
+
+    /**
+     * Checks if the given cell is a road of, or lies next to a road of, the given component.
+     *
+     * @param x         the x-coordinate
+     * @param y         the y-coordinate
+     * @param component the component id
+     * @return true if the cell reaches the component, false otherwise
+     */
+    public boolean reaches(int x, int y, int component) {
+        if(component == -1) return false;
+        if(getComponent(x, y) == component) return true;
+        for(int d = 0; d < 4; d++){
+            if(getComponent(x + RoadGraph.DX[d], y + RoadGraph.DY[d]) == component) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Checks if two cells are linked by roads, each cell being a road or lying next to one.
+     *
+     * @param x1 the x-coordinate of the first cell
+     * @param y1 the y-coordinate of the first cell
+     * @param x2 the x-coordinate of the second cell
+     * @param y2 the y-coordinate of the second cell
+     * @return true if both cells reach the same road component, false otherwise
+     */
+    public boolean connected(int x1, int y1, int x2, int y2) {
+        if(reaches(x2, y2, getComponent(x1, y1))) return true;
+        for(int d = 0; d < 4; d++){
+            if(reaches(x2, y2, getComponent(x1 + RoadGraph.DX[d], y1 + RoadGraph.DY[d]))) return true;
+        }
+        return false;
+    }
+
+    private void rebuildIfStale() {
+        if(!stale) return;
+        stale = false;
+        ensureCapacity();
+        int capacity = graph.getNodeCapacity();
+        for(int id = 0; id < capacity; id++){
+            parent[id] = id;
+            rank[id] = 0;
+        }
+        for(int id = 0; id < capacity; id++){
+            if(graph.getRoad(id) == null) continue;
+            for(int d = 1; d < 4; d += 2){
+                int neighbour = graph.getNeighbour(id, d);
+                if(neighbour != -1) union(id, neighbour);
+            }
+        }
+    }
+
+    private int find(int id) {
+        while(parent[id] != id){
+            parent[id] = parent[parent[id]];
+            id = parent[id];
+        }
+        return id;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if(rootA == rootB) return;
+        if(rank[rootA] < rank[rootB]){
+            parent[rootA] = rootB;
+        }
+        else if(rank[rootA] > rank[rootB]){
+            parent[rootB] = rootA;
+        }
+        else{
+            parent[rootB] = rootA;
+            rank[rootA]++;
+        }
+    }
+
+    private void ensureCapacity() {
+        int capacity = graph.getNodeCapacity();
+        if(parent.length >= capacity) return;
+        int newCapacity = Math.max(capacity, parent.length * 2);
+        int oldCapacity = parent.length;
+        parent = Arrays.copyOf(parent, newCapacity);
+        rank = Arrays.copyOf(rank, newCapacity);
+        for(int id = oldCapacity; id < newCapacity; id++){
+            parent[id] = id;
+        }
+    }
+
+    private void addAdjacent(int x, int y, int delta) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return;
+        int index = chunkIndex(x, y);
+        byte[] chunk = adjacentRoads[index];
+        if(chunk == null){
+            chunk = new byte[CHUNK_SIZE * CHUNK_SIZE];
+            adjacentRoads[index] = chunk;
+        }
+        chunk[cellIndex(x, y)] += delta;
+    }
+
+    private int chunkIndex(int x, int y) {
+        return (y >> CHUNK_BITS) * chunksX + (x >> CHUNK_BITS);
+    }
+
+    private static int cellIndex(int x, int y) {
+        return ((y & CHUNK_MASK) << CHUNK_BITS) | (x & CHUNK_MASK);
+    }
+}
@@ -0,0 +1,209 @@
+package settings.world;
+
+import types.Buildings.Road;
+
+import java.util.Arrays;
+
+/**
+ * The RoadGraph class keeps the road cells of the map as a compact graph.
+ * Every road gets a dense node id, reused after the road is removed, and the graph stores the ids of
+ * the four neighbouring roads of each node in a flat array, so searches never touch the entity lists
+ * and never allocate per visited cell.
+ * Neighbours are stored in the order left, right, up, down.
+ */
+public class RoadGraph {
+    public static final int[] DX = {-1, 1, 0, 0};
+    public static final int[] DY = {0, 0, -1, 1};
+
+    private static final int CHUNK_BITS = ChunkedGrid.CHUNK_BITS;
+    private static final int CHUNK_SIZE = ChunkedGrid.CHUNK_SIZE;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private final int width;
+    private final int height;
+    private final int chunksX;
+    private final int[][] ids; // node id + 1 per cell, 0 for cells without a road
+
+    private int[] nodeX = new int[16];
+    private int[] nodeY = new int[16];
+    private int[] neighbours = new int[16 * 4];
+    private Road[] roads = new Road[16];
+    private int[] freeIds = new int[16];
+    private int freeCount = 0;
+    private int nodeCount = 0; // highest used id + 1
+    private int roadCount = 0;
+    private int version = 0;
+
+    /**
+     * Constructs an empty road graph for a map of the given size.
+     *
+     * @param width  the number of cells along the x-axis
+     * @param height the number of cells along the y-axis
+     */
+    public RoadGraph(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.chunksX = (width + CHUNK_MASK) >> CHUNK_BITS;
+        int chunksY = (height + CHUNK_MASK) >> CHUNK_BITS;
+        this.ids = new int[chunksX * chunksY][];
+    }
+
+    /**
+     * Adds a road to the graph and links it to the neighbouring roads.
+     *
+     * @param road the road to add
+     * @return the node id of the road
+     */
+    public int add(Road road) {
+        int x = road.getX();
+        int y = road.getY();
+        int id = freeCount > 0 ? freeIds[--freeCount] : nodeCount++;
+        ensureCapacity(nodeCount);
+        nodeX[id] = x;
+        nodeY[id] = y;
+        roads[id] = road;
+        setId(x, y, id + 1);
+        for(int d = 0; d < 4; d++){
+            int other = getNode(x + DX[d], y + DY[d]);
+            neighbours[id * 4 + d] = other;
+            if(other != -1) neighbours[other * 4 + (d ^ 1)] = id;
+        }
+        roadCount++;
+        version++;
+        return id;
+    }
+
+    /**
+     * Removes the road at the given cell from the graph.
+     *
+     * @param x the x-coordinate of the road
+     * @param y the y-coordinate of the road
+     * @return the node id the road had, or -1 if there was no road
+     */
+    public int remove(int x, int y) {
+        int id = getNode(x, y);
+        if(id == -1) return -1;
+        for(int d = 0; d < 4; d++){
+            int other = neighbours[id * 4 + d];
+            if(other != -1) neighbours[other * 4 + (d ^ 1)] = -1;
+            neighbours[id * 4 + d] = -1;
+        }
+        setId(x, y, 0);
+        roads[id] = null;
+        if(freeCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        freeIds[freeCount++] = id;
+        roadCount--;
+        version++;
+        return id;
+    }
+
+    /**
+     * Returns the node id of the road at the given cell.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the node id, or -1 if there is no road at the cell
+     */
+    public int getNode(int x, int y) {
+        if(x < 0 || y < 0 || x >= width || y >= height) return -1;
+        int[] chunk = ids[chunkIndex(x, y)];
+        if(chunk == null) return -1;
+        return chunk[cellIndex(x, y)] - 1;
+    }
+
+    /**
+     * Returns the neighbouring node of a node in the given direction.
+     *
+     * @param id        the node id
+     * @param direction the direction index, see DX and DY
+     * @return the neighbouring node id, or -1 if there is no road in that direction
+     */
+    public int getNeighbour(int id, int direction) {
+        return neighbours[id * 4 + direction];
+    }
+
+    /**
+     * Returns the x-coordinate of a node.
+     *
+     * @param id the node id
+     * @return the x-coordinate of the road
+     */
+    public int getX(int id) {
+        return nodeX[id];
+    }
+
+    /**
+     * Returns the y-coordinate of a node.
+     *
+     * @param id the node id
+     * @return the y-coordinate of the road
+     */
+    public int getY(int id) {
+        return nodeY[id];
+    }
+
+    /**
+     * Returns the road of a node.
+     *
+     * @param id the node id
+     * @return the road, or null if the id is not in use
+     */
+    public Road getRoad(int id) {
+        return roads[id];
+    }
+
+    /**
+     * Returns an upper bound of the node ids in use, to size per-node arrays.
+     *
+     * @return the highest node id ever used plus one
+     */
+    public int getNodeCapacity() {
+        return nodeCount;
+    }
+
+    /**
+     * Returns the number of roads in the graph.
+     *
+     * @return the number of roads
+     */
+    public int getRoadCount() {
+        return roadCount;
+    }
+
+    /**
+     * Returns a counter that changes whenever a road is added or removed.
+     *
+     * @return the version of the graph
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if(capacity <= roads.length) return;
+        int newCapacity = Math.max(capacity, roads.length * 2);
+        nodeX = Arrays.copyOf(nodeX, newCapacity);
+        nodeY = Arrays.copyOf(nodeY, newCapacity);
+        roads = Arrays.copyOf(roads, newCapacity);
+        neighbours = Arrays.copyOf(neighbours, newCapacity * 4);
+    }
+
+    private void setId(int x, int y, int value) {
+        int index = chunkIndex(x, y);
+        int[] chunk = ids[index];
+        if(chunk == null){
+            if(value == 0) return;
+            chunk = new int[CHUNK_SIZE * CHUNK_SIZE];
+            ids[index] = chunk;
+        }
+        chunk[cellIndex(x, y)] = value;
+    }
+
+    private int chunkIndex(int x, int y) {
+        return (y >> CHUNK_BITS) * chunksX + (x >> CHUNK_BITS);
+    }
+
+    private static int cellIndex(int x, int y) {
+        return ((y & CHUNK_MASK) << CHUNK_BITS) | (x & CHUNK_MASK);
+    }
+}
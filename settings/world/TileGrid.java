@@ -0,0 +1,119 @@
+package settings.world;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * The TileGrid class stores one value per map cell as a slot number in the records of a ChunkStore.
+ * Every distinct value gets a slot while at least one cell holds it, so the heap only holds the values
+ * themselves and the cells of the map stay in the store, e.g. outside the heap or in a file.
+ * A slot is written as its number plus one, so that the zeros of an unwritten record read as an empty cell.
+ * Values are compared by identity.
+ *
+ * @param <T> the type of the values stored in the cells
+ */
+public class TileGrid<T> implements CellGrid<T> {
+    private final ChunkStore store;
+    private final int offset;
+    private final ArrayList<T> values = new ArrayList<T>();
+    private final IdentityHashMap<T, Integer> slots = new IdentityHashMap<T, Integer>();
+    private int[] cellCounts = new int[16];
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+
+    /**
+     * Constructs a grid keeping its slots in four bytes of the records of a store.
+     * The store must not hold slots of an earlier grid at that offset.
+     *
+     * @param store  the store holding the records
+     * @param offset the position of the slot in a record
+     */
+    public TileGrid(ChunkStore store, int offset) {
+        if(offset < 0 || offset + 4 > store.getRecordSize()){
+            throw new IllegalArgumentException("A slot at " + offset + " does not fit a " + store.getRecordSize() + "-byte record");
+        }
+        this.store = store;
+        this.offset = offset;
+    }
+
+    @Override
+    public int getWidth() {
+        return store.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return store.getHeight();
+    }
+
+    @Override
+    public boolean inBounds(int x, int y) {
+        return store.inBounds(x, y);
+    }
+
+    @Override
+    public T get(int x, int y) {
+        if(!store.inBounds(x, y)) return null;
+        int slot = store.getInt(x, y, offset) - 1;
+        return slot < 0 ? null : values.get(slot);
+    }
+
+    /**
+     * Stores a value in the given cell. Clearing an empty cell writes nothing.
+     *
+     * @param x     the x-coordinate
+     * @param y     the y-coordinate
+     * @param value the value to store, or null to clear the cell
+     */
+    @Override
+    public void set(int x, int y, T value) {
+        if(!store.inBounds(x, y)){
+            throw new IndexOutOfBoundsException("Cell (" + x + ", " + y + ") is outside the " + getWidth() + "x" + getHeight() + " grid");
+        }
+        int old = store.getInt(x, y, offset) - 1;
+        if(old >= 0 && values.get(old) == value) return;
+        if(old < 0 && value == null) return;
+        int slot = value == null ? -1 : acquire(value);
+        store.putInt(x, y, offset, slot + 1);
+        if(old >= 0) release(old);
+    }
+
+    /**
+     * Returns the number of distinct values held by the cells.
+     *
+     * @return the number of used slots
+     */
+    public int getValueCount() {
+        return slots.size();
+    }
+
+    private int acquire(T value) {
+        Integer known = slots.get(value);
+        int slot;
+        if(known != null){
+            slot = known;
+        }
+        else if(freeCount > 0){
+            slot = freeSlots[--freeCount];
+            values.set(slot, value);
+            slots.put(value, slot);
+        }
+        else{
+            slot = values.size();
+            values.add(value);
+            slots.put(value, slot);
+            if(slot == cellCounts.length) cellCounts = Arrays.copyOf(cellCounts, slot * 2);
+        }
+        cellCounts[slot]++;
+        return slot;
+    }
+
+    private void release(int slot) {
+        if(--cellCounts[slot] > 0) return;
+        slots.remove(values.get(slot));
+        values.set(slot, null);
+        if(freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+    }
+}
@@ -0,0 +1,215 @@
+package settings.world;
+
+import types.Building;
+import types.Buildings.Fire;
+import types.Buildings.Forest;
+import types.Buildings.Police;
+import types.Buildings.Road;
+import types.Buildings.Stadium;
+import types.Zone;
+import types.Zones.Industrial;
+import types.Zones.Residential;
+import types.Zones.Service;
+
+/**
+ * The TileMap class describes every map cell with a fixed-layout tile record: the kind of building covering the
+ * cell, the kind of zone on it, whether that building or zone is available, the number of roads next to it, the
+ * saturation of the zone, and the slots of the building and the zone in the grids of the tile map.
+ * The grids let a Storage keep its occupancy in the records instead of in grids of references on the heap.
+ * Records live in a ChunkStore: a MappedChunkStore keeps them in a file that other tools can read, a
+ * DirectChunkStore keeps them in memory outside the heap.
+ * A Storage with a tile map keeps its occupancy in these grids only, so a tile map in a file lets the map outgrow the heap.
+ * Cells outside the map read as empty tiles.
+ */
+public class TileMap {
+    /** The number of bytes of a tile record. */
+    public static final int RECORD_SIZE = 16;
+
+    // The layout of a tile record; the bytes 6 and 7 are reserved
+    private static final int BUILDING = 0;
+    private static final int ZONE = 1;
+    private static final int FLAGS = 2;
+    private static final int ADJACENT_ROADS = 3;
+    private static final int SATURATION = 4;
+    private static final int BUILDING_SLOT = 8;
+    private static final int ZONE_SLOT = 12;
+
+    public static final byte EMPTY = 0;
+    public static final byte ROAD = 1;
+    public static final byte POLICE = 2;
+    public static final byte STADIUM = 3;
+    public static final byte FOREST = 4;
+    public static final byte FIRE = 5;
+
+    public static final byte RESIDENTIAL = 1;
+    public static final byte SERVICE = 2;
+    public static final byte INDUSTRIAL = 3;
+
+    /** The flag of a cell whose building or zone touches a road. */
+    public static final byte AVAILABLE = 1;
+
+    private final ChunkStore store;
+    private final TileGrid<Building> buildingGrid;
+    private final TileGrid<Zone> zoneGrid;
+
+    /**
+     * Constructs a tile map over a store with records of RECORD_SIZE bytes.
+     *
+     * @param store the store holding the records
+     */
+    public TileMap(ChunkStore store) {
+        if(store.getRecordSize() != RECORD_SIZE){
+            throw new IllegalArgumentException("Tile records take " + RECORD_SIZE + " bytes, not " + store.getRecordSize());
+        }
+        this.store = store;
+        this.buildingGrid = new TileGrid<Building>(store, BUILDING_SLOT);
+        this.zoneGrid = new TileGrid<Zone>(store, ZONE_SLOT);
+    }
+
+    /**
+     * Returns the store holding the records.
+     *
+     * @return the store
+     */
+    public ChunkStore getStore() {
+        return store;
+    }
+
+    /**
+     * Returns the grid of the buildings covering the cells, kept in the records.
+     *
+     * @return the building grid
+     */
+    public TileGrid<Building> getBuildingGrid() {
+        return buildingGrid;
+    }
+
+    /**
+     * Returns the grid of the zones on the cells, kept in the records.
+     *
+     * @return the zone grid
+     */
+    public TileGrid<Zone> getZoneGrid() {
+        return zoneGrid;
+    }
+
+    /**
+     * Returns the kind of building covering a cell.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the kind, e.g. ROAD, or EMPTY
+     */
+    public byte getBuilding(int x, int y) {
+        if(!store.inBounds(x, y)) return EMPTY;
+        return store.getByte(x, y, BUILDING);
+    }
+
+    /**
+     * Returns the kind of zone on a cell.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the kind, e.g. RESIDENTIAL, or EMPTY
+     */
+    public byte getZone(int x, int y) {
+        if(!store.inBounds(x, y)) return EMPTY;
+        return store.getByte(x, y, ZONE);
+    }
+
+    /**
+     * Checks if the building or zone on a cell is available.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if the cell is available, false otherwise
+     */
+    public boolean isAvailable(int x, int y) {
+        if(!store.inBounds(x, y)) return false;
+        return (store.getByte(x, y, FLAGS) & AVAILABLE) != 0;
+    }
+
+    /**
+     * Returns the number of roads next to a cell.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the number of neighbouring roads, from 0 to 4
+     */
+    public int getAdjacentRoads(int x, int y) {
+        if(!store.inBounds(x, y)) return 0;
+        return store.getByte(x, y, ADJACENT_ROADS);
+    }
+
+    /**
+     * Checks if a cell is next to a road.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return true if a neighbouring cell holds a road, false otherwise
+     */
+    public boolean touchesRoad(int x, int y) {
+        return getAdjacentRoads(x, y) > 0;
+    }
+
+    /**
+     * Returns the saturation of the zone on a cell.
+     *
+     * @param x the x-coordinate
+     * @param y the y-coordinate
+     * @return the saturation, or 0 if no zone is on the cell
+     */
+    public int getSaturation(int x, int y) {
+        if(!store.inBounds(x, y)) return 0;
+        return store.getShort(x, y, SATURATION);
+    }
+
+    /**
+     * Writes the kinds, availability, road count and saturation of a cell from what lies on it.
+     * The slots are written by the grids.
+     *
+     * @param x             the x-coordinate
+     * @param y             the y-coordinate
+     * @param building      the building covering the cell, or null
+     * @param zone          the zone on the cell, or null
+     * @param adjacentRoads the number of roads next to the cell
+     */
+    public void set(int x, int y, Building building, Zone zone, int adjacentRoads) {
+        boolean available = (building != null && building.getAvailable()) || (zone != null && zone.getAvailable());
+        store.putByte(x, y, BUILDING, kindOf(building));
+        store.putByte(x, y, ZONE, kindOf(zone));
+        store.putByte(x, y, FLAGS, available ? AVAILABLE : 0);
+        store.putByte(x, y, ADJACENT_ROADS, (byte) adjacentRoads);
+        store.putShort(x, y, SATURATION, (short) (zone == null ? 0 : zone.getSaturation()));
+    }
+
+    /**
+     * Returns the tile kind of a building.
+     *
+     * @param building the building, or null
+     * @return the kind, or EMPTY for null
+     */
+    public static byte kindOf(Building building) {
+        if(building == null) return EMPTY;
+        if(building instanceof Road) return ROAD;
+        if(building instanceof Police) return POLICE;
+        if(building instanceof Stadium) return STADIUM;
+        if(building instanceof Forest) return FOREST;
+        if(building instanceof Fire) return FIRE;
+        throw new IllegalArgumentException("Unknown building type: " + building.getClass().getName());
+    }
+
+    /**
+     * Returns the tile kind of a zone.
+     *
+     * @param zone the zone, or null
+     * @return the kind, or EMPTY for null
+     */
+    public static byte kindOf(Zone zone) {
+        if(zone == null) return EMPTY;
+        if(zone instanceof Residential) return RESIDENTIAL;
+        if(zone instanceof Service) return SERVICE;
+        if(zone instanceof Industrial) return INDUSTRIAL;
+        throw new IllegalArgumentException("Unknown zone type: " + zone.getClass().getName());
+    }
+}
@@ -1,13 +1,36 @@
 package tests;
 import java.lang.annotation.Target;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.*;
 
 import settings.*;
+import settings.persistence.*;
+import settings.simulation.*;
+import settings.world.*;
 import types.*;
 import types.Buildings.*;
 import types.Zones.*;
 public class Tests {
+    private static String saveFolder;
+    private static java.io.File tempSaves;
+
+    // The saves written by the tests go to a temporary folder instead of the work tree
+    @BeforeClass
+    public static void useTemporarySaveFolder() throws java.io.IOException {
+        saveFolder = General.saveFolder;
+        tempSaves = java.nio.file.Files.createTempDirectory("saves").toFile();
+        General.saveFolder = tempSaves.getPath();
+    }
+
+    @AfterClass
+    public static void removeTemporarySaveFolder() throws java.io.IOException {
+        General.saveFolder = saveFolder;
+        try (java.util.stream.Stream<java.nio.file.Path> paths = java.nio.file.Files.walk(tempSaves.toPath())) {
+            paths.sorted(java.util.Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
     // Test case for creating a storage object and checking initial values
     @Test
     public void create() {
@@ -157,10 +180,13 @@ public class Tests {
     public void testTimerObj() {
         // Set player and city names
         String playerName = "Player", cityName = "City";
-        // Create a storage object
-        Storage s = new Storage(playerName, cityName);
+        // The convenience constructor runs headless
+        Assert.assertNull(new Storage(playerName, cityName).getTimer());
+        // Create a storage object driven by the game timer
+        Storage s = new Storage(playerName, cityName, General.mapWidth, General.mapHeight, new RealTimeClock());
         // Assert statement to check the delay of the Timer object
         Assert.assertEquals(s.getTimer().getDelay(), 1000);
+        s.getEngine().stop();
     }
 
     // Test case for testing the speed functionality
@@ -191,11 +217,8 @@ public class Tests {
         s.setDate(0);
         s.setSpeed(2);
 
-        // Wait for 1 second (extra 500ms for safety)
-        try {
-            Thread.sleep(1500); 
-        } 
-        catch (InterruptedException e) {}
+        // Run the one tick the game timer would run in a second
+        s.getEngine().tick();
 
         // Check if the time is 2
         Assert.assertEquals(s.getDate(), 2);
@@ -221,7 +244,7 @@ public class Tests {
         // Create the second storage object
         Storage s2 = new Storage("", "");
         // Load the saved file into the second storage object
-        s2.load("saves/" + playerName + "_" + cityName + ".sav");
+        s2.load(General.saveFolder + "/" + playerName + "_" + cityName + ".sav");
         // Assert statements to check the values in the second storage object
         Assert.assertEquals(s2.getPlayerName(), s1.getPlayerName());
         Assert.assertEquals(s2.getCityName(), s1.getCityName());
@@ -594,4 +617,1379 @@ public class Tests {
         s.updateForestsAges();
     }
 
+    // Test case for checking that every cell of a stadium is indexed
+    @Test
+    public void testStadiumOccupancy() {
+        // Set player and city names
+        String playerName = "Player", cityName = "City";
+        // Create a storage object
+        Storage s = new Storage(playerName, cityName);
+        // Add a 2x2 stadium at (4, 4)
+        Stadium stadium = new Stadium(4, 4);
+        s.addBuilding(stadium);
+
+        // Every covered cell points to the stadium
+        Assert.assertEquals(s.getBuildingAt(4, 4), stadium);
+        Assert.assertEquals(s.getBuildingAt(5, 5), stadium);
+        Assert.assertNull(s.getBuildingAt(6, 6));
+        // A road cannot be placed on a non-origin cell
+        Assert.assertFalse(s.addBuilding(new Road(5, 4)));
+
+        // Removing through a non-origin cell clears the whole footprint
+        Assert.assertTrue(s.removeBuilding(5, 5));
+        Assert.assertNull(s.getBuildingAt(4, 4));
+        Assert.assertNull(s.getBuildingAt(4, 5));
+        Assert.assertEquals(s.getBuildings().size(), 0);
+    }
+
+    // Test case for checking the list indexes follow additions, removals and loads
+    @Test
+    public void testListIndexes() throws java.io.IOException {
+        // Create a storage object without a clock so that only the explicit updates run
+        Storage s = new Storage("Player", "City", General.mapWidth, General.mapHeight, null);
+        for(int i = 0; i < 8; i++){
+            s.addBuilding(new Road(i, 5));
+            s.addZone(new Residential(i, 4));
+        }
+        s.removeBuilding(2, 5);
+        s.removeZone(0, 4);
+        s.addBuilding(new Police(10, 10));
+        s.addBuilding(new Road(10, 11));
+        s.disaster(10, 10, 1);
+        s.read(saveToTemp(s));
+        s.removeBuilding(0, 5);
+        s.removeZone(3, 4);
+        for(int i = 0; i < s.getBuildings().size(); i++){
+            Building building = s.getBuildings().get(i);
+            Assert.assertEquals(i, building.getListIndex());
+            Assert.assertEquals(i, s.getBuildingIndex(building.getX(), building.getY(), 1));
+        }
+        for(int i = 0; i < s.getZones().size(); i++){
+            Zone zone = s.getZones().get(i);
+            Assert.assertEquals(i, zone.getListIndex());
+            Assert.assertEquals(i, s.getZoneIndex(zone.getX(), zone.getY()));
+        }
+        Assert.assertEquals(-1, s.getZoneIndex(0, 4));
+    }
+
+    private static java.io.File saveToTemp(Storage s) throws java.io.IOException {
+        java.io.File file = java.io.File.createTempFile("city", ".sav");
+        file.deleteOnExit();
+        CityFormat.writeFile(CityFormat.toBytes(s.capture()), file);
+        return file;
+    }
+
+    // Test case for checking a large map only allocates the chunks that are used
+    @Test
+    public void testLargeMap() {
+        // Create a 1000x1000 storage object
+        Storage s = new Storage("Player", "City", 1000, 1000);
+        Assert.assertEquals(s.getWidth(), 1000);
+        Assert.assertEquals(s.getHeight(), 1000);
+
+        // Cells far beyond the default map are valid now
+        Assert.assertTrue(s.validCoordinates(999, 999, 1));
+        Assert.assertFalse(s.validCoordinates(1000, 999, 1));
+        Assert.assertTrue(s.addBuilding(new Road(998, 999)));
+        Assert.assertTrue(s.addZone(new Residential(999, 999)));
+        Assert.assertTrue(s.getZoneAt(999, 999).getAvailable());
+
+        // A grid only allocates the chunks that were written to
+        ChunkedGrid<Zone> grid = new ChunkedGrid<Zone>(1000, 1000);
+        Assert.assertEquals(grid.getAllocatedChunks(), 0);
+        grid.set(999, 999, new Residential(999, 999));
+        grid.set(998, 998, null);
+        grid.set(0, 0, null);
+        Assert.assertEquals(grid.getAllocatedChunks(), 1);
+        Assert.assertNull(grid.get(-1, 5));
+    }
+
+    // Test case for checking the police, stadium and forest coverage
+    @Test
+    public void testCoverage() {
+        // Set player and city names
+        String playerName = "Player", cityName = "City";
+        // Create a storage object
+        Storage s = new Storage(playerName, cityName);
+        Residential res = new Residential(10, 10);
+        s.addZone(res);
+
+        // Nothing covers the zone yet
+        Assert.assertFalse(s.checkPolice(res));
+        Assert.assertFalse(s.checkStadium(res));
+        Assert.assertEquals(s.checkForest(res), 0);
+
+        // A police station 3 cells away covers the zone, one 4 cells away does not
+        s.addBuilding(new Police(14, 10));
+        Assert.assertFalse(s.checkPolice(res));
+        s.addBuilding(new Police(13, 13));
+        Assert.assertTrue(s.checkPolice(res));
+        s.removeBuilding(13, 13);
+        Assert.assertFalse(s.checkPolice(res));
+
+        // The radius of a stadium is measured from its origin, not from its far cell
+        s.addBuilding(new Stadium(4, 4));
+        Assert.assertFalse(s.checkStadium(res));
+        s.addBuilding(new Stadium(15, 15));
+        Assert.assertTrue(s.checkStadium(res));
+
+        // The best forest bonus follows the forest ages
+        s.addBuilding(new Forest(8, 8));
+        s.addBuilding(new Forest(12, 12));
+        Assert.assertEquals(s.checkForest(res), 1);
+        s.updateForestsAges();
+        s.updateForestsAges();
+        Assert.assertEquals(s.checkForest(res), 2);
+
+        // Destroyed forests stop covering the zone
+        s.disaster(8, 8, 1);
+        s.disaster(12, 12, 1);
+        Assert.assertEquals(s.checkForest(res), 0);
+    }
+
+    // Test case for checking bonuses follow the changes of their sources
+    @Test
+    public void testInfluencePropagation() {
+        // Set player and city names
+        String playerName = "Player", cityName = "City";
+        // Create a storage object
+        Storage s = new Storage(playerName, cityName);
+        Residential res = new Residential(5, 5);
+        s.addZone(res);
+
+        // Bonuses are applied on the next satisfaction update
+        s.addBuilding(new Police(7, 7));
+        s.addBuilding(new Forest(5, 8));
+        s.addZone(new Industrial(6, 5));
+        s.updateSatisfaction();
+        Assert.assertTrue(res.getPoliceBonus());
+        Assert.assertEquals(res.getForestBonus(), 1);
+        Assert.assertEquals(res.getDistance(), 1);
+
+        // Ageing forests raise the bonus
+        s.updateForestsAges();
+        s.updateForestsAges();
+        s.updateSatisfaction();
+        Assert.assertEquals(res.getForestBonus(), 2);
+
+        // Removing sources clears the bonuses
+        s.removeBuilding(7, 7);
+        s.disaster(5, 8, 1);
+        s.removeZone(6, 5);
+        s.updateSatisfaction();
+        Assert.assertFalse(res.getPoliceBonus());
+        Assert.assertEquals(res.getForestBonus(), 0);
+        Assert.assertEquals(res.getDistance(), 0);
+    }
+
+    // Test case for checking the satisfaction updates of changed zones
+    @Test
+    public void testDirtySatisfaction() {
+        // Set player and city names
+        String playerName = "Player", cityName = "City";
+        // Create a storage object
+        // Create a storage object without a clock so that only the explicit updates run
+        Storage s = new Storage(playerName, cityName, General.mapWidth, General.mapHeight, null);
+        // A residential zone right next to an industrial zone, both on a road
+        Residential res = new Residential(5, 5);
+        Industrial ind = new Industrial(6, 5);
+        s.addBuilding(new Road(5, 6));
+        s.addBuilding(new Road(6, 6));
+        s.addZone(res);
+        s.addZone(ind);
+
+        // Move in the first residents and find them a workplace
+        s.increasePopulation();
+        s.updateSatisfaction();
+        s.updateWorkplaces();
+        Assert.assertEquals(res.getSaturation(), 50);
+        Assert.assertEquals(res.getSatisfaction(), 70);
+        Assert.assertEquals(s.getSatisfaction(), 70);
+        Assert.assertEquals(ind.getSaturation(), 50);
+
+        // Idle updates keep the same values
+        s.updateSatisfaction();
+        s.updateWorkplaces();
+        s.updateSatisfaction();
+        Assert.assertEquals(res.getSatisfaction(), 70);
+        Assert.assertEquals(ind.getSatisfaction(), 70);
+        Assert.assertEquals(s.getSatisfaction(), 70);
+
+        // A police station raises the satisfaction of the residents and their workplace
+        s.addBuilding(new Police(4, 4));
+        s.updateSatisfaction();
+        Assert.assertEquals(res.getSatisfaction(), 80);
+        Assert.assertEquals(ind.getSatisfaction(), 80);
+        Assert.assertEquals(s.getSatisfaction(), 80);
+    }
+
+    // Test case for checking the workplace search finds the nearest workplace
+    @Test
+    public void testNearestWorkplace() {
+        // Set player and city names
+        String playerName = "Player", cityName = "City";
+        // Create a storage object
+        Storage s = new Storage(playerName, cityName);
+        // A road from (3, 2) to (10, 2) with a workplace on each end
+        for (int i = 3; i <= 10; i++) {
+            s.addBuilding(new Road(i, 2));
+        }
+        Service far = new Service(11, 2);
+        Industrial near = new Industrial(5, 1);
+        s.addZone(far);
+        s.addZone(near);
+
+        // The industrial zone is the closest one by road
+        Assert.assertEquals(s.getWorkplace(2, 2), near);
+        // Only the roads on the way are marked as used
+        Assert.assertFalse(((Road) s.getBuildingAt(3, 2)).getDestructible());
+        Assert.assertFalse(((Road) s.getBuildingAt(5, 2)).getDestructible());
+        Assert.assertTrue(((Road) s.getBuildingAt(6, 2)).getDestructible());
+        Assert.assertFalse(s.removeBuilding(4, 2));
+
+        // A workplace right next to the cell needs no road
+        Assert.assertEquals(s.getWorkplace(11, 3), far);
+    }
+
+    // Test case for checking the workplace search on a very long road
+    @Test
+    public void testLongRoadWorkplace() {
+        // Create a long and narrow storage object
+        Storage s = new Storage("Player", "City", 600, 3);
+        s.addMoney(600 * 100);
+        for (int i = 1; i < 599; i++) {
+            s.addBuilding(new Road(i, 1));
+        }
+        Service service = new Service(599, 1);
+        s.addZone(service);
+
+        // The search walks the whole road without recursion
+        Assert.assertEquals(s.getWorkplace(0, 1), service);
+        Assert.assertNull(s.getWorkplace(0, 0));
+    }
+
+    // Test case for checking workplaces are shared out once the nearest one is full
+    @Test
+    public void testWorkplaceField() {
+        // Set player and city names
+        String playerName = "Player", cityName = "City";
+        // Create a storage object
+        // Create a storage object without a clock so that only the explicit updates run
+        Storage s = new Storage(playerName, cityName, General.mapWidth, General.mapHeight, null);
+        // Two residential zones and two workplaces along one road
+        for (int i = 1; i <= 10; i++) {
+            s.addBuilding(new Road(i, 2));
+        }
+        Residential first = new Residential(1, 1);
+        Residential second = new Residential(3, 1);
+        Service service = new Service(9, 1);
+        Industrial industry = new Industrial(10, 3);
+        s.addZone(first);
+        s.addZone(second);
+        s.addZone(service);
+        s.addZone(industry);
+
+        // 100 people move into the first zone, 50 into the second
+        s.increasePopulation();
+        s.increasePopulation();
+        s.increasePopulation();
+        s.updateSatisfaction();
+        s.updateWorkplaces();
+
+        // The first zone fills the nearest workplace, the second one goes further
+        Assert.assertEquals(service.getSaturation(), 100);
+        Assert.assertEquals(industry.getSaturation(), 50);
+        Assert.assertTrue(first.workplaceExists());
+        Assert.assertTrue(second.workplaceExists());
+        Assert.assertFalse(((Road) s.getBuildingAt(10, 2)).getDestructible());
+    }
+
+    // Test case for checking road connectivity and availability after road changes
+    @Test
+    public void testRoadConnectivity() {
+        // Set player and city names
+        String playerName = "Player", cityName = "City";
+        // Create a storage object
+        Storage s = new Storage(playerName, cityName);
+        // Two road segments with a gap at (3, 5)
+        s.addBuilding(new Road(1, 5));
+        s.addBuilding(new Road(2, 5));
+        s.addBuilding(new Road(4, 5));
+        Residential res = new Residential(1, 4);
+        Service service = new Service(4, 4);
+        s.addZone(res);
+        s.addZone(service);
+
+        // The zones only become linked once the gap is closed
+        Assert.assertTrue(res.getAvailable());
+        Assert.assertFalse(s.isConnected(1, 4, 4, 4));
+        s.addBuilding(new Road(3, 5));
+        Assert.assertTrue(s.isConnected(1, 4, 4, 4));
+        Assert.assertEquals(s.getRoadComponent(1, 5), s.getRoadComponent(4, 5));
+
+        // Removing the road in the middle splits the network again
+        s.removeBuilding(3, 5);
+        Assert.assertFalse(s.isConnected(1, 4, 4, 4));
+        Assert.assertNotEquals(s.getRoadComponent(1, 5), s.getRoadComponent(4, 5));
+
+        // A zone loses its availability with its last road
+        s.removeBuilding(1, 5);
+        Assert.assertFalse(res.getAvailable());
+        Assert.assertEquals(s.getRoadComponent(1, 5), -1);
+    }
+
+    @Test
+    public void testCitizenStore(){
+        CitizenStore store = new CitizenStore();
+        Residential res = new Residential(2, 2);
+        Industrial ind = new Industrial(4, 2);
+        store.registerZone(res);
+        store.registerZone(ind);
+
+        int first = store.add(res);
+        Citizen c = store.get(first);
+        Assert.assertEquals(res, c.getResidence());
+        Assert.assertNull(c.getWorkplace());
+        Assert.assertEquals(1, res.getPeopleCount());
+
+        // The view writes through to the store
+        c.setWorkplace(ind);
+        c.setSatisfaction(80);
+        Assert.assertEquals(ind, store.getWorkplace(first));
+        Assert.assertEquals(80, store.getSatisfaction(first));
+        Assert.assertEquals(c, store.get(first));
+
+        // Freed ids are reused
+        store.remove(first);
+        Assert.assertFalse(store.contains(first));
+        Assert.assertEquals(0, res.getPeopleCount());
+        Assert.assertEquals(first, store.add(res));
+
+        // A large population only grows the primitive columns
+        for(int i = 0; i < 1000000; i++){
+            store.add(res);
+        }
+        Assert.assertEquals(1000001, store.size());
+        Assert.assertEquals(1000001, res.getPeopleCount());
+    }
+
+    @Test
+    public void testEmigrationWave(){
+        CitizenStore store = new CitizenStore();
+        Residential res = new Residential(2, 2);
+        Service ser = new Service(4, 2);
+        store.registerZone(res);
+        store.registerZone(ser);
+        int[] ids = new int[200000];
+        for(int i = 0; i < ids.length; i++){
+            ids[i] = store.add(res);
+        }
+        for(int i = 0; i < 100; i++){
+            Assert.assertTrue(ser.addWorker(ids[i]));
+            store.setWorkplace(ids[i], ser);
+        }
+
+        // Leaving from the middle keeps the other members reachable
+        store.setSatisfaction(ids[50], 5);
+        Assert.assertEquals(ids.length - 1, res.getPeopleCount());
+        Assert.assertEquals(99, ser.getPeopleCount());
+        for(int i = 0; i < ser.getPeopleCount(); i++){
+            Assert.assertNotEquals(ids[50], ser.getPerson(i));
+        }
+
+        // Everybody leaves, one at a time and in constant time each
+        for(int i = 0; i < ids.length; i++){
+            store.setSatisfaction(ids[i], 0);
+        }
+        Assert.assertEquals(0, res.getPeopleCount());
+        Assert.assertEquals(0, ser.getPeopleCount());
+    }
+
+    @Test
+    public void testRunningSatisfaction(){
+        CitizenStore store = new CitizenStore();
+        Residential res = new Residential(2, 2);
+        Industrial ind = new Industrial(4, 2);
+        store.registerZone(res);
+        store.registerZone(ind);
+        for(int i = 0; i < 100; i++){
+            int id = store.add(res);
+            store.setSatisfaction(id, 50 + i % 2 * 20);
+            Assert.assertTrue(ind.addWorker(id));
+            store.setWorkplace(id, ind);
+        }
+        Assert.assertFalse(ind.addWorker(store.add(res)));
+        Assert.assertEquals(6000, store.getSatisfactionSum());
+        Assert.assertEquals(6000, ind.getPeopleSatisfaction());
+        Assert.assertEquals(60, ind.getSatisfaction());
+
+        // Changes of a worker reach the sums of its zones
+        store.setSatisfaction(ind.getPerson(0), 100);
+        ind.updateSatisfaction();
+        Assert.assertEquals(res.getPeopleSatisfaction(), store.getSatisfactionSum());
+        Assert.assertTrue(ind.getPeopleSatisfaction() > 6000);
+
+        // A worker leaving takes its satisfaction with it
+        int leaving = ind.getPerson(1);
+        long before = ind.getPeopleSatisfaction();
+        int old = store.getSatisfaction(leaving);
+        store.setSatisfaction(leaving, 5);
+        Assert.assertEquals(before - old, ind.getPeopleSatisfaction());
+        Assert.assertEquals(99, ind.getPeopleCount());
+    }
+
+    @Test
+    public void testSimulationEngine() throws InterruptedException {
+        // Without a clock the city only changes through explicit ticks
+        Storage s = new Storage("Player", "City", General.mapWidth, General.mapHeight, null);
+        Assert.assertNull(s.getTimer());
+        Thread.sleep(1100);
+        Assert.assertEquals(0, s.getDate());
+
+        // Thirty years in one call
+        s.getEngine().runTicks(30 * 12 * 30);
+        Assert.assertEquals(30 * 12 * 30, s.getDate());
+        Assert.assertEquals("01/01/1880", s.getStringDate());
+        Assert.assertEquals(30 * 12 * 30, s.getEngine().getTickCount());
+
+        // A clock running as fast as possible
+        s.getEngine().setClock(new MaxSpeedClock());
+        s.getEngine().start();
+        Thread.sleep(100);
+        s.getEngine().stop();
+        long ticks = s.getEngine().getTickCount();
+        Assert.assertTrue(ticks > 30 * 12 * 30);
+        Assert.assertEquals(ticks, s.getDate());
+
+        // An accelerated clock
+        s.getEngine().setClock(new AcceleratedClock(1000));
+        s.getEngine().start();
+        Thread.sleep(200);
+        s.getEngine().stop();
+        Assert.assertTrue(s.getEngine().getTickCount() > ticks);
+
+        // No tick runs once stop returns
+        ticks = s.getEngine().getTickCount();
+        Thread.sleep(50);
+        Assert.assertEquals(ticks, s.getEngine().getTickCount());
+
+        // A failing tick stops the clocks instead of leaving them looking alive
+        Clock[] clocks = { new AcceleratedClock(1000), new MaxSpeedClock() };
+        for(Clock clock : clocks){
+            clock.start(() -> { throw new IllegalStateException("Broken tick"); });
+            Thread.sleep(100);
+            Assert.assertFalse(clock.isRunning());
+            clock.stop();
+        }
+    }
+
+    private static Storage buildParallelCity(ForkJoinPool pool){
+        Storage s = new Storage("Player", "City", 160, 160, null);
+        s.setParallel(pool);
+        for(int i = 0; i < 160; i += 20){
+            s.addBuilding(new Police(i + 2, i));
+            s.addBuilding(new Stadium(150 - i, i + 4));
+            s.addZone(new Industrial(i + 6, 159 - i));
+        }
+        for(int x = 0; x < 160; x += 9){
+            for(int y = 0; y < 160; y += 9){
+                Residential res = new Residential(x, y);
+                if(s.addZone(res)){
+                    res.increaseSaturation(x % 3 + 1);
+                    for(int k = 0; k <= x % 3; k++){
+                        s.getCitizens().add(res);
+                    }
+                }
+            }
+        }
+        return s;
+    }
+
+    @Test
+    public void testParallelTick(){
+        // A pool of its own, so that the regions are spread over several threads even on a single core
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Storage sequential = buildParallelCity(null);
+        Storage parallel = buildParallelCity(pool);
+        Assert.assertTrue(parallel.isParallel());
+        sequential.getEngine().runTicks(40);
+        parallel.getEngine().runTicks(40);
+
+        Assert.assertEquals(sequential.getSatisfaction(), parallel.getSatisfaction());
+        Assert.assertEquals(sequential.getCitizens().getSatisfactionSum(), parallel.getCitizens().getSatisfactionSum());
+        Assert.assertEquals(sequential.getZones().size(), parallel.getZones().size());
+        for(int i = 0; i < sequential.getZones().size(); i++){
+            Zone a = sequential.getZones().get(i);
+            Zone b = parallel.getZones().get(i);
+            Assert.assertEquals(a.getX(), b.getX());
+            Assert.assertEquals(a.getY(), b.getY());
+            Assert.assertEquals(a.getSatisfaction(), b.getSatisfaction());
+            Assert.assertEquals(a.getPeopleCount(), b.getPeopleCount());
+        }
+        pool.shutdown();
+    }
+
+    @Test
+    public void testSeededRandom(){
+        // Two cities replaying the same seed and commands end up the same
+        Storage s1 = new Storage("Player", "City", General.mapWidth, General.mapHeight, null);
+        Storage s2 = new Storage("Player", "City", General.mapWidth, General.mapHeight, null);
+        s1.setSeed(42);
+        s2.setSeed(42);
+        for(int i = 0; i < 20; i += 2){
+            s1.addBuilding(new Forest(i, i));
+            s2.addBuilding(new Forest(i, i));
+        }
+        for(int i = 0; i < 10; i++){
+            int x = s1.getRandom().nextInt(20);
+            Assert.assertEquals(x, s2.getRandom().nextInt(20));
+            Assert.assertEquals(s1.disaster(x, x), s2.disaster(x, x));
+        }
+        Assert.assertEquals(s1.getBuildings().size(), s2.getBuildings().size());
+
+        // The generator is saved with the city and continues where it stopped
+        s1.save();
+        Storage s3 = new Storage("", "", General.mapWidth, General.mapHeight, null);
+        s3.load(General.saveFolder + "/Player_City.sav");
+        Assert.assertEquals(42, s3.getRandom().getSeed());
+        Assert.assertEquals(s1.getRandom().nextLong(), s3.getRandom().nextLong());
+
+        // Streams only depend on the seed and their index
+        CityRandom random = new CityRandom(7);
+        long first = random.split(3).nextLong();
+        random.nextLong();
+        Assert.assertEquals(first, random.split(3).nextLong());
+        Assert.assertNotEquals(first, random.split(4).nextLong());
+        for(int i = 0; i < 1000; i++){
+            int value = random.nextInt(5);
+            Assert.assertTrue(value >= 0 && value < 5);
+            double d = random.nextDouble();
+            Assert.assertTrue(d >= 0 && d < 1);
+        }
+    }
+
+    @Test
+    public void testSnapshot() throws InterruptedException {
+        Storage s = new Storage("Player", "City", General.mapWidth, General.mapHeight, null);
+        CitySnapshot first = s.getEngine().getSnapshot();
+        Assert.assertNotNull(first);
+        Assert.assertEquals(0, first.getZoneCount());
+
+        // Commands and ticks publish new snapshots, older ones stay as they were
+        Assert.assertTrue(s.getEngine().execute(() -> s.addZone(new Residential(3, 4))));
+        CitySnapshot second = s.getEngine().getSnapshot();
+        Assert.assertTrue(second.getVersion() > first.getVersion());
+        Assert.assertEquals(0, first.getZoneCount());
+        Assert.assertEquals(0, second.findZone(3, 4));
+        Assert.assertEquals(-1, second.findZone(4, 3));
+        s.getEngine().tick();
+        Assert.assertEquals("02/01/1850", s.getEngine().getSnapshot().getDate());
+        Assert.assertEquals("01/01/1850", second.getDate());
+
+        // An idle tick only moves the date, a command raises the count that tells the renderer to redraw
+        s.getEngine().tick();
+        CitySnapshot idle = s.getEngine().getSnapshot();
+        s.getEngine().tick();
+        Assert.assertEquals(idle.getChangeCount(), s.getEngine().getSnapshot().getChangeCount());
+        Assert.assertNotEquals(idle.getDate(), s.getEngine().getSnapshot().getDate());
+        s.getEngine().execute(() -> s.addZone(new Service(8, 8)));
+        CitySnapshot changed = s.getEngine().getSnapshot();
+        Assert.assertTrue(changed.getChangeCount() > idle.getChangeCount());
+        Assert.assertEquals(1, idle.getZoneCount());
+        Assert.assertEquals(2, changed.getZoneCount());
+        Assert.assertEquals(0, changed.findZone(3, 4));
+        Assert.assertEquals(1, changed.findZone(8, 8));
+        Assert.assertEquals(-1, changed.findZone(8, 3));
+
+        // Reading snapshots while the simulation runs on its own thread
+        s.getEngine().setClock(new MaxSpeedClock());
+        s.getEngine().start();
+        for(int i = 0; i < 20; i++){
+            int x = i;
+            s.getEngine().execute(() -> s.addBuilding(new Road(x, 10)));
+            CitySnapshot snapshot = s.getEngine().getSnapshot();
+            for(int j = 0; j < snapshot.getBuildingCount(); j++){
+                Assert.assertEquals(10, snapshot.getBuildingY(j));
+            }
+        }
+        s.getEngine().stop();
+        Assert.assertEquals(20, s.getEngine().getSnapshot().getBuildingCount());
+    }
+
+    // Test case for the shared sprites of buildings and zones
+    @Test
+    public void testSpriteRegistry(){
+        // Buildings of the same kind share one scaled image
+        Road r1 = new Road(0, 0);
+        Road r2 = new Road(1, 0);
+        Assert.assertEquals(Sprite.ROAD, r1.getSprite());
+        Assert.assertSame(r1.getImage(), r2.getImage());
+        Assert.assertNotSame(r1.getImage(), new Forest(2, 0).getImage());
+
+        // Filling a zone only switches between its sprites, it does not scale new images
+        CitizenStore store = new CitizenStore();
+        Residential home = new Residential(2, 3);
+        Industrial industrial = new Industrial(3, 3);
+        store.registerZone(home);
+        store.registerZone(industrial);
+        Assert.assertNull(industrial.getImage());
+        industrial.addWorker(store.add(home));
+        Assert.assertEquals(Sprite.SMALL_INDUSTRIAL, industrial.getSprite());
+        int cached = SpriteRegistry.size();
+        for(int i = 1; i < 100; i++){
+            industrial.addWorker(store.add(home));
+        }
+        Assert.assertEquals(Sprite.LARGE_INDUSTRIAL, industrial.getSprite());
+        Assert.assertTrue(SpriteRegistry.size() <= cached + 1);
+        Assert.assertSame(industrial.getImage(), new Industrial(4, 4).loadImage("largeIndustrial.png").getImage());
+
+        // A new cell size gets images of its own
+        int cellSize = General.cellSize;
+        try {
+            General.cellSize = cellSize * 2;
+            Assert.assertEquals(cellSize * 2, r1.getImage().getWidth(null));
+        } finally {
+            General.cellSize = cellSize;
+        }
+        Assert.assertEquals(cellSize, r1.getImage().getWidth(null));
+    }
+
+    // Test case for the command journal and the recovery from it
+    @Test
+    public void testJournal() throws java.io.IOException {
+        java.io.File dir = java.nio.file.Files.createTempDirectory("journal").toFile();
+        java.io.File snapshot = new java.io.File(dir, "Player_City.sav");
+        java.io.File file = Journal.fileFor(snapshot);
+        Assert.assertEquals(new java.io.File(dir, "Player_City.journal").getAbsolutePath(), file.getAbsolutePath());
+
+        // Create a storage object without a clock so that only the explicit updates run
+        Storage s1 = new Storage("Player", "City", General.mapWidth, General.mapHeight, null);
+        s1.setSeed(7);
+        Journal journal = Journal.create(s1, snapshot, file);
+        Assert.assertEquals(Journal.HEADER_SIZE, file.length());
+        // A new city never replaces an existing save unless asked to
+        Storage other = new Storage("Player", "City", General.mapWidth, General.mapHeight, null);
+        long snapshotSize = snapshot.length();
+        try {
+            Journal.create(other, snapshot, file);
+            Assert.fail();
+        } catch (java.nio.file.FileAlreadyExistsException e) {
+            Assert.assertNull(other.getJournal());
+            Assert.assertEquals(snapshotSize, snapshot.length());
+            Assert.assertEquals(Journal.HEADER_SIZE, file.length());
+        }
+        for(int i = 0; i < 6; i++){
+            s1.addBuilding(new Road(i, 5));
+        }
+        s1.addZone(new Residential(1, 4));
+        s1.addZone(new Industrial(2, 6));
+        s1.addBuilding(new Police(7, 7));
+        s1.setSpeed(5);
+        s1.getEngine().runTicks(40);
+        s1.removeBuilding(7, 7);
+        s1.addBuilding(new Forest(9, 9));
+        s1.addMoney(100);
+        s1.disaster(9, 9, 1);
+        // Commands drawing from the random generator
+        s1.randomDisaster();
+        s1.randomDisaster(0);
+        s1.plantRandomForest();
+        s1.getEngine().tick();
+        Assert.assertTrue(journal.getRecordCount() > 40);
+        // Every tick writes the records, the snapshot was not touched
+        long journalSize = file.length();
+        Assert.assertTrue(journalSize > Journal.HEADER_SIZE);
+
+        // A crash: the records are replayed on top of the snapshot
+        Storage s2 = new Storage("", "", General.mapWidth, General.mapHeight, null);
+        Journal recovered = Journal.open(s2, snapshot, file);
+        Assert.assertSame(recovered, s2.getJournal());
+        Assert.assertEquals(journal.getRecordCount(), recovered.getRecordCount());
+        Assert.assertEquals(s1.getDate(), s2.getDate());
+        Assert.assertEquals(s1.getSpeed(), s2.getSpeed());
+        Assert.assertEquals(s1.getMoney(), s2.getMoney());
+        Assert.assertEquals(s1.getPopulation(), s2.getPopulation());
+        Assert.assertEquals(s1.getBuildings().size(), s2.getBuildings().size());
+        Assert.assertNull(s2.getBuildingAt(9, 9));
+        Assert.assertEquals(s1.getZones().size(), s2.getZones().size());
+        // The generator continues from where it was, so later random commands match too
+        Assert.assertEquals(s1.getRandom().getState(), s2.getRandom().getState());
+        Assert.assertEquals(s1.getRandom().nextInt(1000), s2.getRandom().nextInt(1000));
+        journal.close();
+
+        // A torn record at the end is dropped and the journal goes on after the last whole record
+        try (java.io.FileOutputStream out = new java.io.FileOutputStream(file, true)) {
+            out.write(new byte[]{1, 1, 0});
+        }
+        recovered.close();
+        Storage s3 = new Storage("", "", General.mapWidth, General.mapHeight, null);
+        Journal reopened = Journal.open(s3, snapshot, file);
+        Assert.assertEquals(journalSize, file.length());
+        Assert.assertEquals(s1.getMoney(), s3.getMoney());
+
+        // Compaction folds the journal into the snapshot
+        s3.getEngine().tick();
+        s3.save();
+        Assert.assertEquals(Journal.HEADER_SIZE, file.length());
+        Assert.assertEquals(0, reopened.getRecordCount());
+        s3.addZone(new Service(3, 6));
+        s3.getEngine().tick();
+        reopened.close();
+        Storage s4 = new Storage("", "", General.mapWidth, General.mapHeight, null);
+        Journal.open(s4, snapshot, file).close();
+        Assert.assertEquals(s3.getDate(), s4.getDate());
+        Assert.assertEquals(s3.getMoney(), s4.getMoney());
+        Assert.assertEquals(s3.getZones().size(), s4.getZones().size());
+        Assert.assertEquals(s3.getCitizens().size(), s4.getCitizens().size());
+
+        // A save that cannot be loaded gets no journal, so nothing is ever saved over it
+        java.io.File broken = new java.io.File(dir, "Broken.sav");
+        java.nio.file.Files.write(broken.toPath(), new byte[]{1, 2, 3});
+        Storage s5 = new Storage("", "", General.mapWidth, General.mapHeight, null);
+        try {
+            Journal.open(s5, broken, Journal.fileFor(broken));
+            Assert.fail();
+        } catch (java.io.IOException e) {
+            Assert.assertNull(s5.getJournal());
+            Assert.assertFalse(Journal.fileFor(broken).exists());
+            Assert.assertEquals(3, broken.length());
+        }
+    }
+
+    // Test case for saving in the background
+    @Test
+    public void testAutosave() throws Exception {
+        java.io.File dir = java.nio.file.Files.createTempDirectory("autosave").toFile();
+        java.io.File file = new java.io.File(dir, "Player_City.sav");
+
+        // Saving while the simulation runs on its own thread
+        Storage s1 = new Storage("Player", "City", General.mapWidth, General.mapHeight, new MaxSpeedClock());
+        for(int i = 0; i < 6; i++){
+            int x = i;
+            s1.getEngine().execute(() -> s1.addBuilding(new Road(x, 5)));
+        }
+        s1.getEngine().execute(() -> s1.addZone(new Residential(1, 4)));
+        AutosaveService autosave = new AutosaveService(s1, file);
+        autosave.saveNow().get();
+        s1.getEngine().stop();
+        Assert.assertEquals(1, autosave.getSaveCount());
+        Assert.assertTrue(settings.persistence.CityFormat.isCityFile(file));
+        Storage s2 = new Storage("", "", General.mapWidth, General.mapHeight, null);
+        s2.load(file.getPath());
+        Assert.assertEquals("Player", s2.getPlayerName());
+        Assert.assertEquals(7, s2.getBuildings().size() + s2.getZones().size());
+        Assert.assertTrue(s2.getDate() > 0);
+        autosave.start(3600);
+        Assert.assertEquals(3600, autosave.getInterval());
+        autosave.close();
+        Assert.assertEquals(0, autosave.getInterval());
+        Assert.assertEquals(0, dir.listFiles((d, name) -> name.endsWith(".tmp")).length);
+
+        // With a journal next to the file, a save compacts it
+        // Create a storage object without a clock so that only the explicit updates run
+        Storage s3 = new Storage("Player", "City", General.mapWidth, General.mapHeight, null);
+        java.io.File journalFile = Journal.fileFor(file);
+        Journal journal = Journal.create(s3, file, journalFile, true);
+        s3.addBuilding(new Road(0, 0));
+        s3.getEngine().tick();
+        Assert.assertEquals(2, journal.getRecordCount());
+        byte[] before = java.nio.file.Files.readAllBytes(journalFile.toPath());
+        new AutosaveService(s3, file).save();
+        Assert.assertEquals(0, journal.getRecordCount());
+        Assert.assertEquals(Journal.HEADER_SIZE, journalFile.length());
+
+        // A crash after the new snapshot was written but before the journal was emptied
+        java.util.zip.CRC32 crc = new java.util.zip.CRC32();
+        crc.update(java.nio.file.Files.readAllBytes(file.toPath()));
+        journal.close();
+        try (java.io.DataOutputStream out = new java.io.DataOutputStream(new java.io.FileOutputStream(journalFile))) {
+            out.write(before);
+            out.writeByte(10);
+            out.writeLong(crc.getValue());
+            out.writeLong(before.length);
+            // A command recorded while the snapshot was being written
+            out.writeByte(7);
+            out.writeInt(500);
+        }
+        Storage s4 = new Storage("", "", General.mapWidth, General.mapHeight, null);
+        Journal recovered = Journal.open(s4, file, journalFile);
+        Assert.assertEquals(1, recovered.getRecordCount());
+        Assert.assertEquals(s3.getMoney() + 500, s4.getMoney());
+        Assert.assertEquals(s3.getDate(), s4.getDate());
+        Assert.assertEquals(s3.getBuildings().size(), s4.getBuildings().size());
+        Assert.assertEquals(Journal.HEADER_SIZE + 5, journalFile.length());
+        recovered.close();
+    }
+
+    // Test case for the compressed save container
+    @Test
+    public void testCompressedSave() throws java.io.IOException {
+        // Create a storage object without a clock so that only the explicit updates run
+        Storage s1 = new Storage("Player", "City", 150, 150, null);
+        for(int i = 0; i < 150; i++){
+            s1.addBuilding(new Road(i, 5));
+        }
+        s1.addMoney(100000);
+        for(int i = 0; i < 150; i += 2){
+            s1.addZone(new Residential(i, 4));
+            s1.addZone(i % 4 == 0 ? new Industrial(i, 6) : new Service(i, 6));
+        }
+        s1.addBuilding(new Police(130, 130));
+        s1.increasePopulation();
+        s1.updateWorkplaces();
+        s1.updateSatisfaction();
+        SaveImage image = s1.capture();
+
+        java.io.ByteArrayOutputStream plain = new java.io.ByteArrayOutputStream();
+        CityFormat.write(image, plain);
+        java.io.ByteArrayOutputStream compressed = new java.io.ByteArrayOutputStream();
+        ChunkedCityFormat.write(image, compressed);
+        Assert.assertTrue(compressed.size() < plain.size() / 2);
+
+        // Streaming the container gives back the same city
+        SaveImage streamed = CityFormat.read(new java.io.ByteArrayInputStream(compressed.toByteArray()));
+        java.io.ByteArrayOutputStream again = new java.io.ByteArrayOutputStream();
+        CityFormat.write(streamed, again);
+        Assert.assertArrayEquals(plain.toByteArray(), again.toByteArray());
+
+        // Single chunks can be read without inflating the others
+        java.io.File file = java.io.File.createTempFile("city", ".sav");
+        java.nio.file.Files.write(file.toPath(), compressed.toByteArray());
+        Assert.assertTrue(CityFormat.isCityFile(file));
+        try (ChunkedCityFile city = new ChunkedCityFile(file)) {
+            Assert.assertEquals(150, city.getWidth());
+            Assert.assertEquals(4, city.getChunkCount());
+            Assert.assertTrue(city.hasChunk(1, 0));
+            Assert.assertFalse(city.hasChunk(0, 1));
+            SaveChunk chunk = city.readChunk(2, 2);
+            Assert.assertEquals(1, chunk.buildingType.length);
+            Assert.assertEquals(130, chunk.buildingX[0]);
+            Assert.assertEquals(image.buildingType.length - 1, chunk.buildingIndex[0]);
+
+            // The chunks around the viewport come first
+            java.util.List<SaveChunk> chunks = new java.util.ArrayList<SaveChunk>();
+            SaveImage read = city.readImage(140, 140, chunks::add);
+            Assert.assertEquals(2, chunks.get(0).chunkX);
+            Assert.assertEquals(2, chunks.get(0).chunkY);
+            java.io.ByteArrayOutputStream third = new java.io.ByteArrayOutputStream();
+            CityFormat.write(read, third);
+            Assert.assertArrayEquals(plain.toByteArray(), third.toByteArray());
+        }
+
+        // Saves are compressed once the setting is on
+        boolean compress = General.compressSaves;
+        try {
+            General.compressSaves = true;
+            CityFormat.writeFile(CityFormat.toBytes(image), file);
+        } finally {
+            General.compressSaves = compress;
+        }
+        Storage s2 = new Storage("", "", 10, 10, null);
+        s2.load(file.getPath());
+        Assert.assertEquals(150, s2.getWidth());
+        Assert.assertEquals(s1.getBuildings().size(), s2.getBuildings().size());
+        Assert.assertEquals(s1.getCitizens().size(), s2.getCitizens().size());
+        Assert.assertEquals(s1.getMoney(), s2.getMoney());
+        // Recovering reads the compressed chunks from the file, the ones around the view first
+        Storage s3 = new Storage("", "", 10, 10, null);
+        Journal.open(s3, file, Journal.fileFor(file), 140, 140).close();
+        Assert.assertEquals(150, s3.getWidth());
+        Assert.assertEquals(s1.getBuildings().size(), s3.getBuildings().size());
+        Assert.assertEquals(s1.getCitizens().size(), s3.getCitizens().size());
+        Journal.fileFor(file).delete();
+        file.delete();
+    }
+
+    // Test case for the incremental saves into a city log
+    @Test
+    public void testIncrementalSave() throws java.io.IOException {
+        java.io.File dir = java.nio.file.Files.createTempDirectory("citylog").toFile();
+        java.io.File file = new java.io.File(dir, "Player_City.sav");
+        // Create a storage object without a clock so that only the explicit updates run
+        Storage s1 = new Storage("Player", "City", 150, 150, null);
+        for(int i = 0; i < 150; i++){
+            s1.addBuilding(new Road(i, 5));
+        }
+        s1.addMoney(100000);
+        for(int i = 0; i < 150; i += 2){
+            s1.addZone(new Residential(i, 4));
+            s1.addZone(i % 4 == 0 ? new Industrial(i, 6) : new Service(i, 6));
+        }
+        s1.increasePopulation();
+        s1.updateWorkplaces();
+        s1.updateSatisfaction();
+
+        // The first save writes the whole city
+        CityLog log = s1.getCityLog(file);
+        Assert.assertSame(log, s1.getCityLog(new java.io.File(dir, "Player_City.sav")));
+        log.save(s1);
+        long fullSize = file.length();
+        Assert.assertEquals(fullSize, log.getSize());
+        assertSameCity(s1, file);
+
+        // Changes of one chunk only append that chunk and the scalars
+        s1.addBuilding(new Police(130, 130));
+        ChangeTracker changes = s1.getEngine().execute(s1::takeChanges);
+        Assert.assertFalse(changes.isAll());
+        Assert.assertEquals(1, changes.getChangedChunkCount());
+        Assert.assertTrue(changes.isTableChanged(ChangeTracker.BUILDINGS));
+        Assert.assertFalse(changes.isTableChanged(ChangeTracker.CITIZENS));
+        CityLog.Update update = log.prepare(s1.capture(), changes);
+        Assert.assertFalse(update.isFull());
+        Assert.assertTrue(update.getSize() < fullSize / 10);
+        log.write(update);
+        assertSameCity(s1, file);
+
+        // Removing a building moves the others in the list without touching their chunks
+        s1.removeBuilding(3, 5);
+        log.save(s1);
+        assertSameCity(s1, file);
+        s1.getEngine().runTicks(40);
+        long checksum = log.save(s1);
+        assertSameCity(s1, file);
+        byte[] data = java.nio.file.Files.readAllBytes(file.toPath());
+        Assert.assertEquals(checksum, CityLog.checksum(data));
+
+        // A save torn by a crash is ignored, and dropped by the next save
+        try (java.io.FileOutputStream out = new java.io.FileOutputStream(file, true)) {
+            out.write(new byte[]{5, 0, 0, 0, 0, 0, 0});
+        }
+        Assert.assertEquals(checksum, CityLog.checksum(java.nio.file.Files.readAllBytes(file.toPath())));
+        assertSameCity(s1, file);
+        s1.addMoney(5);
+        log.save(s1);
+        assertSameCity(s1, file);
+        Assert.assertEquals(log.getSize(), file.length());
+        Assert.assertEquals(s1.getMoney(), SaveHeader.read(file).money);
+
+        // Saves go through the log once the setting is on, also when a journal is attached
+        boolean incremental = General.incrementalSaves;
+        try {
+            General.incrementalSaves = true;
+            java.io.File snapshot = new java.io.File(dir, "Journal_City.sav");
+            Storage s2 = new Storage("Journal", "City", 150, 150, null);
+            Journal journal = Journal.create(s2, snapshot, Journal.fileFor(snapshot));
+            s2.addMoney(100000);
+            for(int i = 0; i < 20; i++){
+                s2.addBuilding(new Road(i, 5));
+                s2.addZone(new Residential(i, 4));
+            }
+            s2.getEngine().runTicks(40);
+            s2.save();
+            s2.addZone(new Industrial(100, 100));
+            s2.getEngine().runTicks(5);
+            journal.close();
+            Storage s3 = new Storage("", "", 10, 10, null);
+            Journal.open(s3, snapshot, Journal.fileFor(snapshot)).close();
+            Assert.assertEquals(s2.getMoney(), s3.getMoney());
+            Assert.assertEquals(s2.getZones().size(), s3.getZones().size());
+            Assert.assertEquals(s2.getCitizens().size(), s3.getCitizens().size());
+            snapshot.delete();
+            Journal.fileFor(snapshot).delete();
+        } finally {
+            General.incrementalSaves = incremental;
+        }
+        file.delete();
+        dir.delete();
+    }
+
+    // Checks that a save file holds exactly the state of a city
+    private static void assertSameCity(Storage storage, java.io.File file) throws java.io.IOException {
+        java.io.ByteArrayOutputStream expected = new java.io.ByteArrayOutputStream();
+        CityFormat.write(storage.capture(), expected);
+        java.io.ByteArrayOutputStream actual = new java.io.ByteArrayOutputStream();
+        try (java.io.FileInputStream in = new java.io.FileInputStream(file)) {
+            CityFormat.write(CityFormat.read(in), actual);
+        }
+        Assert.assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+    }
+
+    // Test case for the save header and the index of saves
+    @Test
+    public void testSaveHeader() throws java.io.IOException, InterruptedException {
+        // Create a storage object without a clock so that only the explicit updates run
+        Storage s1 = new Storage("Player", "A city with a name much longer than the sixty-three bytes of its slot", 150, 150, null);
+        for(int i = 0; i < 150; i++){
+            s1.addBuilding(new Road(i, 5));
+        }
+        s1.addZone(new Residential(10, 4));
+        s1.addZone(new Industrial(140, 140));
+        SaveImage image = s1.capture();
+
+        // The header survives a round trip, with the city name cut to its slot
+        SaveHeader header = SaveHeader.of(image);
+        java.io.ByteArrayOutputStream bytes = new java.io.ByteArrayOutputStream();
+        header.write(new java.io.DataOutputStream(bytes));
+        Assert.assertEquals(SaveHeader.SIZE, bytes.size());
+        SaveHeader read = SaveHeader.read(new java.io.DataInputStream(new java.io.ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals("Player", read.playerName);
+        Assert.assertEquals(63, read.cityName.length());
+        Assert.assertTrue(image.cityName.startsWith(read.cityName));
+        Assert.assertEquals(s1.getMoney(), read.money);
+        // Three cells per pixel keep the thumbnail within 64 pixels
+        Assert.assertEquals(50, read.thumbnailWidth);
+        Assert.assertEquals(50, read.thumbnailHeight);
+
+        // Plain and compressed saves both start with the header, followed by the thumbnail
+        java.io.File folder = java.nio.file.Files.createTempDirectory("saves").toFile();
+        java.io.File plain = new java.io.File(folder, "plain.sav");
+        java.io.File compressed = new java.io.File(folder, "compressed.sav");
+        java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+        CityFormat.write(image, out);
+        CityFormat.writeFile(out.toByteArray(), plain);
+        out.reset();
+        ChunkedCityFormat.write(image, out);
+        CityFormat.writeFile(out.toByteArray(), compressed);
+        for(java.io.File file: new java.io.File[]{plain, compressed}){
+            SaveHeader fromFile = SaveHeader.read(file);
+            Assert.assertEquals(read.cityName, fromFile.cityName);
+            Assert.assertEquals(150, fromFile.width);
+            byte[] thumbnail = fromFile.readThumbnail(file);
+            Assert.assertEquals(SaveHeader.ROAD, thumbnail[1 * 50 + 6]);
+            Assert.assertEquals(SaveHeader.RESIDENTIAL, thumbnail[1 * 50 + 3]);
+            Assert.assertEquals(SaveHeader.INDUSTRIAL, thumbnail[46 * 50 + 46]);
+            Assert.assertEquals(SaveHeader.EMPTY, thumbnail[30 * 50 + 30]);
+        }
+
+        // The index lists the saves from their headers and caches them
+        java.nio.file.Files.write(new java.io.File(folder, "notes.txt").toPath(), new byte[]{1, 2, 3});
+        SaveIndex index = new SaveIndex(folder);
+        Assert.assertEquals(2, index.refresh().size());
+        java.io.File indexFile = new java.io.File(folder, SaveIndex.FILE_NAME);
+        Assert.assertTrue(indexFile.exists());
+        long written = indexFile.lastModified();
+        Thread.sleep(20);
+        Assert.assertEquals(2, new SaveIndex(folder).refresh().size());
+        Assert.assertEquals(written, indexFile.lastModified());
+
+        // A changed save is read again, a removed one leaves the index
+        s1.addMoney(1234);
+        out.reset();
+        CityFormat.write(s1.capture(), out);
+        CityFormat.writeFile(out.toByteArray(), plain);
+        plain.setLastModified(plain.lastModified() + 2000);
+        compressed.delete();
+        SaveIndex again = new SaveIndex(folder);
+        java.util.List<SaveIndex.Entry> entries = again.refresh();
+        Assert.assertEquals(1, entries.size());
+        Assert.assertEquals(s1.getMoney(), again.get(plain).getHeader().money);
+        Assert.assertNull(again.get(compressed));
+
+        // A save reached through an equivalent path is found, whichever side holds the "." part
+        java.io.File dotted = new java.io.File(new java.io.File(folder, "."), plain.getName());
+        Assert.assertNotNull(again.get(dotted));
+        SaveIndex fromDotted = new SaveIndex(new java.io.File(folder, "."));
+        fromDotted.refresh();
+        Assert.assertNotNull(fromDotted.get(plain));
+        Assert.assertNotNull(fromDotted.get(dotted));
+
+        plain.delete();
+        indexFile.delete();
+        new java.io.File(folder, "notes.txt").delete();
+        folder.delete();
+    }
+
+    // Test case for the memory-mapped chunk store and the tile map of a city
+    @Test
+    public void testMappedChunkStore() throws java.io.IOException {
+        java.io.File dir = java.nio.file.Files.createTempDirectory("tiles").toFile();
+        java.io.File file = new java.io.File(dir, "world.tiles");
+        // A 16384x16384 map takes 2 GB of records, the file stays sparse until cells are written
+        MappedChunkStore store = MappedChunkStore.create(file, 16384, 16384, 8, 4);
+        Assert.assertEquals(MappedChunkStore.HEADER_SIZE + 16384L * 16384 * 8, file.length());
+        Assert.assertEquals(0, store.getInt(5000, 5000, 0));
+        for(int i = 0; i < 10; i++){
+            store.putInt(i * 1000, i * 1500, 0, i + 1);
+            store.putShort(i * 1000, i * 1500, 4, (short) -i);
+            store.putByte(i * 1000 + 1, i * 1500, 7, (byte) i);
+            Assert.assertTrue(store.getResidentCount() <= 4);
+        }
+        Assert.assertEquals(11, store.getMapCount());
+        // Evicted chunks stay mapped until they are trimmed
+        Assert.assertEquals(11, store.getMappedCount());
+        store.trim();
+        Assert.assertEquals(4, store.getMappedCount());
+        // Evicted chunks are mapped again and still hold their records
+        Assert.assertEquals(1, store.getInt(0, 0, 0));
+        Assert.assertEquals(12, store.getMapCount());
+        // Threads read through the chunk each of them used last
+        final MappedChunkStore shared = store;
+        Assert.assertTrue(java.util.stream.IntStream.range(0, 10000).parallel()
+                .allMatch(k -> shared.getInt((k % 10) * 1000, (k % 10) * 1500, 0) == k % 10 + 1));
+        store.trim();
+        Assert.assertTrue(store.getMappedCount() <= 4);
+        store.close();
+
+        // Opening only reads the header, the chunks are mapped on demand
+        store = MappedChunkStore.open(file, 2);
+        Assert.assertEquals(16384, store.getWidth());
+        Assert.assertEquals(8, store.getRecordSize());
+        Assert.assertEquals(0, store.getMapCount());
+        for(int i = 9; i >= 0; i--){
+            Assert.assertEquals(i + 1, store.getInt(i * 1000, i * 1500, 0));
+            Assert.assertEquals(-i, store.getShort(i * 1000, i * 1500, 4));
+            Assert.assertEquals(i, store.getByte(i * 1000 + 1, i * 1500, 7));
+        }
+        Assert.assertTrue(store.getResidentCount() <= 2);
+
+        // Bytes past the end of a record are rejected instead of spilling into the next cell
+        try {
+            store.getInt(0, 0, 6);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException e) {
+            Assert.assertEquals(1, store.getInt(0, 0, 0));
+        }
+        try {
+            store.putByte(0, 0, -1, (byte) 1);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+        store.close();
+
+        // A truncated file is not opened, and opening it does not grow it back
+        try (java.nio.channels.FileChannel channel = java.nio.channels.FileChannel.open(file.toPath(), java.nio.file.StandardOpenOption.WRITE)) {
+            channel.truncate(MappedChunkStore.HEADER_SIZE + 1000);
+        }
+        try {
+            MappedChunkStore.open(file, 2);
+            Assert.fail();
+        } catch (java.io.IOException e) {
+            Assert.assertEquals(MappedChunkStore.HEADER_SIZE + 1000, file.length());
+        }
+        file.delete();
+
+        // The tile map holds the cells of a city, which reads its occupancy from the file
+        // Create a storage object without a clock so that only the explicit updates run
+        Storage s = new Storage("Player", "City", 150, 150, null);
+        Stadium stadium = new Stadium(20, 20);
+        s.addBuilding(stadium);
+        TileMap tiles = new TileMap(MappedChunkStore.create(file, 150, 150, TileMap.RECORD_SIZE, 2));
+        s.setTileMap(tiles);
+        Assert.assertSame(tiles, s.getTileMap());
+        Assert.assertSame(stadium, tiles.getBuildingGrid().get(21, 21));
+        Assert.assertSame(stadium, s.getBuildingAt(21, 21));
+        Assert.assertEquals(TileMap.STADIUM, tiles.getBuilding(21, 21));
+        Assert.assertFalse(tiles.isAvailable(20, 20));
+        for(int i = 0; i < 5; i++){
+            s.addBuilding(new Road(i, 5));
+            s.addZone(new Residential(i, 4));
+        }
+        s.addBuilding(new Road(20, 19));
+        Assert.assertEquals(TileMap.ROAD, tiles.getBuilding(3, 5));
+        Assert.assertEquals(TileMap.RESIDENTIAL, tiles.getZone(3, 4));
+        Assert.assertEquals(TileMap.EMPTY, tiles.getBuilding(3, 4));
+        Assert.assertTrue(tiles.isAvailable(3, 4));
+        Assert.assertTrue(tiles.isAvailable(21, 21));
+        Assert.assertEquals(TileMap.EMPTY, tiles.getZone(-1, 4));
+        s.getEngine().runTicks(40);
+        Zone zone = s.getZoneAt(0, 4);
+        Assert.assertTrue(zone.getSaturation() > 0);
+        Assert.assertEquals(zone.getSaturation(), tiles.getSaturation(0, 4));
+        s.removeBuilding(4, 5);
+        Assert.assertEquals(TileMap.EMPTY, tiles.getBuilding(4, 5));
+        Assert.assertFalse(tiles.isAvailable(4, 4));
+        s.removeBuilding(20, 19);
+        Assert.assertFalse(tiles.isAvailable(20, 20));
+        Assert.assertEquals(s.getBuildings().size(), tiles.getBuildingGrid().getValueCount());
+        // The engine unmaps the chunks evicted meanwhile once a tick is published
+        s.getEngine().runTicks(1);
+        Assert.assertTrue(((MappedChunkStore) tiles.getStore()).getMappedCount() <= 2);
+        // Detaching gives the cells back to the city
+        s.setTileMap(null);
+        Assert.assertNull(s.getTileMap());
+        Assert.assertSame(stadium, s.getBuildingAt(21, 21));
+        tiles.getStore().close();
+        file.delete();
+
+        // With mappedTiles set, every city pages its cells from a temporary file
+        boolean mapped = General.mappedTiles;
+        try {
+            General.mappedTiles = true;
+            s = new Storage("Player", "City", 150, 150, null);
+        } finally {
+            General.mappedTiles = mapped;
+        }
+        Assert.assertTrue(s.getTileMap().getStore() instanceof MappedChunkStore);
+        s.addBuilding(new Road(1, 1));
+        Assert.assertTrue(s.roadExists(1, 2));
+        Assert.assertEquals(TileMap.ROAD, s.getTileMap().getBuilding(1, 1));
+        s.getTileMap().getStore().close();
+        dir.delete();
+    }
+
+    // Test case for keeping the tile layers and coverage counts off the heap
+    @Test
+    public void testOffHeapTiles() {
+        boolean offHeap = General.offHeapTiles;
+        Storage[] cities = new Storage[2];
+        try {
+            for(int k = 0; k < 2; k++){
+                General.offHeapTiles = k == 1;
+                // Create a storage object without a clock so that only the explicit updates run
+                Storage s = new Storage("Player", "City", 1000, 1000, null);
+                s.addMoney(100000);
+                for(int i = 0; i < 30; i++){
+                    s.addBuilding(new Road(i, 5));
+                    s.addZone(new Residential(i, 4));
+                }
+                s.addZone(new Industrial(3, 6));
+                s.addZone(new Service(10, 6));
+                s.addBuilding(new Police(15, 1));
+                s.addBuilding(new Stadium(25, 1));
+                s.addBuilding(new Forest(20, 3));
+                s.addBuilding(new Forest(7, 4));
+                s.getEngine().runTicks(90);
+                s.removeBuilding(29, 5);
+                s.getEngine().runTicks(10);
+                cities[k] = s;
+            }
+        } finally {
+            General.offHeapTiles = offHeap;
+        }
+        Assert.assertNull(cities[0].getTileMap());
+        TileMap tiles = cities[1].getTileMap();
+        Assert.assertNotNull(tiles);
+        // Only the chunk of the city corner was allocated
+        Assert.assertEquals(1, ((DirectChunkStore) tiles.getStore()).getChunkCount());
+        // A bad offset is rejected even in a chunk that was never allocated
+        try {
+            tiles.getStore().getShort(900, 900, TileMap.RECORD_SIZE - 1);
+            Assert.fail();
+        } catch (IndexOutOfBoundsException e) {
+        }
+        Assert.assertEquals(TileMap.ROAD, tiles.getBuilding(28, 5));
+        Assert.assertEquals(TileMap.EMPTY, tiles.getBuilding(29, 5));
+        Assert.assertEquals(2, tiles.getAdjacentRoads(27, 5));
+        Assert.assertEquals(1, tiles.getAdjacentRoads(28, 5));
+        Assert.assertFalse(cities[1].roadExists(29, 4));
+        Assert.assertTrue(cities[1].roadExists(29, 5));
+        Assert.assertEquals(TileMap.INDUSTRIAL, tiles.getZone(3, 6));
+        // The occupancy itself is read from the tile records, one slot per building or zone
+        Assert.assertSame(cities[1].getBuildingAt(26, 2), tiles.getBuildingGrid().get(25, 1));
+        Assert.assertEquals(cities[1].getBuildings().size(), tiles.getBuildingGrid().getValueCount());
+        Assert.assertEquals(cities[1].getZones().size(), tiles.getZoneGrid().getValueCount());
+
+        // The queries answer the same from the tile layers as from the heap grids
+        for(int x = 0; x < 35; x++){
+            for(int y = 0; y < 10; y++){
+                Assert.assertEquals(cities[0].roadExists(x, y), cities[1].roadExists(x, y));
+            }
+        }
+        Assert.assertEquals(cities[0].getZones().size(), cities[1].getZones().size());
+        for(int i = 0; i < cities[0].getZones().size(); i++){
+            Zone z0 = cities[0].getZones().get(i);
+            Zone z1 = cities[1].getZones().get(i);
+            Assert.assertEquals(z0.getAvailable(), z1.getAvailable());
+            Assert.assertEquals(z0.getSaturation(), z1.getSaturation());
+            Assert.assertEquals(z0.getSatisfaction(), z1.getSatisfaction());
+            Assert.assertEquals(z1.getSaturation(), tiles.getSaturation(z1.getX(), z1.getY()));
+            Assert.assertEquals(z1.getAvailable(), tiles.isAvailable(z1.getX(), z1.getY()));
+            if(z0 instanceof Residential){
+                Residential r0 = (Residential) z0;
+                Residential r1 = (Residential) z1;
+                Assert.assertEquals(cities[0].checkPolice(r0), cities[1].checkPolice(r1));
+                Assert.assertEquals(cities[0].checkStadium(r0), cities[1].checkStadium(r1));
+                Assert.assertEquals(cities[0].checkForest(r0), cities[1].checkForest(r1));
+                Assert.assertEquals(cities[0].checkIndustrialEffect(r0), cities[1].checkIndustrialEffect(r1));
+            }
+        }
+        Assert.assertEquals(cities[0].getSatisfaction(), cities[1].getSatisfaction());
+        Assert.assertEquals(cities[0].getPopulation(), cities[1].getPopulation());
+        Assert.assertTrue(cities[1].checkPolice((Residential) cities[1].getZoneAt(15, 4)));
+        Assert.assertTrue(cities[1].checkIndustrialEffect((Residential) cities[1].getZoneAt(3, 4)));
+    }
+
+    // Test case for the binary save format
+    @Test
+    public void testBinarySave() throws java.io.IOException {
+        String playerName = "Binary", cityName = "City";
+        // Create a storage object without a clock so that only the explicit updates run
+        Storage s1 = new Storage(playerName, cityName, General.mapWidth, General.mapHeight, null);
+        s1.setSeed(7);
+        for(int i = 0; i < 6; i++){
+            s1.addBuilding(new Road(i, 5));
+        }
+        s1.addZone(new Residential(1, 4));
+        s1.addZone(new Residential(2, 4));
+        s1.addZone(new Industrial(3, 6));
+        s1.addZone(new Service(4, 6));
+        Forest forest = new Forest(8, 8);
+        forest.incrementAge();
+        forest.incrementAge();
+        s1.addBuilding(forest);
+        s1.increasePopulation();
+        s1.updateWorkplaces();
+        s1.updateSatisfaction();
+        s1.setDate(500);
+        Assert.assertTrue(s1.getCitizens().size() > 0);
+        s1.save();
+
+        java.io.File file = new java.io.File(General.saveFolder, playerName + "_" + cityName + ".sav");
+        try (java.io.DataInputStream in = new java.io.DataInputStream(new java.io.FileInputStream(file))) {
+            Assert.assertEquals(settings.persistence.CityFormat.MAGIC, in.readInt());
+        }
+        // No images and no object graph, only primitive columns
+        Assert.assertTrue(file.length() < 10000);
+
+        Storage s2 = new Storage("", "", General.mapWidth, General.mapHeight, null);
+        s2.load(file.getPath());
+        Assert.assertEquals(s1.getPlayerName(), s2.getPlayerName());
+        Assert.assertEquals(s1.getDate(), s2.getDate());
+        Assert.assertEquals(s1.getMoney(), s2.getMoney());
+        Assert.assertEquals(s1.getSatisfaction(), s2.getSatisfaction());
+        Assert.assertEquals(s1.getPopulation(), s2.getPopulation());
+        Assert.assertEquals(s1.getRandom().getSeed(), s2.getRandom().getSeed());
+        Assert.assertEquals(s1.getRandom().nextLong(), s2.getRandom().nextLong());
+        Assert.assertEquals(s1.getBuildings().size(), s2.getBuildings().size());
+        Assert.assertEquals(2, ((Forest) s2.getBuildingAt(8, 8)).getAge());
+        Assert.assertNotNull(s2.getBuildingAt(0, 5).getImage());
+        Assert.assertEquals(s1.getCitizens().size(), s2.getCitizens().size());
+        Assert.assertEquals(s1.getCitizens().getSatisfactionSum(), s2.getCitizens().getSatisfactionSum());
+        for(int i = 0; i < s1.getZones().size(); i++){
+            Zone z1 = s1.getZones().get(i);
+            Zone z2 = s2.getZoneAt(z1.getX(), z1.getY());
+            Assert.assertEquals(z1.getClass(), z2.getClass());
+            Assert.assertEquals(z1.getSaturation(), z2.getSaturation());
+            Assert.assertEquals(z1.getSatisfaction(), z2.getSatisfaction());
+            Assert.assertEquals(z1.getPeopleCount(), z2.getPeopleCount());
+            Assert.assertEquals(z1.getPeopleSatisfaction(), z2.getPeopleSatisfaction());
+        }
+        // The restored city keeps simulating
+        s2.updateSatisfaction();
+        Assert.assertEquals(s1.getSatisfaction(), s2.getSatisfaction());
+
+        // An image with an entity outside its map is rejected before anything changes
+        SaveImage image = s1.capture();
+        image.zoneX[0] = image.width;
+        try {
+            s2.restore(image);
+            Assert.fail();
+        } catch (java.io.IOException e) {
+            Assert.assertEquals(s1.getZones().size(), s2.getZones().size());
+            Assert.assertEquals(s1.getDate(), s2.getDate());
+        }
+        image = s1.capture();
+        image.buildingY[0] = -1;
+        try {
+            s2.restore(image);
+            Assert.fail();
+        } catch (java.io.IOException e) {
+            Assert.assertEquals(s1.getBuildings().size(), s2.getBuildings().size());
+        }
+
+        // A file that holds no city this version can load is reported and leaves the city as it is
+        java.io.File other = java.io.File.createTempFile("other", ".sav");
+        try (java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(new java.io.FileOutputStream(other))) {
+            out.writeObject("not a city");
+        }
+        try {
+            s2.read(other);
+            Assert.fail();
+        } catch (java.io.IOException e) {
+            Assert.assertEquals(s1.getBuildings().size(), s2.getBuildings().size());
+            Assert.assertEquals(s1.getPlayerName(), s2.getPlayerName());
+        }
+        other.delete();
+    }
+
 }
@@ -1,10 +1,7 @@
 package types;
 
-import settings.General;
-
 import java.awt.Image;
 import java.io.Serializable;
-import javax.swing.ImageIcon;
 
 /**
 
@@ -15,40 +12,27 @@ Implements the Serializable interface.
 public class Building implements Serializable {
     private int size = 1;
     private int x,y,cost;
-    private ImageIcon image;
+    private Sprite sprite;
     private int fee = 20;
     private boolean available = false;
     private int radius = 0;
+    private transient int listIndex = -1;
 
     /**
- * Constructs a new Building object with the given coordinates, size, cost, and image filename.
+ * Constructs a new Building object with the given coordinates, size, cost, and sprite.
  *
  * @param x        The x-coordinate of the building.
  * @param y        The y-coordinate of the building.
  * @param size     The size of the building.
  * @param cost     The cost of the building.
- * @param filename The filename of the building's image.
+ * @param sprite   The sprite of the building.
  */
-public Building(int x, int y, int size, int cost, String filename) {
+public Building(int x, int y, int size, int cost, Sprite sprite) {
     this.x = x;
     this.y = y;
     this.size = size;
     this.cost = cost;
-    this.image = loadImage(filename);
-}
-
-/**
- * Loads an image with the given filename and scales it to match the cell size.
- *
- * @param name The filename of the image to load.
- * @return The ImageIcon representing the loaded image.
- */
-private ImageIcon loadImage(String name) {
-    Image img = new ImageIcon("./images/buildings/" + name).getImage();
-    Image newimg = img.getScaledInstance(
-            General.cellSize * size, General.cellSize * size, java.awt.Image.SCALE_SMOOTH
-    );
-    return new ImageIcon(newimg);
+    this.sprite = sprite;
 }
 
 /**
@@ -79,12 +63,21 @@ public int getY() {
 }
 
 /**
- * Returns the image of the building.
+ * Returns the sprite of the building.
+ *
+ * @return The sprite of the building.
+ */
+public Sprite getSprite() {
+    return sprite;
+}
+
+/**
+ * Returns the image of the building, shared by every building of the same kind.
  *
  * @return The image of the building.
  */
 public Image getImage() {
-    return image.getImage();
+    return sprite.getImage(size);
 }
 
 /**
@@ -146,4 +139,22 @@ public void setRadius(int rad) {
     this.radius = rad;
 }
 
+/**
+ * Returns the position of the building in the building list of its city.
+ *
+ * @return The position, or -1 if the building is not in a city.
+ */
+public int getListIndex() {
+    return listIndex;
+}
+
+/**
+ * Sets the position of the building in the building list of its city.
+ *
+ * @param index The position.
+ */
+public void setListIndex(int index) {
+    this.listIndex = index;
+}
+
 }
@@ -1,5 +1,6 @@
 package types.Buildings;
 import types.Building;
+import types.Sprite;
 
 /**
 
@@ -14,6 +15,6 @@ public class Fire extends Building {
  * @param y The y-coordinate of the fire building.
  */
     public Fire(int x, int y) {
-        super(x,y,1,100,"fire.png");
+        super(x,y,1,100,Sprite.FIRE);
     }
 }
@@ -1,10 +1,12 @@
 package types.Buildings;
 import types.Building;
+import types.Sprite;
 /**
 Forest class representing a forest building in the city.
 Extends the Building class.
 */
 public class Forest extends Building {
+    public static final int MAX_BONUS = 11; // The bonus of a fully grown forest
     private int age = 0;
     private int bonus = 1;
 
@@ -15,7 +17,7 @@ public class Forest extends Building {
      * @param y The y-coordinate of the forest building.
      */
     public Forest(int x, int y) {
-        super(x,y,1,100,"forest.png");
+        super(x,y,1,100,Sprite.FOREST);
         super.setRadius(3);
     }
     /**
@@ -34,7 +36,7 @@ public class Forest extends Building {
         bonus = age;
         if(age > 10){
             super.setFee(0);
-            bonus = 11;
+            bonus = MAX_BONUS;
         }
     }
 /**
@@ -1,5 +1,6 @@
 package types.Buildings;
 import types.Building;
+import types.Sprite;
 
 /**
 
@@ -16,7 +17,7 @@ public class Police extends Building {
  * @param y The y-coordinate of the police building.
  */
     public Police(int x, int y) {
-        super(x,y,1,100,"police.png");
+        super(x,y,1,100,Sprite.POLICE);
         super.setRadius(3);
     }
 }
@@ -1,5 +1,6 @@
 package types.Buildings;
 import types.Building;
+import types.Sprite;
 
 /**
 
@@ -15,7 +16,7 @@ public class Road extends Building {
      * @param y The y-coordinate of the road.
      */
     public Road(int x, int y) {
-        super(x,y,1,100,"road.png");
+        super(x,y,1,100,Sprite.ROAD);
     }
     /**
      * Checks if the road is destructible.
@@ -1,5 +1,6 @@
 package types.Buildings;
 import types.Building;
+import types.Sprite;
 
 /**
 
@@ -14,7 +15,7 @@ public class Stadium extends Building {
  * @param y The y-coordinate of the stadium.
  */
     public Stadium(int x, int y) {
-        super(x,y,2,100,"stadium.png");
+        super(x,y,2,100,Sprite.STADIUM);
         super.setRadius(5);
     }
 }
@@ -6,21 +6,31 @@ import types.Zones.*;
 /**
 
 Citizen class representing a citizen in the city.
+The data of the citizen lives in a CitizenStore, this class is only a view of one of its entries.
 Implements the Serializable interface.
 */
 public class Citizen implements Serializable {
-    
-    private Residential residence;
-    private int satisfaction;
-    private Zone workplace = null;
+
+    private final CitizenStore store;
+    private final int id;
 
     /**
- * Constructs a new Citizen object with the given residence.
+ * Constructs a view of the citizen with the given id.
+ *
+ * @param aStore The store holding the citizen.
+ * @param anId The id of the citizen in the store.
+ */
+    public Citizen(CitizenStore aStore, int anId){
+        this.store = aStore;
+        this.id = anId;
+    }
+/**
+ * Returns the id of the citizen in its store.
  *
- * @param aResidence The residential zone where the citizen resides.
+ * @return The id of the citizen.
  */
-    public Citizen(Residential aResidence){
-        this.residence = aResidence;
+    public int getId(){
+        return id;
     }
 /**
  * Returns the residence of the citizen.
@@ -28,7 +38,7 @@ public class Citizen implements Serializable {
  * @return The residential zone where the citizen resides.
  */
     public Residential getResidence(){
-        return residence;
+        return store.getResidence(id);
     }
 /**
  * Returns the satisfaction level of the citizen.
@@ -36,7 +46,7 @@ public class Citizen implements Serializable {
  * @return The satisfaction level of the citizen.
  */
     public int getSatisfaction(){
-        return satisfaction;
+        return store.getSatisfaction(id);
     }
 /**
  * Sets the satisfaction level of the citizen.
@@ -45,11 +55,7 @@ public class Citizen implements Serializable {
  * @param newSatisfaction The new satisfaction level to set.
  */
     public void setSatisfaction(int newSatisfaction){
-        this.satisfaction = newSatisfaction;
-        if(satisfaction <= 10){
-            residence.leave(this);
-            workplace.leave(this);
-        }
+        store.setSatisfaction(id, newSatisfaction);
     }
 /**
  * Returns the workplace of the citizen.
@@ -57,7 +63,7 @@ public class Citizen implements Serializable {
  * @return The zone where the citizen works.
  */
     public Zone getWorkplace(){
-        return workplace;
+        return store.getWorkplace(id);
     }
 /**
  * Sets the workplace of the citizen.
@@ -65,6 +71,18 @@ public class Citizen implements Serializable {
  * @param newWorkplace The zone where the citizen works.
  */
     public void setWorkplace(Zone newWorkplace){
-        this.workplace = newWorkplace;
+        store.setWorkplace(id, newWorkplace);
+    }
+
+    @Override
+    public boolean equals(Object o){
+        if(!(o instanceof Citizen)) return false;
+        Citizen other = (Citizen) o;
+        return other.store == store && other.id == id;
+    }
+
+    @Override
+    public int hashCode(){
+        return id;
     }
 }
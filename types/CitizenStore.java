@@ -0,0 +1,350 @@
+package types;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import types.Zones.Residential;
+
+/**
+ * CitizenStore class holding every citizen of the city in primitive columns.
+ * A citizen is an int id indexing the columns: the id of its residence, the id of its workplace
+ * and its satisfaction. Ids of removed citizens are kept in a free list and reused.
+ * Zones are registered in the store to get the int ids the columns refer to.
+ * The store also remembers where each citizen sits in the people array of its residence and of its
+ * workplace, so a zone can drop a citizen in constant time by moving its last member into the hole.
+ * The sum of the satisfaction of all citizens is kept up to date, so the city average costs nothing.
+ * Citizen objects are only created on demand as thin views.
+ * The store also remembers which zones and whether any citizen changed since the last save.
+ * Implements the Serializable interface.
+ */
+public class CitizenStore implements Serializable {
+    private static final int NONE = -1;
+
+    private int[] residence = new int[16];
+    private int[] workplace = new int[16];
+    private byte[] satisfaction = new byte[16];
+    private int[] residenceSlot = new int[16];
+    private int[] workplaceSlot = new int[16];
+    private int[] freeIds = new int[0];
+    private int freeCount = 0;
+    private int size = 0; // highest used id + 1
+    private int count = 0;
+    private long satisfactionSum = 0;
+
+    private Zone[] zones = new Zone[16];
+    private int[] freeZoneIds = new int[0];
+    private int freeZoneCount = 0;
+    private int zoneSize = 0;
+
+    private transient BitSet modifiedZones;
+    private transient boolean citizensModified = true;
+
+/**
+ * Registers a zone so that citizens can live or work in it.
+ *
+ * @param zone The zone to register.
+ * @return The id of the zone.
+ */
+    public int registerZone(Zone zone){
+        int id;
+        if(freeZoneCount > 0){
+            id = freeZoneIds[--freeZoneCount];
+        }
+        else{
+            id = zoneSize++;
+            if(id == zones.length) zones = Arrays.copyOf(zones, zones.length * 2);
+        }
+        zones[id] = zone;
+        zone.attach(this, id);
+        return id;
+    }
+
+/**
+ * Unregisters a zone that no citizen lives or works in anymore.
+ *
+ * @param zone The zone to unregister.
+ */
+    public void unregisterZone(Zone zone){
+        int id = zone.getId();
+        if(id == NONE || zones[id] != zone) return;
+        zones[id] = null;
+        if(freeZoneCount == freeZoneIds.length) freeZoneIds = Arrays.copyOf(freeZoneIds, Math.max(4, freeZoneCount * 2));
+        freeZoneIds[freeZoneCount++] = id;
+        zone.attach(null, NONE);
+    }
+
+/**
+ * Returns the ids of the zones changed since the last call and forgets them.
+ *
+ * @return The ids of the changed zones.
+ */
+    public BitSet takeModifiedZones(){
+        BitSet result = modifiedZones == null ? new BitSet() : modifiedZones;
+        modifiedZones = null;
+        return result;
+    }
+
+/**
+ * Returns whether a zone changed since the last call to takeModifiedZones.
+ *
+ * @return True if a zone changed, false otherwise.
+ */
+    public boolean hasModifiedZones(){
+        return modifiedZones != null && !modifiedZones.isEmpty();
+    }
+
+/**
+ * Returns whether a citizen or the members of a zone changed since the last call.
+ *
+ * @return True if the citizens changed, false otherwise.
+ */
+    public boolean takeCitizensModified(){
+        boolean result = citizensModified;
+        citizensModified = false;
+        return result;
+    }
+
+/**
+ * Records a change of the saved state of a zone.
+ *
+ * @param id The id of the zone.
+ */
+    void zoneModified(int id){
+        if(modifiedZones == null) modifiedZones = new BitSet();
+        modifiedZones.set(id);
+    }
+
+/**
+ * Returns an upper bound of the zone ids in use.
+ *
+ * @return The highest zone id ever used plus one.
+ */
+    public int getZoneCapacity(){
+        return zoneSize;
+    }
+
+/**
+ * Returns the zone with the given id.
+ *
+ * @param id The id of the zone.
+ * @return The zone, or null if the id is not in use.
+ */
+    public Zone getZone(int id){
+        if(id == NONE) return null;
+        return zones[id];
+    }
+
+/**
+ * Adds a new citizen living in the given residential zone.
+ * The citizen starts without a workplace and with a satisfaction of 0.
+ *
+ * @param aResidence The registered residential zone where the citizen lives.
+ * @return The id of the new citizen.
+ */
+    public int add(Residential aResidence){
+        int id = allocate();
+        residence[id] = aResidence.getId();
+        workplace[id] = NONE;
+        satisfaction[id] = 0;
+        residenceSlot[id] = NONE;
+        workplaceSlot[id] = NONE;
+        count++;
+        citizensModified = true;
+        aResidence.addCitizen(id);
+        return id;
+    }
+
+/**
+ * Adds a citizen read from a save file, without making it a member of any zone.
+ * The zones restore their members themselves, in their saved order.
+ *
+ * @param aResidence The registered residential zone where the citizen lives.
+ * @param aWorkplace The registered zone where the citizen works, or null.
+ * @param aSatisfaction The satisfaction level of the citizen.
+ * @return The id of the citizen.
+ */
+    public int restore(Residential aResidence, Zone aWorkplace, int aSatisfaction){
+        int id = allocate();
+        residence[id] = aResidence.getId();
+        workplace[id] = aWorkplace == null ? NONE : aWorkplace.getId();
+        satisfaction[id] = (byte) aSatisfaction;
+        residenceSlot[id] = NONE;
+        workplaceSlot[id] = NONE;
+        satisfactionSum += aSatisfaction;
+        count++;
+        citizensModified = true;
+        return id;
+    }
+
+/**
+ * Removes a citizen from the store and from the zones it belongs to.
+ *
+ * @param id The id of the citizen.
+ */
+    public void remove(int id){
+        Zone home = getZone(residence[id]);
+        if(home != null) home.leave(id);
+        Zone work = getZone(workplace[id]);
+        if(work != null) work.leave(id);
+        residence[id] = NONE;
+        workplace[id] = NONE;
+        satisfactionSum -= satisfaction[id];
+        satisfaction[id] = 0;
+        if(freeCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, Math.max(4, freeCount * 2));
+        freeIds[freeCount++] = id;
+        count--;
+        citizensModified = true;
+    }
+
+/**
+ * Returns the number of citizens in the store.
+ *
+ * @return The number of citizens.
+ */
+    public int size(){
+        return count;
+    }
+
+/**
+ * Returns the sum of the satisfaction of all citizens.
+ *
+ * @return The satisfaction sum.
+ */
+    public long getSatisfactionSum(){
+        return satisfactionSum;
+    }
+
+/**
+ * Returns an upper bound of the citizen ids in use.
+ *
+ * @return The highest citizen id ever used plus one.
+ */
+    public int getCapacity(){
+        return size;
+    }
+
+/**
+ * Checks if the given id belongs to a citizen.
+ *
+ * @param id The id to check.
+ * @return True if a citizen has the id, false if the id is free.
+ */
+    public boolean contains(int id){
+        return id >= 0 && id < size && residence[id] != NONE;
+    }
+
+/**
+ * Returns the residence of a citizen.
+ *
+ * @param id The id of the citizen.
+ * @return The residential zone where the citizen lives.
+ */
+    public Residential getResidence(int id){
+        return (Residential) getZone(residence[id]);
+    }
+
+/**
+ * Returns the workplace of a citizen.
+ *
+ * @param id The id of the citizen.
+ * @return The zone where the citizen works, or null if it has no workplace.
+ */
+    public Zone getWorkplace(int id){
+        return getZone(workplace[id]);
+    }
+
+/**
+ * Sets the workplace of a citizen.
+ *
+ * @param id The id of the citizen.
+ * @param newWorkplace The registered zone where the citizen works, or null.
+ */
+    public void setWorkplace(int id, Zone newWorkplace){
+        workplace[id] = newWorkplace == null ? NONE : newWorkplace.getId();
+        citizensModified = true;
+    }
+
+/**
+ * Returns the satisfaction of a citizen.
+ *
+ * @param id The id of the citizen.
+ * @return The satisfaction level of the citizen.
+ */
+    public int getSatisfaction(int id){
+        return satisfaction[id];
+    }
+
+/**
+ * Sets the satisfaction of a citizen.
+ * If the satisfaction level drops to 10 or below, the citizen leaves its residence and workplace.
+ *
+ * @param id The id of the citizen.
+ * @param newSatisfaction The new satisfaction level to set.
+ */
+    public void setSatisfaction(int id, int newSatisfaction){
+        int delta = newSatisfaction - satisfaction[id];
+        if(delta != 0) citizensModified = true;
+        satisfaction[id] = (byte) newSatisfaction;
+        satisfactionSum += delta;
+        Zone home = getZone(residence[id]);
+        Zone work = getZone(workplace[id]);
+        if(home != null && residenceSlot[id] != NONE) home.satisfactionChanged(delta);
+        if(work != null && workplaceSlot[id] != NONE) work.satisfactionChanged(delta);
+        if(newSatisfaction <= 10){
+            if(home != null) home.leave(id);
+            if(work != null) work.leave(id);
+        }
+    }
+
+/**
+ * Returns the position of a citizen in the people array of a zone.
+ * A residential zone is the residence of its people, any other zone is their workplace.
+ *
+ * @param zone The zone the citizen belongs to.
+ * @param id The id of the citizen.
+ * @return The position of the citizen in the zone, or -1 if it is not a member.
+ */
+    public int getSlot(Zone zone, int id){
+        return zone instanceof Residential ? residenceSlot[id] : workplaceSlot[id];
+    }
+
+/**
+ * Records the position of a citizen in the people array of a zone.
+ *
+ * @param zone The zone the citizen belongs to.
+ * @param id The id of the citizen.
+ * @param slot The position of the citizen in the zone, or -1 if it left the zone.
+ */
+    public void setSlot(Zone zone, int id, int slot){
+        if(zone instanceof Residential) residenceSlot[id] = slot;
+        else workplaceSlot[id] = slot;
+        citizensModified = true;
+    }
+
+/**
+ * Returns a view of a citizen.
+ *
+ * @param id The id of the citizen.
+ * @return A Citizen object reading and writing this store.
+ */
+    public Citizen get(int id){
+        return new Citizen(this, id);
+    }
+
+    private int allocate(){
+        if(freeCount > 0) return freeIds[--freeCount];
+        int id = size++;
+        if(id == residence.length) grow();
+        return id;
+    }
+
+    private void grow(){
+        int capacity = residence.length * 2;
+        residence = Arrays.copyOf(residence, capacity);
+        workplace = Arrays.copyOf(workplace, capacity);
+        satisfaction = Arrays.copyOf(satisfaction, capacity);
+        residenceSlot = Arrays.copyOf(residenceSlot, capacity);
+        workplaceSlot = Arrays.copyOf(workplaceSlot, capacity);
+    }
+}
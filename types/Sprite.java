@@ -0,0 +1,46 @@
+package types;
+
+import java.awt.Image;
+
+/**
+ * Sprite enum listing every image a building or a zone can show.
+ * Model objects only keep one of these ids; the pixels live once in the SpriteRegistry.
+ */
+public enum Sprite {
+    ROAD("road.png"),
+    FOREST("forest.png"),
+    POLICE("police.png"),
+    STADIUM("stadium.png"),
+    FIRE("fire.png"),
+    ONE_HOUSE("oneHouse.png"),
+    TWO_HOUSES("twoHouses.png"),
+    SMALL_INDUSTRIAL("smallIndustrial.png"),
+    LARGE_INDUSTRIAL("largeIndustrial.png"),
+    SMALL_SERVICE("smallService.png"),
+    LARGE_SERVICE("largeService.png");
+
+    private final String fileName;
+
+    Sprite(String aFileName){
+        this.fileName = aFileName;
+    }
+
+/**
+ * Returns the name of the image file of the sprite.
+ *
+ * @return The file name, relative to the buildings image folder.
+ */
+    public String getFileName(){
+        return fileName;
+    }
+
+/**
+ * Returns the sprite scaled for an object of the given size at the current cell size.
+ *
+ * @param size The size of the object in cells.
+ * @return The shared scaled image.
+ */
+    public Image getImage(int size){
+        return SpriteRegistry.get(this, size).getImage();
+    }
+}
@@ -0,0 +1,83 @@
+package types;
+
+import java.awt.Image;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.swing.ImageIcon;
+import settings.General;
+
+/**
+ * SpriteRegistry class decoding and scaling every image once.
+ * Images are keyed by file name, size in cells and cell size, so a change of the cell size scales them
+ * again while buildings and zones of the same kind keep sharing one image.
+ */
+public final class SpriteRegistry {
+    private static final ConcurrentHashMap<Key, ImageIcon> images = new ConcurrentHashMap<Key, ImageIcon>();
+
+    private SpriteRegistry(){
+    }
+
+/**
+ * Returns the image of a sprite scaled for an object of the given size.
+ *
+ * @param sprite The sprite to get.
+ * @param size The size of the object in cells.
+ * @return The shared ImageIcon.
+ */
+    public static ImageIcon get(Sprite sprite, int size){
+        return get(sprite.getFileName(), size);
+    }
+
+/**
+ * Returns the image with the given file name scaled for an object of the given size.
+ *
+ * @param fileName The name of the image file in the buildings image folder.
+ * @param size The size of the object in cells.
+ * @return The shared ImageIcon.
+ */
+    public static ImageIcon get(String fileName, int size){
+        return images.computeIfAbsent(new Key(fileName, size, General.cellSize), SpriteRegistry::load);
+    }
+
+/**
+ * Returns the number of scaled images held by the registry.
+ *
+ * @return The number of cached images.
+ */
+    public static int size(){
+        return images.size();
+    }
+
+    private static ImageIcon load(Key key){
+        Image img = new ImageIcon("./images/buildings/" + key.fileName).getImage();
+        Image newimg = img.getScaledInstance(
+            key.cellSize * key.size, key.cellSize * key.size, java.awt.Image.SCALE_SMOOTH
+        );
+        return new ImageIcon(newimg);
+    }
+
+    private static final class Key {
+        private final String fileName;
+        private final int size;
+        private final int cellSize;
+
+        private Key(String aFileName, int aSize, int aCellSize){
+            this.fileName = aFileName;
+            this.size = aSize;
+            this.cellSize = aCellSize;
+        }
+
+        @Override
+        public boolean equals(Object o){
+            if(!(o instanceof Key)) return false;
+            Key other = (Key) o;
+            return other.size == size && other.cellSize == cellSize && other.fileName.equals(fileName);
+        }
+
+        @Override
+        public int hashCode(){
+            return Objects.hash(fileName, size, cellSize);
+        }
+    }
+}
@@ -2,9 +2,9 @@ package types;
 import java.awt.Image;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import javax.swing.ImageIcon;
-import settings.General;
 
 /**
 Zone class representing a zone in the city.
@@ -14,13 +14,19 @@ public class Zone implements Serializable {
     private int size = 1;
     private int x,y,type;
     private int cost = 50;
-    protected ImageIcon image = null;
+    private Sprite sprite = null;
     private boolean available = false; 
     protected int capacity = 100;
     protected int saturation = 0;
     private boolean changed = false;
+    private transient boolean dirty = false;
     protected int satisfaction = 100;
-    protected ArrayList<Citizen> people = new ArrayList<Citizen>();
+    private int id = -1;
+    private transient int listIndex = -1;
+    protected CitizenStore store = null;
+    protected int[] people = new int[0];
+    protected int peopleCount = 0;
+    protected long peopleSatisfaction = 0;
 
     
 /**
@@ -64,19 +70,76 @@ public int getSize(){
 }
 
 /**
- * Loads and returns the image of the zone with the given name.
- * Scales the image to match the cell size specified in the General settings.
+ * Returns the image of the zone with the given name.
+ * The image is scaled to match the cell size specified in the General settings and shared through the
+ * SpriteRegistry; the zone keeps showing its own sprite.
  *
  * @param name The name of the image file.
  * @return The ImageIcon representing the zone image.
  */
 public ImageIcon loadImage(String name) {
-    Image img = new ImageIcon("./images/buildings/" + name).getImage();
-    Image newimg = img.getScaledInstance(
-        General.cellSize * size, General.cellSize * size, java.awt.Image.SCALE_SMOOTH
-    );
     changed = true;
-    return new ImageIcon(newimg);
+    return SpriteRegistry.get(name, size);
+}
+
+/**
+ * Sets the sprite shown by the zone and marks the zone as changed.
+ *
+ * @param newSprite The sprite to show, or null to show the colour of the zone.
+ */
+protected void setSprite(Sprite newSprite) {
+    if(sprite != newSprite) modified();
+    sprite = newSprite;
+    changed = true;
+}
+
+/**
+ * Records in the citizen store that the saved state of the zone changed, so the next save writes it.
+ */
+protected void modified() {
+    if(store != null) store.zoneModified(id);
+}
+
+/**
+ * Returns the sprite shown by the zone.
+ *
+ * @return The sprite of the zone, or null if it shows its colour.
+ */
+public Sprite getSprite() {
+    return sprite;
+}
+
+/**
+ * Loads the image matching the saturation of the zone.
+ * A plain zone has no image of its own, the zone types override this.
+ */
+public void updateImage(){
+}
+
+/**
+ * Returns whether the zone shows an image rather than its colour.
+ *
+ * @return True if the zone has an image, false otherwise.
+ */
+public boolean hasImage(){
+    return sprite != null;
+}
+
+/**
+ * Restores the state of a zone read from a save file.
+ * The image is reloaded from the saturation when the zone had one.
+ *
+ * @param saturation The saturation of the zone.
+ * @param satisfaction The satisfaction level of the zone.
+ * @param available The availability of the zone.
+ * @param withImage Whether the zone had an image.
+ */
+public void restore(int saturation, int satisfaction, boolean available, boolean withImage){
+    this.saturation = saturation;
+    this.satisfaction = satisfaction;
+    this.available = available;
+    if(withImage) updateImage();
+    modified();
 }
 
 /**
@@ -112,8 +175,8 @@ public int getType(){
  * @return The image of the zone as an Image object.
  */
 public Image getImage() {
-    if(image == null) return null;
-    else return image.getImage();
+    if(sprite == null) return null;
+    else return sprite.getImage(size);
 }
 
 /**
@@ -140,6 +203,7 @@ public boolean getAvailable(){
  * @param b The availability status to set.
  */
 public void setAvailable(boolean b){
+    if(available != b) modified();
     available = b;
 }
 
@@ -161,6 +225,24 @@ public void setChanged(boolean b){
     this.changed = b;
 }
 
+/**
+ * Returns whether the satisfaction of the zone has to be recomputed.
+ *
+ * @return True if the zone is waiting for a satisfaction update, false otherwise.
+ */
+public boolean isDirty(){
+    return dirty;
+}
+
+/**
+ * Sets whether the satisfaction of the zone has to be recomputed.
+ *
+ * @param b The dirty status to set.
+ */
+public void setDirty(boolean b){
+    this.dirty = b;
+}
+
 /**
  * Returns the saturation level of the zone.
  *
@@ -180,13 +262,98 @@ public int getSatisfaction(){
     return satisfaction;
 }
 
+/**
+ * Returns the position of the zone in the zone list of its city.
+ *
+ * @return The position, or -1 if the zone is not in a city.
+ */
+public int getListIndex(){
+    return listIndex;
+}
+
+/**
+ * Sets the position of the zone in the zone list of its city.
+ *
+ * @param index The position.
+ */
+public void setListIndex(int index){
+    this.listIndex = index;
+}
+
+/**
+ * Returns the id of the zone in its citizen store.
+ *
+ * @return The id of the zone, or -1 if the zone is not registered.
+ */
+public int getId(){
+    return id;
+}
+
+/**
+ * Attaches the zone to the citizen store it is registered in.
+ *
+ * @param aStore The store holding the citizens of the zone, or null.
+ * @param anId The id of the zone in the store.
+ */
+public void attach(CitizenStore aStore, int anId){
+    this.store = aStore;
+    this.id = anId;
+}
+
+/**
+ * Returns the citizen store the zone is registered in.
+ *
+ * @return The store holding the citizens of the zone, or null.
+ */
+public CitizenStore getStore(){
+    return store;
+}
+
+/**
+ * Returns the number of citizens in the zone.
+ *
+ * @return The number of citizens living or working in the zone.
+ */
+public int getPeopleCount(){
+    return peopleCount;
+}
+
+/**
+ * Returns the id of a citizen of the zone.
+ *
+ * @param index The position of the citizen in the zone, from 0 to getPeopleCount() - 1.
+ * @return The id of the citizen.
+ */
+public int getPerson(int index){
+    return people[index];
+}
+
 /**
  * Returns the list of citizens in the zone.
+ * The Citizen objects are views created for this call.
  *
  * @return The ArrayList of Citizen objects in the zone.
  */
 public ArrayList<Citizen> getPeople(){
-    return people;
+    ArrayList<Citizen> result = new ArrayList<Citizen>(peopleCount);
+    for(int i = 0; i < peopleCount; i++){
+        result.add(store.get(people[i]));
+    }
+    return result;
+}
+
+/**
+ * Adds a citizen to the zone.
+ * The zone must be registered in the store of the citizen.
+ *
+ * @param id The id of the citizen to add.
+ */
+public void addCitizen(int id){
+    if(peopleCount == people.length) people = Arrays.copyOf(people, Math.max(4, peopleCount * 2));
+    store.setSlot(this, id, peopleCount);
+    people[peopleCount++] = id;
+    peopleSatisfaction += store.getSatisfaction(id);
+    modified();
 }
 
 /**
@@ -195,7 +362,42 @@ public ArrayList<Citizen> getPeople(){
  * @param c The Citizen object to add.
  */
 public void addCitizen(Citizen c){
-    people.add(c);
+    addCitizen(c.getId());
+}
+
+/**
+ * Removes a citizen from the zone in constant time.
+ * The last citizen of the zone takes the place of the removed one, so the order of the people changes.
+ *
+ * @param id The id of the citizen to remove.
+ */
+public void leave(int id){
+    int slot = store.getSlot(this, id);
+    if(slot < 0 || slot >= peopleCount || people[slot] != id) return;
+    int last = people[--peopleCount];
+    people[slot] = last;
+    store.setSlot(this, last, slot);
+    store.setSlot(this, id, -1);
+    peopleSatisfaction -= store.getSatisfaction(id);
+    modified();
+}
+
+/**
+ * Returns the sum of the satisfaction of the citizens in the zone.
+ *
+ * @return The satisfaction sum of the people of the zone.
+ */
+public long getPeopleSatisfaction(){
+    return peopleSatisfaction;
+}
+
+/**
+ * Records a change of the satisfaction of one of the citizens in the zone.
+ *
+ * @param delta The change of the satisfaction of the citizen.
+ */
+void satisfactionChanged(int delta){
+    peopleSatisfaction += delta;
 }
 
 /**
@@ -204,6 +406,6 @@ public void addCitizen(Citizen c){
  * @param c The Citizen object to remove.
  */
 public void leave(Citizen c){
-    people.remove(c);
+    leave(c.getId());
 }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package types.Zones;
 
 import types.Citizen;
+import types.Sprite;
 import types.Zone;
 
 /**
@@ -33,36 +34,51 @@ public int getRadius(){
 /**
  * Adds a worker to the industrial zone.
  *
- * @param c The citizen to be added as a worker.
+ * @param id The id of the citizen to be added as a worker.
  * @return True if the worker was successfully added, false otherwise.
  */
-public boolean addWorker(Citizen c){
+public boolean addWorker(int id){
     if(super.getAvailableSize() == 0){
         return false;
     }
     saturation++;
+    updateImage();
+    addCitizen(id);
+    this.updateSatisfaction();
+    return true;
+}
+
+/**
+ * Adds a worker to the industrial zone.
+ *
+ * @param c The citizen to be added as a worker.
+ * @return True if the worker was successfully added, false otherwise.
+ */
+public boolean addWorker(Citizen c){
+    return addWorker(c.getId());
+}
+
+/**
+ * Loads the image matching the saturation of the industrial zone.
+ */
+@Override
+public void updateImage(){
     if(saturation <= 50 && saturation > 0){
-        image = super.loadImage("smallIndustrial.png");
+        setSprite(Sprite.SMALL_INDUSTRIAL);
     }
     else{
-        image = super.loadImage("largeIndustrial.png");
+        setSprite(Sprite.LARGE_INDUSTRIAL);
     }
-    people.add(c);
-    this.updateSatisfaction();
-    return true;
 }
 
 /**
  * Updates the satisfaction level of the industrial zone based on the satisfaction levels of the workers.
  */
 public void updateSatisfaction(){
-    int avg = 0;
-    for(Citizen c: people){
-        avg+=c.getSatisfaction();
-    }
-    if(people.size() != 0) {
-        avg = avg/people.size();
-        satisfaction = avg;
+    if(peopleCount != 0) {
+        int newSatisfaction = (int) (peopleSatisfaction/peopleCount);
+        if(satisfaction != newSatisfaction) modified();
+        satisfaction = newSatisfaction;
     }
 }
 
@@ -1,6 +1,7 @@
 package types.Zones;
 
 import types.Citizen;
+import types.Sprite;
 import types.Zone;
 /**
 
@@ -21,35 +22,49 @@ public class Service extends Zone {
     /**
      * Adds a worker to the service zone.
      *
-     * @param c The citizen to add as a worker.
+     * @param id The id of the citizen to add as a worker.
      * @return True if the worker was successfully added, false otherwise.
      */
-    public boolean addWorker(Citizen c){
+    public boolean addWorker(int id){
         if(super.getAvailableSize() == 0){
             return false;
         }
         saturation++;
+        updateImage();
+        addCitizen(id);
+        this.updateSatisfaction();
+        return true;
+    }
+    /**
+     * Adds a worker to the service zone.
+     *
+     * @param c The citizen to add as a worker.
+     * @return True if the worker was successfully added, false otherwise.
+     */
+    public boolean addWorker(Citizen c){
+        return addWorker(c.getId());
+    }
+
+    /**
+     * Loads the image matching the saturation of the service zone.
+     */
+    @Override
+    public void updateImage(){
         if(saturation <= 50 && saturation > 0){
-            image = super.loadImage("smallService.png");
+            setSprite(Sprite.SMALL_SERVICE);
         }
         else{
-            image = super.loadImage("largeService.png");
+            setSprite(Sprite.LARGE_SERVICE);
         }
-        people.add(c);
-        this.updateSatisfaction();
-        return true;
     }
     /**
      * Updates the satisfaction level of the service zone based on the average satisfaction of its workers.
      */
     public void updateSatisfaction(){
-        int avg = 0;
-        for(Citizen c: people){
-            avg+=c.getSatisfaction();
-        }
-        if(people.size() != 0) {
-            avg = avg/people.size();
-            satisfaction = avg;
+        if(peopleCount != 0) {
+            int newSatisfaction = (int) (peopleSatisfaction/peopleCount);
+            if(satisfaction != newSatisfaction) modified();
+            satisfaction = newSatisfaction;
         }
     }
 }